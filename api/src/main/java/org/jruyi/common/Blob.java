@@ -259,6 +259,31 @@ public final class Blob implements IDumpable, ICloseable {
 		return kmp.findIn(m_data, m_offsets, m_lengths, m_size);
 	}
 
+	/**
+	 * Return the index of the first occurrence of the specified byte sequence
+	 * {@code bmh}.
+	 * 
+	 * @param bmh
+	 *            the byte sequence to be searched for
+	 * @return the index of the first occurrence of the specified byte sequence
+	 *         {@code bmh}
+	 */
+	public int indexOf(ByteBmh bmh) {
+		return bmh.findIn(m_data, m_offsets, m_lengths, m_size);
+	}
+
+	/**
+	 * Return the index of the earliest occurrence of any of the byte sequences
+	 * of the specified {@code patterns}.
+	 * 
+	 * @param patterns
+	 *            the byte sequences to be searched for
+	 * @return the index of the earliest occurrence
+	 */
+	public int indexOf(ByteMultiPattern patterns) {
+		return patterns.findIn(m_data, m_offsets, m_lengths, m_size);
+	}
+
 	/**
 	 * Return the index within this sequence of the rightmost occurrence of the
 	 * specified byte sequence {@code kmp}.
@@ -0,0 +1,218 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A byte sequence to be searched for using the Boyer-Moore-Horspool algorithm.
+ * It skips up to the length of the sequence on a mismatch, which pays off for
+ * long sequences such as multipart boundaries.
+ */
+public final class ByteBmh {
+
+	private final byte[] m_pattern;
+	private final int[] m_shifts;
+
+	/**
+	 * Construct a BMH pattern with the given {@code pattern} as the sequence to
+	 * be searched for.
+	 * 
+	 * @param pattern
+	 *            the byte sequence to be searched for
+	 */
+	public ByteBmh(byte[] pattern) {
+		this(pattern, 0, pattern.length);
+	}
+
+	/**
+	 * Construct a BMH pattern with the given {@code pattern} starting at
+	 * {@code offset} ending at {@code (offset + length)} to be searched for.
+	 * 
+	 * @param pattern
+	 *            the byte sequence to be searched for
+	 * @param offset
+	 *            the index of the first byte of the {@code pattern} to be
+	 *            searched for
+	 * @param length
+	 *            the number of bytes to be searched for
+	 */
+	public ByteBmh(byte[] pattern, int offset, int length) {
+		byte[] copy = new byte[length];
+		System.arraycopy(pattern, offset, copy, 0, length);
+		m_pattern = copy;
+
+		int[] shifts = new int[256];
+		for (int i = 0; i < 256; ++i)
+			shifts[i] = length;
+		for (int i = 0, n = length - 1; i < n; ++i)
+			shifts[copy[i] & 0xFF] = n - i;
+		m_shifts = shifts;
+	}
+
+	/**
+	 * Return the index of the first occurrence of this BMH sequence in the
+	 * given sequence {@code target} starting at {@code offset} ending at
+	 * {@code (offset + length)}.
+	 * 
+	 * @param target
+	 *            the sequence to be searched
+	 * @param offset
+	 *            the index to be searched from
+	 * @param length
+	 *            the number of bytes to be searched
+	 * @return the index of the first matched subsequence, or {@code -1} if not
+	 *         found
+	 * @throws IndexOutOfBoundsException
+	 *             if {@code offset} or {@code length} doesn't hold the
+	 *             condition
+	 */
+	public int findIn(byte[] target, int offset, int length) {
+		if (offset < 0 || length < 0 || (length += offset) > target.length)
+			throw new IndexOutOfBoundsException();
+
+		byte[] pattern = m_pattern;
+		int n = pattern.length - 1;
+		if (n < 0)
+			return offset;
+
+		int[] shifts = m_shifts;
+		byte last = pattern[n];
+		// index of the last byte of the window
+		int end = offset + n;
+		while (end < length) {
+			byte b = target[end];
+			if (b == last) {
+				int i = n;
+				int j = end;
+				while (--i >= 0 && pattern[i] == target[--j])
+					;
+				if (i < 0)
+					return end - n;
+			}
+			end += shifts[b & 0xFF];
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Return the index of the first occurrence of this BMH sequence in the
+	 * given byte buffer {@code target} starting at {@code offset} ending at
+	 * {@code (offset + length)}. The bytes are read by absolute get, so a
+	 * direct buffer is searched in place, and neither its position nor its
+	 * limit is changed.
+	 * 
+	 * @param target
+	 *            the byte buffer to be searched
+	 * @param offset
+	 *            the index to be searched from
+	 * @param length
+	 *            the number of bytes to be searched
+	 * @return the index of the first matched subsequence, or {@code -1} if not
+	 *         found
+	 * @throws IndexOutOfBoundsException
+	 *             if {@code offset} or {@code length} doesn't hold the
+	 *             condition
+	 */
+	public int findIn(ByteBuffer target, int offset, int length) {
+		if (offset < 0 || length < 0 || (length += offset) > target.limit())
+			throw new IndexOutOfBoundsException();
+
+		byte[] pattern = m_pattern;
+		int n = pattern.length - 1;
+		if (n < 0)
+			return offset;
+
+		int[] shifts = m_shifts;
+		byte last = pattern[n];
+		// index of the last byte of the window
+		int end = offset + n;
+		while (end < length) {
+			byte b = target.get(end);
+			if (b == last) {
+				int i = n;
+				int j = end;
+				while (--i >= 0 && pattern[i] == target.get(--j))
+					;
+				if (i < 0)
+					return end - n;
+			}
+			end += shifts[b & 0xFF];
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Return the length of this sequence.
+	 * 
+	 * @return the length of this sequence
+	 */
+	public int length() {
+		return m_pattern.length;
+	}
+
+	int findIn(byte[][] target, int[] offsets, int[] lengths, int size) {
+		byte[] pattern = m_pattern;
+		int n = pattern.length - 1;
+		if (n < 0)
+			return 0;
+
+		int[] shifts = m_shifts;
+		byte last = pattern[n];
+		// the segment holding the last byte of the window, and the global
+		// index of its first byte
+		int a = 0;
+		int base = 0;
+		int end = n;
+		for (;;) {
+			while (a < size && end - base >= lengths[a])
+				base += lengths[a++];
+			if (a >= size)
+				return -1;
+
+			byte b = target[a][offsets[a] + end - base];
+			if (b == last && matchesBefore(target, offsets, lengths, a, end
+					- base, n))
+				return end - n;
+
+			end += shifts[b & 0xFF];
+		}
+	}
+
+	/**
+	 * Test whether the first {@code n} bytes of the pattern precede the byte
+	 * at {@code index} of segment {@code a}, going back across the segments.
+	 */
+	private boolean matchesBefore(byte[][] target, int[] offsets,
+			int[] lengths, int a, int index, int n) {
+		byte[] pattern = m_pattern;
+		byte[] data = target[a];
+		while (--n >= 0) {
+			while (--index < 0) {
+				if (--a < 0)
+					return false;
+				data = target[a];
+				index = lengths[a];
+			}
+
+			if (pattern[n] != data[offsets[a] + index])
+				return false;
+		}
+		return true;
+	}
+}
@@ -15,6 +15,8 @@
  */
 package org.jruyi.common;
 
+import java.nio.ByteBuffer;
+
 /**
  * A byte sequence to be searched for using the Knuth–Morris–Pratt algorithm.
  */
@@ -101,6 +103,56 @@ public final class ByteKmp {
 		return -1;
 	}
 
+	/**
+	 * Return the index of the first occurrence of this KMP sequence in the
+	 * given byte buffer {@code target} starting at {@code offset} ending at
+	 * {@code (offset + length)}. The bytes are read by absolute get, so a
+	 * direct buffer is searched in place, and neither its position nor its
+	 * limit is changed.
+	 * 
+	 * @param target
+	 *            the byte buffer to be searched
+	 * @param offset
+	 *            the index to be searched from
+	 * @param length
+	 *            the number of bytes to be searched
+	 * @return the index of the first matched subsequence, or {@code -1} if not
+	 *         found
+	 * @throws IndexOutOfBoundsException
+	 *             if {@code offset} or {@code length} doesn't hold the
+	 *             condition
+	 */
+	public int findIn(ByteBuffer target, int offset, int length) {
+		if (offset < 0 || length < 0 || (length += offset) > target.limit())
+			throw new IndexOutOfBoundsException();
+
+		byte[] pattern = m_pattern;
+		int n = pattern.length;
+		if (n == 0)
+			return offset;
+
+		length -= n;
+		--n;
+
+		int[] table = getKmpTable();
+		int i = 0;
+		while (offset <= length) {
+			if (pattern[i] == target.get(offset + i)) {
+				if (i == n)
+					return offset;
+				++i;
+			} else {
+				offset += i;
+				i = table[i];
+				offset -= i;
+				if (i < 0)
+					i = 0;
+			}
+		}
+
+		return -1;
+	}
+
 	/**
 	 * Return the index of the rightmost occurrence of this KMP sequence in the
 	 * given sequence {@code target} starting at {@code offset} ending at
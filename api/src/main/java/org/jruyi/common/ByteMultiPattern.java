@@ -0,0 +1,310 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A set of byte sequences to be searched for at once using the Aho-Corasick
+ * algorithm. A search reports the earliest occurrence of any of the sequences,
+ * scanning each byte of the target only once.
+ * <p>
+ * The patterns are compiled into a deterministic automaton with a transition
+ * table of 256 entries per state, so the total length of the patterns is
+ * expected to be small, as is the case with delimiters.
+ */
+public final class ByteMultiPattern {
+
+	private final byte[][] m_patterns;
+	// m_next[(state << 8) | b] is the state after reading b
+	private final int[] m_next;
+	// length of the longest pattern ending at each state, 0 for none
+	private final int[] m_matchLengths;
+	private final int m_maxLength;
+
+	/**
+	 * Construct a multi-pattern with the given {@code patterns} as the
+	 * sequences to be searched for.
+	 * 
+	 * @param patterns
+	 *            the byte sequences to be searched for
+	 * @throws IllegalArgumentException
+	 *             if no pattern is given or any of them is empty
+	 */
+	public ByteMultiPattern(byte[]... patterns) {
+		int n = patterns.length;
+		if (n < 1)
+			throw new IllegalArgumentException("No pattern");
+
+		byte[][] copies = new byte[n][];
+		int states = 1;
+		int maxLength = 0;
+		for (int i = 0; i < n; ++i) {
+			byte[] pattern = patterns[i];
+			int length = pattern.length;
+			if (length < 1)
+				throw new IllegalArgumentException("Empty pattern");
+
+			copies[i] = pattern.clone();
+			states += length;
+			if (length > maxLength)
+				maxLength = length;
+		}
+
+		// build the trie, -1 for no edge
+		int[] next = new int[states << 8];
+		for (int i = 0; i < next.length; ++i)
+			next[i] = -1;
+		int[] depths = new int[states];
+		int[] matchLengths = new int[states];
+		int count = 1;
+		for (byte[] pattern : copies) {
+			int state = 0;
+			for (byte b : pattern) {
+				int k = (state << 8) | (b & 0xFF);
+				if (next[k] < 0) {
+					depths[count] = depths[state] + 1;
+					next[k] = count++;
+				}
+				state = next[k];
+			}
+			matchLengths[state] = pattern.length;
+		}
+
+		// turn the trie into the automaton in breadth-first order
+		int[] fails = new int[count];
+		int[] queue = new int[count];
+		int head = 0;
+		int tail = 0;
+		for (int b = 0; b < 256; ++b) {
+			int s = next[b];
+			if (s < 0)
+				next[b] = 0;
+			else
+				queue[tail++] = s;
+		}
+
+		while (head < tail) {
+			int state = queue[head++];
+			int fail = fails[state];
+			if (matchLengths[state] == 0)
+				matchLengths[state] = matchLengths[fail];
+
+			for (int b = 0; b < 256; ++b) {
+				int k = (state << 8) | b;
+				int s = next[k];
+				int t = next[(fail << 8) | b];
+				if (s < 0)
+					next[k] = t;
+				else {
+					fails[s] = t;
+					queue[tail++] = s;
+				}
+			}
+		}
+
+		if (count < states) {
+			int[] trimmed = new int[count << 8];
+			System.arraycopy(next, 0, trimmed, 0, trimmed.length);
+			next = trimmed;
+		}
+
+		m_patterns = copies;
+		m_next = next;
+		m_matchLengths = matchLengths;
+		m_maxLength = maxLength;
+	}
+
+	/**
+	 * Return the number of the patterns.
+	 * 
+	 * @return the number of the patterns
+	 */
+	public int size() {
+		return m_patterns.length;
+	}
+
+	/**
+	 * Return the length of the longest pattern.
+	 * 
+	 * @return the length of the longest pattern
+	 */
+	public int maxLength() {
+		return m_maxLength;
+	}
+
+	/**
+	 * Return a copy of the pattern at the given {@code index}.
+	 * 
+	 * @param index
+	 *            the index of the pattern in the constructor arguments
+	 * @return the pattern
+	 */
+	public byte[] pattern(int index) {
+		return m_patterns[index].clone();
+	}
+
+	/**
+	 * Return the index of the longest pattern occurring at the given
+	 * {@code index} of the given {@code sequence}, typically the index
+	 * returned by a search.
+	 * 
+	 * @param sequence
+	 *            the sequence searched
+	 * @param index
+	 *            the index of the occurrence
+	 * @return the index of the pattern, or {@code -1} if none occurs there
+	 */
+	public int patternAt(IByteSequence sequence, int index) {
+		byte[][] patterns = m_patterns;
+		int found = -1;
+		int length = 0;
+		for (int i = 0; i < patterns.length; ++i) {
+			byte[] pattern = patterns[i];
+			if (pattern.length > length
+					&& index <= sequence.length() - pattern.length
+					&& matches(sequence, index, pattern)) {
+				found = i;
+				length = pattern.length;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Return the index of the earliest occurrence of any of the patterns in
+	 * the given sequence {@code target} starting at {@code offset} ending at
+	 * {@code (offset + length)}.
+	 * 
+	 * @param target
+	 *            the sequence to be searched
+	 * @param offset
+	 *            the index to be searched from
+	 * @param length
+	 *            the number of bytes to be searched
+	 * @return the index of the earliest occurrence, or {@code -1} if not found
+	 * @throws IndexOutOfBoundsException
+	 *             if {@code offset} or {@code length} doesn't hold the
+	 *             condition
+	 */
+	public int findIn(byte[] target, int offset, int length) {
+		if (offset < 0 || length < 0 || (length += offset) > target.length)
+			throw new IndexOutOfBoundsException();
+
+		int[] next = m_next;
+		int[] matchLengths = m_matchLengths;
+		int maxLength = m_maxLength;
+		int state = 0;
+		int found = -1;
+		for (int i = offset; i < length; ++i) {
+			state = next[(state << 8) | (target[i] & 0xFF)];
+			int n = matchLengths[state];
+			if (n > 0) {
+				int start = i - n + 1;
+				if (found < 0 || start < found)
+					found = start;
+			}
+
+			// no later match can start before the one found
+			if (found >= 0 && i - found >= maxLength - 1)
+				break;
+		}
+
+		return found;
+	}
+
+	/**
+	 * Return the index of the earliest occurrence of any of the patterns in
+	 * the given byte buffer {@code target} starting at {@code offset} ending at
+	 * {@code (offset + length)}. The bytes are read by absolute get, so a
+	 * direct buffer is searched in place, and neither its position nor its
+	 * limit is changed.
+	 * 
+	 * @param target
+	 *            the byte buffer to be searched
+	 * @param offset
+	 *            the index to be searched from
+	 * @param length
+	 *            the number of bytes to be searched
+	 * @return the index of the earliest occurrence, or {@code -1} if not found
+	 * @throws IndexOutOfBoundsException
+	 *             if {@code offset} or {@code length} doesn't hold the
+	 *             condition
+	 */
+	public int findIn(ByteBuffer target, int offset, int length) {
+		if (offset < 0 || length < 0 || (length += offset) > target.limit())
+			throw new IndexOutOfBoundsException();
+
+		int[] next = m_next;
+		int[] matchLengths = m_matchLengths;
+		int maxLength = m_maxLength;
+		int state = 0;
+		int found = -1;
+		for (int i = offset; i < length; ++i) {
+			state = next[(state << 8) | (target.get(i) & 0xFF)];
+			int n = matchLengths[state];
+			if (n > 0) {
+				int start = i - n + 1;
+				if (found < 0 || start < found)
+					found = start;
+			}
+
+			// no later match can start before the one found
+			if (found >= 0 && i - found >= maxLength - 1)
+				break;
+		}
+
+		return found;
+	}
+
+	int findIn(byte[][] target, int[] offsets, int[] lengths, int size) {
+		int[] next = m_next;
+		int[] matchLengths = m_matchLengths;
+		int maxLength = m_maxLength;
+		int state = 0;
+		int found = -1;
+		int base = 0;
+		for (int a = 0; a < size; ++a) {
+			byte[] data = target[a];
+			int offset = offsets[a];
+			int length = lengths[a];
+			for (int i = 0; i < length; ++i) {
+				state = next[(state << 8) | (data[offset + i] & 0xFF)];
+				int n = matchLengths[state];
+				if (n > 0) {
+					int start = base + i - n + 1;
+					if (found < 0 || start < found)
+						found = start;
+				}
+
+				if (found >= 0 && base + i - found >= maxLength - 1)
+					return found;
+			}
+			base += length;
+		}
+
+		return found;
+	}
+
+	private static boolean matches(IByteSequence sequence, int index,
+			byte[] pattern) {
+		for (int i = 0; i < pattern.length; ++i) {
+			if (sequence.byteAt(index + i) != pattern[i])
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,484 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A concurrent hash map with primitive {@code long} keys.
+ * <p>
+ * The map is divided into a number of stripes, each of which is an
+ * open-addressing hash table with linear probing guarded by its own lock. Keys
+ * and values are kept in atomic arrays, so neither a boxed key nor an entry
+ * node is allocated per mapping. Lookups do not lock unless they race with an
+ * update of the same stripe. {@code null} values are not allowed.
+ *
+ * @param <V>
+ *            the type of mapped values
+ */
+public final class ConcurrentLongHashMap<V> {
+
+	private static final int DEFAULT_INITIAL_CAPACITY = 16;
+	private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+	private static final int MIN_STRIPE_CAPACITY = 4;
+	private final Stripe<V>[] m_stripes;
+	private final int m_stripeShift;
+
+	static final class Stripe<V> extends ReentrantLock {
+
+		private static final long serialVersionUID = -6364683087463138807L;
+		// slots are read and written with volatile semantics so that a
+		// lookup cannot see them out of order with m_seq
+		private volatile AtomicLongArray m_keys;
+		// an empty slot has a null value
+		private volatile AtomicReferenceArray<Object> m_values;
+		private int m_size;
+		private int m_threshold;
+		// odd while the slots are being moved around
+		private volatile int m_seq;
+
+		Stripe(int capacity) {
+			m_keys = new AtomicLongArray(capacity);
+			m_values = new AtomicReferenceArray<Object>(capacity);
+			m_threshold = threshold(capacity);
+		}
+
+		@SuppressWarnings("unchecked")
+		V get(long key, int hash) {
+			int seq = m_seq;
+			if ((seq & 1) == 0) {
+				Object v = find(key, hash);
+				if (seq == m_seq)
+					return (V) v;
+			}
+
+			// raced with an update, take the lock
+			lock();
+			try {
+				int i = indexOf(key, hash);
+				return i < 0 ? null : (V) m_values.get(i);
+			} finally {
+				unlock();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		V put(long key, int hash, V value, boolean onlyIfAbsent) {
+			lock();
+			try {
+				AtomicLongArray keys = m_keys;
+				AtomicReferenceArray<Object> values = m_values;
+				int mask = values.length() - 1;
+				int i = hash & mask;
+				Object v;
+				while ((v = values.get(i)) != null) {
+					if (keys.get(i) == key) {
+						if (!onlyIfAbsent)
+							values.set(i, value);
+						return (V) v;
+					}
+					i = (i + 1) & mask;
+				}
+
+				beginUpdate();
+				keys.set(i, key);
+				values.set(i, value);
+				if (++m_size > m_threshold)
+					rehash();
+				endUpdate();
+
+				return null;
+			} finally {
+				unlock();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		V remove(long key, int hash, Object expected) {
+			lock();
+			try {
+				int i = indexOf(key, hash);
+				if (i < 0)
+					return null;
+
+				Object v = m_values.get(i);
+				if (expected != null && !expected.equals(v))
+					return null;
+
+				beginUpdate();
+				delete(i);
+				endUpdate();
+				--m_size;
+				return (V) v;
+			} finally {
+				unlock();
+			}
+		}
+
+		int size() {
+			lock();
+			try {
+				return m_size;
+			} finally {
+				unlock();
+			}
+		}
+
+		void clear() {
+			lock();
+			try {
+				AtomicReferenceArray<Object> values = m_values;
+				beginUpdate();
+				for (int i = 0; i < values.length(); ++i)
+					values.set(i, null);
+				endUpdate();
+				m_size = 0;
+			} finally {
+				unlock();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		void addValuesTo(List<V> list) {
+			lock();
+			try {
+				AtomicReferenceArray<Object> values = m_values;
+				for (int i = 0; i < values.length(); ++i) {
+					Object v = values.get(i);
+					if (v != null)
+						list.add((V) v);
+				}
+			} finally {
+				unlock();
+			}
+		}
+
+		/**
+		 * Look up the given key without locking. The result is only valid if
+		 * {@code m_seq} has not changed meanwhile.
+		 */
+		private Object find(long key, int hash) {
+			AtomicLongArray keys = m_keys;
+			AtomicReferenceArray<Object> values = m_values;
+			int n = values.length();
+			// the arrays may be from different generations if racing a rehash
+			if (keys.length() != n)
+				return null;
+
+			int mask = n - 1;
+			int i = hash & mask;
+			Object v;
+			// bounded, as a racy view may show no empty slot
+			while (n-- > 0 && (v = values.get(i)) != null) {
+				if (keys.get(i) == key)
+					return v;
+				i = (i + 1) & mask;
+			}
+			return null;
+		}
+
+		private void beginUpdate() {
+			m_seq = m_seq + 1;
+		}
+
+		private void endUpdate() {
+			m_seq = m_seq + 1;
+		}
+
+		private int indexOf(long key, int hash) {
+			AtomicLongArray keys = m_keys;
+			AtomicReferenceArray<Object> values = m_values;
+			int mask = values.length() - 1;
+			int i = hash & mask;
+			while (values.get(i) != null) {
+				if (keys.get(i) == key)
+					return i;
+				i = (i + 1) & mask;
+			}
+			return -1;
+		}
+
+		/**
+		 * Empty the slot at the given index by shifting back the following
+		 * entries of the probe sequence, so that no tombstone is needed.
+		 */
+		private void delete(int i) {
+			AtomicLongArray keys = m_keys;
+			AtomicReferenceArray<Object> values = m_values;
+			int mask = values.length() - 1;
+			int j = i;
+			for (;;) {
+				values.set(i, null);
+				for (;;) {
+					j = (j + 1) & mask;
+					if (values.get(j) == null)
+						return;
+
+					int k = hash(keys.get(j)) & mask;
+					// move the entry at j to i unless its home slot k lies
+					// cyclically in (i, j]
+					if (i <= j ? (i >= k || k > j) : (i >= k && k > j))
+						break;
+				}
+
+				keys.set(i, keys.get(j));
+				values.set(i, values.get(j));
+				i = j;
+			}
+		}
+
+		private void rehash() {
+			AtomicLongArray oldKeys = m_keys;
+			AtomicReferenceArray<Object> oldValues = m_values;
+			int oldCapacity = oldValues.length();
+			int capacity = oldCapacity << 1;
+
+			// filled before being published by the volatile writes below
+			AtomicLongArray keys = new AtomicLongArray(capacity);
+			AtomicReferenceArray<Object> values = new AtomicReferenceArray<Object>(
+					capacity);
+			int mask = capacity - 1;
+			for (int n = 0; n < oldCapacity; ++n) {
+				Object v = oldValues.get(n);
+				if (v == null)
+					continue;
+
+				long key = oldKeys.get(n);
+				int i = hash(key) & mask;
+				while (values.get(i) != null)
+					i = (i + 1) & mask;
+
+				keys.lazySet(i, key);
+				values.lazySet(i, v);
+			}
+
+			m_keys = keys;
+			m_values = values;
+			m_threshold = threshold(capacity);
+		}
+
+		private static int threshold(int capacity) {
+			// load factor: 2/3
+			return (capacity << 1) / 3;
+		}
+	}
+
+	/**
+	 * Constructs an empty map with the default initial capacity of 16 and
+	 * the default concurrency level of 16.
+	 */
+	public ConcurrentLongHashMap() {
+		this(DEFAULT_INITIAL_CAPACITY, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * Constructs an empty map with the given {@code initialCapacity} and the
+	 * default concurrency level of 16.
+	 *
+	 * @param initialCapacity
+	 *            the number of mappings to hold without resizing
+	 */
+	public ConcurrentLongHashMap(int initialCapacity) {
+		this(initialCapacity, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * Constructs an empty map with the given {@code initialCapacity} and
+	 * {@code concurrencyLevel}.
+	 *
+	 * @param initialCapacity
+	 *            the number of mappings to hold without resizing
+	 * @param concurrencyLevel
+	 *            the estimated number of concurrently updating threads
+	 * @throws IllegalArgumentException
+	 *             if {@code initialCapacity} is negative or
+	 *             {@code concurrencyLevel} is not positive
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentLongHashMap(int initialCapacity, int concurrencyLevel) {
+		if (initialCapacity < 0 || concurrencyLevel < 1)
+			throw new IllegalArgumentException();
+
+		int stripes = 1;
+		int shift = 0;
+		while (stripes < concurrencyLevel && stripes < (1 << 16)) {
+			stripes <<= 1;
+			++shift;
+		}
+
+		int perStripe = initialCapacity / stripes + 1;
+		int capacity = MIN_STRIPE_CAPACITY;
+		while (((capacity << 1) / 3) < perStripe && capacity < (1 << 30))
+			capacity <<= 1;
+
+		@SuppressWarnings("rawtypes")
+		Stripe[] array = new Stripe[stripes];
+		for (int i = 0; i < stripes; ++i)
+			array[i] = new Stripe<V>(capacity);
+
+		m_stripes = (Stripe<V>[]) array;
+		m_stripeShift = 32 - shift;
+	}
+
+	/**
+	 * Return the value to which the given {@code key} is mapped, or
+	 * {@code null} if there is no mapping for the key.
+	 *
+	 * @param key
+	 *            the key whose mapped value is to be returned
+	 * @return the mapped value, or {@code null}
+	 */
+	public V get(long key) {
+		int hash = hash(key);
+		return stripeFor(hash).get(key, hash);
+	}
+
+	/**
+	 * Map the given {@code key} to the given {@code value}.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the previous value mapped to the key, or {@code null}
+	 * @throws NullPointerException
+	 *             if {@code value} is null
+	 */
+	public V put(long key, V value) {
+		if (value == null)
+			throw new NullPointerException();
+
+		int hash = hash(key);
+		return stripeFor(hash).put(key, hash, value, false);
+	}
+
+	/**
+	 * Map the given {@code key} to the given {@code value} if the key is not
+	 * mapped yet.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the value already mapped to the key, or {@code null}
+	 * @throws NullPointerException
+	 *             if {@code value} is null
+	 */
+	public V putIfAbsent(long key, V value) {
+		if (value == null)
+			throw new NullPointerException();
+
+		int hash = hash(key);
+		return stripeFor(hash).put(key, hash, value, true);
+	}
+
+	/**
+	 * Remove the mapping of the given {@code key}.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the removed value, or {@code null} if there is no mapping for
+	 *         the key
+	 */
+	public V remove(long key) {
+		int hash = hash(key);
+		return stripeFor(hash).remove(key, hash, null);
+	}
+
+	/**
+	 * Remove the mapping of the given {@code key} only if it is mapped to the
+	 * given {@code value}.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value expected to be mapped to the key
+	 * @return {@code true} if the mapping is removed
+	 */
+	public boolean remove(long key, V value) {
+		if (value == null)
+			return false;
+
+		int hash = hash(key);
+		return stripeFor(hash).remove(key, hash, value) != null;
+	}
+
+	/**
+	 * Return the number of mappings in this map.
+	 *
+	 * @return the number of mappings
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe<V> stripe : m_stripes)
+			size += stripe.size();
+		return size;
+	}
+
+	/**
+	 * Test whether this map has no mappings.
+	 *
+	 * @return {@code true} if this map is empty, otherwise {@code false}
+	 */
+	public boolean isEmpty() {
+		for (Stripe<V> stripe : m_stripes) {
+			if (stripe.size() > 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Remove all the mappings.
+	 */
+	public void clear() {
+		for (Stripe<V> stripe : m_stripes)
+			stripe.clear();
+	}
+
+	/**
+	 * Return a snapshot of the values in this map. It is weakly consistent
+	 * in that each stripe is copied atomically, but the stripes are not.
+	 *
+	 * @return a list of the values
+	 */
+	public List<V> values() {
+		List<V> list = new ArrayList<V>(size());
+		for (Stripe<V> stripe : m_stripes)
+			stripe.addValuesTo(list);
+		return list;
+	}
+
+	private Stripe<V> stripeFor(int hash) {
+		// high bits pick the stripe, low bits pick the slot
+		int shift = m_stripeShift;
+		return m_stripes[shift == 32 ? 0 : hash >>> shift];
+	}
+
+	static int hash(long key) {
+		// the finalizer of MurmurHash3
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+}
@@ -15,6 +15,10 @@
  */
 package org.jruyi.common;
 
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLException;
@@ -59,6 +63,27 @@ public interface IBuffer extends IBufferReader, IBufferWriter,
 	 */
 	public IBuffer split(int size);
 
+	/**
+	 * Create a new buffer whose content is the remaining data of this buffer.
+	 * The data is shared rather than copied. The new buffer's position and
+	 * mark are zero. Data written to either buffer afterwards is not visible
+	 * to the other, while changes made in place by the {@code set} methods
+	 * are.
+	 *
+	 * @return the new buffer
+	 */
+	public IBuffer slice();
+
+	/**
+	 * Create a new buffer sharing all the data of this buffer. The new
+	 * buffer's position and mark are the same as this buffer's. Data written
+	 * to either buffer afterwards is not visible to the other, while changes
+	 * made in place by the {@code set} methods are.
+	 *
+	 * @return the new buffer
+	 */
+	public IBuffer duplicate();
+
 	/**
 	 * Adjust the length of the buffer to the specified {@code newLength}. If
 	 * {@code newLength} is greater than the current length, then the last 
@@ -122,6 +147,64 @@ public interface IBuffer extends IBufferReader, IBufferWriter,
 	 */
 	public int headReserved();
 
+	/**
+	 * Compress the remaining data of this buffer into a complete stream using
+	 * the given {@code deflater}, and write the compressed data into the
+	 * specified buffer {@code dst}. The data is passed between the buffers'
+	 * underlying storage directly where it is backed by arrays. This buffer's
+	 * position is set to its size.
+	 * 
+	 * @param dst
+	 *            the buffer to hold the compressed data
+	 * @param deflater
+	 *            a deflater that has not been fed any input since its last
+	 *            reset
+	 * @throws IllegalArgumentException
+	 *             if {@code dst} is this buffer
+	 */
+	public void deflate(IBuffer dst, Deflater deflater);
+
+	/**
+	 * Decompress the complete compressed stream held by the remaining data of
+	 * this buffer using the given {@code inflater}, and write the decompressed
+	 * data into the specified buffer {@code dst}. This buffer's position is set
+	 * to its size.
+	 * 
+	 * @param dst
+	 *            the buffer to hold the decompressed data
+	 * @param inflater
+	 *            an inflater that has not been fed any input since its last
+	 *            reset
+	 * @throws DataFormatException
+	 *             if the data is not a valid or complete compressed stream
+	 * @throws IllegalArgumentException
+	 *             if {@code dst} is this buffer
+	 */
+	public void inflate(IBuffer dst, Inflater inflater)
+			throws DataFormatException;
+
+	/**
+	 * Same as {@link #inflate(IBuffer, Inflater)}, except that it fails once
+	 * the decompressed data would exceed the given {@code maxLength}. The data
+	 * already written into {@code dst} is left there in that case.
+	 * 
+	 * @param dst
+	 *            the buffer to hold the decompressed data
+	 * @param inflater
+	 *            an inflater that has not been fed any input since its last
+	 *            reset
+	 * @param maxLength
+	 *            the maximum number of bytes to decompress
+	 * @throws DataFormatException
+	 *             if the data is not a valid or complete compressed stream, or
+	 *             decompresses to more than {@code maxLength} bytes
+	 * @throws IllegalArgumentException
+	 *             if {@code dst} is this buffer or {@code maxLength} is
+	 *             negative
+	 */
+	public void inflate(IBuffer dst, Inflater inflater, int maxLength)
+			throws DataFormatException;
+
 	/**
 	 * Attempt to decode the SSL/TLS network data in the specified {@code src}
 	 * into plain text application data using the specified {@code engine}, and
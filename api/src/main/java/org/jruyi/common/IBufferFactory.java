@@ -28,4 +28,15 @@ public interface IBufferFactory {
 	 * @return a new buffer object
 	 */
 	public IBuffer create();
+
+	/**
+	 * Create a new buffer whose units are allocated with the given
+	 * {@code unitCapacity} instead of the default one. A cached unit larger
+	 * than {@code unitCapacity} may be used.
+	 * 
+	 * @param unitCapacity
+	 *            the preferred capacity of the units
+	 * @return a new buffer object
+	 */
+	public IBuffer create(int unitCapacity);
 }
@@ -623,6 +623,65 @@ public interface IBufferReader extends IByteSequence {
 	 */
 	public int readUShortL();
 
+	/**
+	 * Return the index within the underlying buffer of the first occurrence of
+	 * the specified {@code pattern}. If no such subsequence exists, then
+	 * {@code -1} is returned.
+	 * 
+	 * @param pattern
+	 *            the BMH pattern holding the subsequence for which to search
+	 * @return the index of the first occurrence, or {@code -1} if not found
+	 * @throws NullPointerException
+	 *             if {@code pattern} is {@code null}
+	 */
+	public int indexOf(ByteBmh pattern);
+
+	/**
+	 * Return the index within the underlying buffer of the first occurrence of
+	 * the specified {@code pattern}, starting at the specified
+	 * {@code fromIndex}. If no such subsequence exists, then {@code -1} is
+	 * returned.
+	 * 
+	 * @param pattern
+	 *            the BMH pattern holding the subsequence for which to search
+	 * @param fromIndex
+	 *            the index from which to start the search
+	 * @return the index of the first occurrence, or {@code -1} if not found
+	 * @throws NullPointerException
+	 *             if {@code pattern} is {@code null}
+	 */
+	public int indexOf(ByteBmh pattern, int fromIndex);
+
+	/**
+	 * Return the index within the underlying buffer of the earliest occurrence
+	 * of any of the specified {@code patterns}. If none of them occurs, then
+	 * {@code -1} is returned.
+	 * 
+	 * @param patterns
+	 *            the subsequences for which to search
+	 * @return the index of the earliest occurrence, or {@code -1} if not found
+	 * @throws NullPointerException
+	 *             if {@code patterns} is {@code null}
+	 * @see ByteMultiPattern#patternAt(IByteSequence, int)
+	 */
+	public int indexOf(ByteMultiPattern patterns);
+
+	/**
+	 * Return the index within the underlying buffer of the earliest occurrence
+	 * of any of the specified {@code patterns}, starting at the specified
+	 * {@code fromIndex}. If none of them occurs, then {@code -1} is returned.
+	 * 
+	 * @param patterns
+	 *            the subsequences for which to search
+	 * @param fromIndex
+	 *            the index from which to start the search
+	 * @return the index of the earliest occurrence, or {@code -1} if not found
+	 * @throws NullPointerException
+	 *             if {@code patterns} is {@code null}
+	 * @see ByteMultiPattern#patternAt(IByteSequence, int)
+	 */
+	public int indexOf(ByteMultiPattern patterns, int fromIndex);
+
 	/**
 	 * Write the data read from this {@code IBufferReader} to the specified
 	 * channel {@code out}.
@@ -635,6 +694,26 @@ public interface IBufferReader extends IByteSequence {
 	 */
 	public int writeOut(WritableByteChannel out) throws IOException;
 
+	/**
+	 * Put the byte buffers holding the remaining data of this
+	 * {@code IBufferReader} into the given array {@code dsts}, starting at
+	 * index {@code offset}. At most {@code dsts.length - offset} byte buffers
+	 * are put. <i>position</i> is not changed. The byte buffers are only valid
+	 * until this {@code IBufferReader} is next accessed.
+	 * 
+	 * <p>
+	 * This method is intended for a gathering write across multiple buffers.
+	 * The caller is responsible for advancing the <i>position</i> by the number
+	 * of bytes actually written, by calling {@link #skip(int)}.
+	 * 
+	 * @param dsts
+	 *            the array to put the byte buffers into
+	 * @param offset
+	 *            the index of {@code dsts} to put the first byte buffer at
+	 * @return the number of byte buffers put
+	 */
+	public int getByteBuffers(ByteBuffer[] dsts, int offset);
+
 	/**
 	 * Return the number of bytes remaining in the underlying buffer.
 	 * 
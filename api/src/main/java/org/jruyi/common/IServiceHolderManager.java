@@ -25,6 +25,25 @@ package org.jruyi.common;
  */
 public interface IServiceHolderManager<T> {
 
+	/**
+	 * A listener to be notified when the service held by a service holder may
+	 * have changed.
+	 * 
+	 * @param <T>
+	 *            the type of the tracked service
+	 */
+	public interface IListener<T> {
+
+		/**
+		 * Called after a service is added to, modified in or removed from the
+		 * specified {@code holder}.
+		 * 
+		 * @param holder
+		 *            the service holder whose service may have changed
+		 */
+		public void onServiceChanged(IServiceHolder<T> holder);
+	}
+
 	/**
 	 * Open this manager to start tracking services.
 	 */
@@ -51,6 +70,15 @@ public interface IServiceHolderManager<T> {
 	 */
 	public IServiceHolder<T> ungetServiceHolder(String id);
 
+	/**
+	 * Set the listener to be notified of service changes, or {@code null} to
+	 * remove the current one.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void setListener(IListener<T> listener);
+
 	/**
 	 * Close this manager to stop tracking services.
 	 */
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.jruyi.common.StrUtil;
+
+/**
+ * A default implementation of {@link IFileRegion}. Closing a
+ * {@code FileRegion} closes the underlying file channel.
+ */
+public final class FileRegion implements IFileRegion {
+
+	private final FileChannel m_fileChannel;
+	private long m_position;
+	private long m_remaining;
+
+	/**
+	 * Construct a region of the given {@code fileChannel}.
+	 * 
+	 * @param fileChannel
+	 *            the file channel to transfer bytes from
+	 * @param position
+	 *            the file position of the first byte of the region
+	 * @param count
+	 *            the number of bytes of the region
+	 * @throws NullPointerException
+	 *             if the given {@code fileChannel} is null
+	 * @throws IllegalArgumentException
+	 *             if {@code position} or {@code count} is negative
+	 */
+	public FileRegion(FileChannel fileChannel, long position, long count) {
+		if (fileChannel == null)
+			throw new NullPointerException();
+
+		if (position < 0L || count < 0L)
+			throw new IllegalArgumentException();
+
+		m_fileChannel = fileChannel;
+		m_position = position;
+		m_remaining = count;
+	}
+
+	@Override
+	public FileChannel fileChannel() {
+		return m_fileChannel;
+	}
+
+	@Override
+	public long position() {
+		return m_position;
+	}
+
+	@Override
+	public long remaining() {
+		return m_remaining;
+	}
+
+	@Override
+	public long transferTo(WritableByteChannel target) throws IOException {
+		long remaining = m_remaining;
+		if (remaining < 1L)
+			return 0L;
+
+		FileChannel fileChannel = m_fileChannel;
+		long position = m_position;
+		long n = fileChannel.transferTo(position, remaining, target);
+		if (n > 0L) {
+			m_position = position + n;
+			m_remaining = remaining - n;
+		} else if (position >= fileChannel.size())
+			throw new EOFException("File is shorter than the region");
+
+		return n;
+	}
+
+	@Override
+	public String toString() {
+		return StrUtil.buildString("FileRegion(position=", m_position,
+				", remaining=", m_remaining, ")");
+	}
+
+	@Override
+	public void close() {
+		try {
+			m_fileChannel.close();
+		} catch (IOException e) {
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.io;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.jruyi.common.ICloseable;
+
+/**
+ * A region of a file to be sent as an outbound message. The data is transferred
+ * from the file to the session channel directly, without being copied into a
+ * buffer.
+ * 
+ * <p>
+ * An {@code IFileRegion} can be written to a session as a message, or be
+ * produced by a filter's {@code onMsgDepart} in place of a buffer. It is
+ * closed once it has been fully sent or the session is closed.
+ * 
+ * @see FileRegion
+ */
+public interface IFileRegion extends ICloseable {
+
+	/**
+	 * Return the file channel this region belongs to.
+	 * 
+	 * @return the file channel
+	 */
+	public FileChannel fileChannel();
+
+	/**
+	 * Return the file position of the next byte to be transferred.
+	 * 
+	 * @return the file position of the next byte to be transferred
+	 */
+	public long position();
+
+	/**
+	 * Return the number of bytes remaining to be transferred.
+	 * 
+	 * @return the number of bytes remaining
+	 */
+	public long remaining();
+
+	/**
+	 * Transfer the remaining bytes of this region to the given {@code target}
+	 * channel. <i>position</i> is advanced by the number of bytes actually
+	 * transferred, which may be less than requested if the target channel is
+	 * non-blocking.
+	 * 
+	 * @param target
+	 *            the channel to transfer bytes to
+	 * @return the number of bytes transferred, possibly zero
+	 * @throws IOException
+	 *             if an I/O error occurs, or the file is shorter than this
+	 *             region
+	 */
+	public long transferTo(WritableByteChannel target) throws IOException;
+}
@@ -25,7 +25,7 @@ public interface ISession {
 	 * 
 	 * @return the session ID
 	 */
-	public Long id();
+	public long id();
 
 	/**
 	 * Return the address of the local peer.
@@ -107,6 +107,28 @@ public interface ISession {
 	 */
 	public Object inquiry(Object id);
 
+	/**
+	 * Return the state kept in this session by the specified {@code filter}.
+	 * 
+	 * @param filter
+	 *            the filter owning the state
+	 * @return the filter state, or {@code null} if none
+	 */
+	public Object filterState(IFilter filter);
+
+	/**
+	 * Set the state kept in this session by the specified {@code filter}.
+	 * Filter states are held in slots fixed by the position of the filters in
+	 * the filter chain, which makes them cheaper to access than deposits.
+	 * 
+	 * @param filter
+	 *            the filter owning the state
+	 * @param state
+	 *            the new filter state
+	 * @return the previous filter state, or {@code null} if none
+	 */
+	public Object filterState(IFilter filter, Object state);
+
 	/**
 	 * Test whether this session is closed.
 	 * 
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.io;
+
+/**
+ * Service for reporting the handshake statistics of an SSL filter. The SSL
+ * filter registers this service along with {@link IFilter}, under the same
+ * filter ID.
+ */
+public interface ISslStatistics {
+
+	/**
+	 * Return the number of the handshakes having established a new session.
+	 * 
+	 * @return the number of full handshakes
+	 */
+	public long fullHandshakes();
+
+	/**
+	 * Return the number of the handshakes having resumed a cached session.
+	 * 
+	 * @return the number of abbreviated handshakes
+	 */
+	public long abbreviatedHandshakes();
+}
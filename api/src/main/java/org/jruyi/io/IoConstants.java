@@ -45,6 +45,15 @@ public final class IoConstants {
 	 * The message property name of active session.
 	 */
 	public static final String MP_ACTIVE_SESSION = "jruyi.io.activeSession";
+	/**
+	 * The message property name of session group.
+	 */
+	public static final String MP_SESSION_GROUP = "jruyi.io.sessionGroup";
+	/**
+	 * The message property name of the session group to broadcast the
+	 * message data to.
+	 */
+	public static final String MP_BROADCAST = "jruyi.io.broadcast";
 
 	private IoConstants() {
 	}
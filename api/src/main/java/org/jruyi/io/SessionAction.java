@@ -27,5 +27,15 @@ public enum SessionAction {
 	/**
 	 * An action to close a session.
 	 */
-	CLOSE;
+	CLOSE,
+	/**
+	 * An action to add a session to the group named by the message property
+	 * {@link IoConstants#MP_SESSION_GROUP}.
+	 */
+	JOIN_GROUP,
+	/**
+	 * An action to remove a session from the group named by the message
+	 * property {@link IoConstants#MP_SESSION_GROUP}.
+	 */
+	LEAVE_GROUP;
 }
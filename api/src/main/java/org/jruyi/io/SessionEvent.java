@@ -43,5 +43,13 @@ public enum SessionEvent {
 	/**
 	 * Indicate an IO error on reading or writing.
 	 */
-	RW_ERROR;
+	RW_ERROR,
+	/**
+	 * Indicate that the outbound data queued reached the high watermark.
+	 */
+	WRITE_SUSPENDED,
+	/**
+	 * Indicate that the outbound data queued dropped to the low watermark.
+	 */
+	WRITE_RESUMED;
 }
@@ -53,4 +53,30 @@ public interface IWorker {
 	 *             interrupted
 	 */
 	public void run(IRunnable job, IArgList argList);
+
+	/**
+	 * Assign the given {@code job} to a worker thread to run at some time in
+	 * the future, unless the worker is saturated. Never blocks the calling
+	 * thread.
+	 * 
+	 * @param job
+	 *            the runnable task
+	 * @return true if the job is accepted, false if the worker is saturated
+	 * @throws NullPointerException
+	 *             if the given {@code job} is null
+	 * @throws RejectedExecutionException
+	 *             if the worker is shutdown
+	 */
+	public boolean tryRun(Runnable job);
+
+	/**
+	 * Return the percentage of the job queue capacity in use. {@code 100}
+	 * means the worker is saturated, in which case {@code run} may block the
+	 * calling thread unless it is a worker thread. An unbounded job queue
+	 * never gets saturated. The load is a hint only, use {@code tryRun} to
+	 * submit a job without blocking.
+	 * 
+	 * @return the job queue load, from {@code 0} to {@code 100}
+	 */
+	public int queueLoad();
 }
@@ -29,6 +29,10 @@ import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
@@ -38,7 +42,9 @@ import javax.net.ssl.SSLSession;
 
 import org.jruyi.common.BiListNode;
 import org.jruyi.common.Blob;
+import org.jruyi.common.ByteBmh;
 import org.jruyi.common.ByteKmp;
+import org.jruyi.common.ByteMultiPattern;
 import org.jruyi.common.BytesBuilder;
 import org.jruyi.common.CharsetCodec;
 import org.jruyi.common.IBuffer;
@@ -56,6 +62,8 @@ final class Buffer implements IBuffer {
 	private static final IThreadLocalCache<Buffer> m_bufferCache = ThreadLocalCache
 			.weakLinkedCache();
 	private BufferFactory m_factory;
+	// capacity of the units to append, 0 for the factory default
+	private int m_unitCapacity;
 	private int m_position;
 	private int m_mark;
 	private int m_size;
@@ -76,20 +84,74 @@ final class Buffer implements IBuffer {
 		private int m_size;
 		// index of the first byte
 		private int m_start;
-		// the cyclic byte array containing the data
-		private byte[] m_data;
+		// the heap or direct byte buffer containing the data, only accessed
+		// by absolute get/put so that its limit is always the capacity
+		private ByteBuffer m_data;
+		// a view of m_data for relative bulk operations and channel I/O
 		private ByteBuffer m_bb;
+		// number of units sharing m_data, null if not shared
+		private AtomicInteger m_refCnt;
 
-		Unit(int capacity) {
-			byte[] data = new byte[capacity];
-			m_data = data;
-			m_bb = ByteBuffer.wrap(data);
+		Unit(int capacity, boolean direct) {
+			this(direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer
+					.allocate(capacity), null);
 		}
 
-		void setCapacity(int newCapacity) {
-			byte[] data = new byte[newCapacity];
+		private Unit(ByteBuffer data, AtomicInteger refCnt) {
 			m_data = data;
-			m_bb = ByteBuffer.wrap(data);
+			m_bb = data.duplicate();
+			m_refCnt = refCnt;
+		}
+
+		/**
+		 * Return a new unit having the same data as this unit. The storage is
+		 * shared, so neither unit can be appended to afterwards.
+		 */
+		Unit share() {
+			AtomicInteger refCnt = m_refCnt;
+			if (refCnt == null) {
+				refCnt = new AtomicInteger(2);
+				m_refCnt = refCnt;
+			} else
+				refCnt.incrementAndGet();
+
+			Unit unit = new Unit(m_data, refCnt);
+			unit.m_start = m_start;
+			unit.m_size = m_size;
+			unit.m_position = m_position;
+			unit.m_mark = m_mark;
+			return unit;
+		}
+
+		boolean isShared() {
+			return m_refCnt != null;
+		}
+
+		/**
+		 * Copy the data and the offsets of the given {@code unit} into this
+		 * unit, which must be at least as large.
+		 */
+		void copyFrom(Unit unit) {
+			int start = unit.m_start;
+			int size = unit.m_size;
+			window(start, size).put(unit.window(start, size));
+			m_start = start;
+			m_size = size;
+			m_position = unit.m_position;
+			m_mark = unit.m_mark;
+		}
+
+		/**
+		 * Drop the reference to the storage. Return {@code true} if this unit
+		 * is the last one referring to it and can be recycled.
+		 */
+		boolean release() {
+			AtomicInteger refCnt = m_refCnt;
+			if (refCnt == null)
+				return true;
+
+			m_refCnt = null;
+			return refCnt.decrementAndGet() < 1;
 		}
 
 		void start(int start) {
@@ -111,8 +173,12 @@ final class Buffer implements IBuffer {
 			return m_bb;
 		}
 
+		boolean isDirect() {
+			return m_data.isDirect();
+		}
+
 		int capacity() {
-			return m_data.length;
+			return m_data.capacity();
 		}
 
 		int position() {
@@ -130,11 +196,11 @@ final class Buffer implements IBuffer {
 		 * Return the number of bytes can be written.
 		 */
 		int available() {
-			return m_data.length - m_size - m_start;
+			return m_refCnt == null ? m_data.capacity() - m_size - m_start : 0;
 		}
 
 		int headAvailable() {
-			return m_start;
+			return m_refCnt == null ? m_start : 0;
 		}
 
 		int size() {
@@ -158,11 +224,11 @@ final class Buffer implements IBuffer {
 		}
 
 		boolean isFull() {
-			return m_start + m_size >= m_data.length;
+			return m_refCnt != null || m_start + m_size >= m_data.capacity();
 		}
 
 		boolean isHeadFull() {
-			return m_start <= 0;
+			return m_refCnt != null || m_start <= 0;
 		}
 
 		void size(int newSize) {
@@ -178,37 +244,35 @@ final class Buffer implements IBuffer {
 		 * {@code fromIndex} must be less than m_size and non-negative.
 		 */
 		int indexOf(byte b, int fromIndex) {
-			byte[] data = m_data;
 			int start = m_start;
-			int end = start + m_size;
-			fromIndex += start;
-			while (fromIndex < end) {
-				if (data[fromIndex] == b)
-					return fromIndex - start;
-
-				++fromIndex;
-			}
-
-			return -1;
+			int index = scan(b, start + fromIndex, start + m_size);
+			return index < 0 ? -1 : index - start;
 		}
 
+		/**
+		 * Return the index of the first occurrence of {@code bytes} at or after
+		 * {@code leftIndex}. The occurrence may be cut off by the end of this
+		 * unit, in which case the remaining bytes need be matched in the
+		 * following units.
+		 */
 		int indexOf(byte[] bytes, int leftIndex) {
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			int start = m_start;
 			int end = start + m_size;
-			int index = start + leftIndex;
 			int length = bytes.length;
+			byte first = bytes[0];
+			int index = start + leftIndex;
 
-			next: for (; index < end; ++index) {
-				leftIndex = index;
+			next: while ((index = scan(first, index, end)) >= 0) {
 				int rightIndex = index + length;
 				if (rightIndex > end)
 					rightIndex = end;
 
-				int i = 0;
-				for (; leftIndex < rightIndex; ++leftIndex, ++i) {
-					if (data[leftIndex] != bytes[i])
+				for (int i = index + 1, j = 1; i < rightIndex; ++i, ++j) {
+					if (bb.get(i) != bytes[j]) {
+						++index;
 						continue next;
+					}
 				}
 
 				return index - start;
@@ -217,8 +281,45 @@ final class Buffer implements IBuffer {
 			return -1;
 		}
 
+		/**
+		 * Search {@code b} in the absolute range [{@code index}, {@code end})
+		 * of m_data, 8 bytes per step. Return the absolute index of the first
+		 * occurrence or -1.
+		 */
+		private int scan(byte b, int index, int end) {
+			ByteBuffer bb = m_data;
+			int last = end - 8;
+			if (index <= last) {
+				long pattern = (b & 0xFFL) * 0x0101010101010101L;
+				do {
+					// m_data is big-endian, so the first byte is the highest
+					long zeros = zeroBytes(bb.getLong(index) ^ pattern);
+					if (zeros != 0L)
+						return index + (Long.numberOfLeadingZeros(zeros) >>> 3);
+					index += 8;
+				} while (index <= last);
+			}
+
+			for (; index < end; ++index) {
+				if (bb.get(index) == b)
+					return index;
+			}
+
+			return -1;
+		}
+
+		/**
+		 * Return a word with the high bit set in exactly the bytes of
+		 * {@code x} that are zero. No carry crosses the bytes, so there are no
+		 * false positives.
+		 */
+		private static long zeroBytes(long x) {
+			long y = (x & 0x7F7F7F7F7F7F7F7FL) + 0x7F7F7F7F7F7F7F7FL;
+			return ~(y | x | 0x7F7F7F7F7F7F7F7FL);
+		}
+
 		boolean startsWith(byte[] bytes, int offset) {
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			int start = m_start;
 			int end = bytes.length - offset;
 			if (end > m_size)
@@ -226,7 +327,7 @@ final class Buffer implements IBuffer {
 
 			end += start;
 			for (; start < end; ++start, ++offset) {
-				if (data[start] != bytes[offset])
+				if (bb.get(start) != bytes[offset])
 					return false;
 			}
 
@@ -237,11 +338,11 @@ final class Buffer implements IBuffer {
 		 * {@code fromIndex} must be less than m_size and non-negative.
 		 */
 		int lastIndexOf(byte b, int fromIndex) {
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			int start = m_start;
 			fromIndex += start;
 			while (fromIndex >= start) {
-				if (data[fromIndex] == b)
+				if (bb.get(fromIndex) == b)
 					return fromIndex - start;
 
 				--fromIndex;
@@ -251,7 +352,7 @@ final class Buffer implements IBuffer {
 		}
 
 		int lastIndexOf(byte[] bytes, int rightIndex) {
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			int start = m_start;
 			int end = start + rightIndex;
 			int length = bytes.length;
@@ -264,7 +365,7 @@ final class Buffer implements IBuffer {
 
 				int i = length;
 				while (rightIndex > leftIndex) {
-					if (data[--rightIndex] != bytes[--i])
+					if (bb.get(--rightIndex) != bytes[--i])
 						continue next;
 				}
 
@@ -275,7 +376,7 @@ final class Buffer implements IBuffer {
 		}
 
 		boolean endsWith(byte[] bytes, int offset) {
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			int start = m_start;
 			int size = m_size;
 			int end = start + size;
@@ -283,7 +384,7 @@ final class Buffer implements IBuffer {
 				start = end - offset;
 
 			while (end > start) {
-				if (data[--end] != bytes[--offset])
+				if (bb.get(--end) != bytes[--offset])
 					return false;
 			}
 
@@ -291,11 +392,11 @@ final class Buffer implements IBuffer {
 		}
 
 		byte getByte(int position) {
-			return m_data[m_start + position];
+			return m_data.get(m_start + position);
 		}
 
 		void setByte(int position, byte b) {
-			m_data[m_start + position] = b;
+			m_data.put(m_start + position, b);
 		}
 
 		int getBytes(int position, byte[] dst, int offset, int length) {
@@ -305,7 +406,7 @@ final class Buffer implements IBuffer {
 			else
 				length = n;
 
-			System.arraycopy(m_data, m_start + position, dst, offset, length);
+			window(m_start + position, length).get(dst, offset, length);
 			return n;
 		}
 
@@ -316,7 +417,7 @@ final class Buffer implements IBuffer {
 			else
 				length = n;
 
-			System.arraycopy(src, offset, m_data, m_start + position, length);
+			window(m_start + position, length).put(src, offset, length);
 			return n;
 		}
 
@@ -327,7 +428,7 @@ final class Buffer implements IBuffer {
 			else
 				length = n;
 
-			out.append(m_data, m_start + position, length);
+			append(out, m_start + position, length);
 			return n;
 		}
 
@@ -336,7 +437,7 @@ final class Buffer implements IBuffer {
 		 * starting at {@code position} into the given {@code i} sequentially.
 		 * The {@code length} passed in must be not greater than {@code size()
 		 * - position}.
-		 * 
+		 *
 		 * @param position
 		 *            the offset of the first byte to be left shifted
 		 * @param i
@@ -348,9 +449,9 @@ final class Buffer implements IBuffer {
 		int getIntB(int position, int i, final int length) {
 			position += m_start;
 			int end = position + length;
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			for (; position < end; ++position)
-				i = (i << 8) | (data[position] & 0xFF);
+				i = (i << 8) | (bb.get(position) & 0xFF);
 
 			return i;
 		}
@@ -358,9 +459,9 @@ final class Buffer implements IBuffer {
 		int setIntB(int position, int i, final int length) {
 			position += m_start;
 			int end = position + length;
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			for (; position < end; ++position) {
-				data[position] = (byte) (i >>> 24);
+				bb.put(position, (byte) (i >>> 24));
 				i <<= 8;
 			}
 
@@ -372,7 +473,7 @@ final class Buffer implements IBuffer {
 		 * starting at {@code position} into the given {@code i} sequentially.
 		 * The {@code length} passed in must be not greater than {@code size()
 		 * - position}.
-		 * 
+		 *
 		 * @param position
 		 *            the offset of the first byte to be right shifted
 		 * @param i
@@ -384,9 +485,9 @@ final class Buffer implements IBuffer {
 		int getIntL(int position, int i, final int length) {
 			position += m_start;
 			int end = position + length;
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			for (; position < end; ++position)
-				i = (i >>> 8) | (data[position] << 24);
+				i = (i >>> 8) | (bb.get(position) << 24);
 
 			return i;
 		}
@@ -394,9 +495,9 @@ final class Buffer implements IBuffer {
 		int setIntL(int position, int i, final int length) {
 			position += m_start;
 			int end = position + length;
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			for (; position < end; ++position) {
-				data[position] = (byte) i;
+				bb.put(position, (byte) i);
 				i >>>= 8;
 			}
 
@@ -408,7 +509,7 @@ final class Buffer implements IBuffer {
 		 * starting at {@code position} into the given {@code l} sequentially.
 		 * The {@code length} passed in must be not greater than {@code size()
 		 * - position}.
-		 * 
+		 *
 		 * @param position
 		 *            the offset of the first byte to be left shifted
 		 * @param l
@@ -420,9 +521,9 @@ final class Buffer implements IBuffer {
 		long getLongB(int position, long l, final int length) {
 			position += m_start;
 			int end = position + length;
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			for (; position < end; ++position)
-				l = (l << 8) | (data[position] & 0xFF);
+				l = (l << 8) | (bb.get(position) & 0xFF);
 
 			return l;
 		}
@@ -430,9 +531,9 @@ final class Buffer implements IBuffer {
 		long setLongB(int position, long l, final int length) {
 			position += m_start;
 			int end = position + length;
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			for (; position < end; ++position) {
-				data[position] = (byte) (l >>> 56);
+				bb.put(position, (byte) (l >>> 56));
 				l <<= 8;
 			}
 
@@ -444,7 +545,7 @@ final class Buffer implements IBuffer {
 		 * starting at {@code position} into the given {@code l} sequentially.
 		 * The {@code length} passed in must be not greater than {@code size()
 		 * - position}.
-		 * 
+		 *
 		 * @param position
 		 *            the offset of the first byte to be right shifted
 		 * @param l
@@ -456,9 +557,9 @@ final class Buffer implements IBuffer {
 		long getLongL(int position, long l, final int length) {
 			position += m_start;
 			int end = position + length;
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			for (; position < end; ++position)
-				l = (l >>> 8) | (((long) data[position]) << 56);
+				l = (l >>> 8) | (((long) bb.get(position)) << 56);
 
 			return l;
 		}
@@ -466,9 +567,9 @@ final class Buffer implements IBuffer {
 		long setLongL(int position, long l, final int length) {
 			position += m_start;
 			int end = position + length;
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			for (; position < end; ++position) {
-				data[position] = (byte) l;
+				bb.put(position, (byte) l);
 				l >>>= 8;
 			}
 
@@ -482,10 +583,10 @@ final class Buffer implements IBuffer {
 			else
 				count = n;
 
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			position += m_start;
 			while (count-- > 0)
-				data[position++] = b;
+				bb.put(position++, b);
 
 			return n;
 		}
@@ -494,7 +595,7 @@ final class Buffer implements IBuffer {
 		 * Ensure this unit is not empty before calling this method.
 		 */
 		byte read() {
-			return m_data[m_start + m_position++];
+			return m_data.get(m_start + m_position++);
 		}
 
 		int read(byte[] dst, int offset, int length) {
@@ -504,7 +605,7 @@ final class Buffer implements IBuffer {
 			else
 				length = n;
 
-			System.arraycopy(m_data, m_start + m_position, dst, offset, length);
+			window(m_start + m_position, length).get(dst, offset, length);
 			m_position += n;
 			return n;
 		}
@@ -516,7 +617,7 @@ final class Buffer implements IBuffer {
 			else
 				length = n;
 
-			dst.append(m_data, m_start + m_position, length);
+			append(dst, m_start + m_position, length);
 			m_position += n;
 			return n;
 		}
@@ -528,7 +629,7 @@ final class Buffer implements IBuffer {
 			else
 				length = n;
 
-			dst.put(m_data, m_start + m_position, length);
+			dst.put(window(m_start + m_position, length));
 			m_position += n;
 			return n;
 		}
@@ -539,7 +640,7 @@ final class Buffer implements IBuffer {
 		 * passed in must be not greater than {@code remaining()}. So
 		 * {@code remaining()} should be called to decide {@code length} before
 		 * calling this method.
-		 * 
+		 *
 		 * @param i
 		 *            the base int value to be left shifted into
 		 * @param length
@@ -549,9 +650,9 @@ final class Buffer implements IBuffer {
 		int readIntB(int i, final int length) {
 			int index = m_start + m_position;
 			int end = index + length;
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			for (; index < end; ++index)
-				i = (i << 8) | (data[index] & 0xFF);
+				i = (i << 8) | (bb.get(index) & 0xFF);
 
 			m_position += length;
 			return i;
@@ -563,7 +664,7 @@ final class Buffer implements IBuffer {
 		 * passed in must be not greater than {@code remaining()}. So
 		 * {@code remaining()} should be called to decide {@code length} before
 		 * calling this method.
-		 * 
+		 *
 		 * @param i
 		 *            the base int value to be right shifted into
 		 * @param length
@@ -573,9 +674,9 @@ final class Buffer implements IBuffer {
 		int readIntL(int i, final int length) {
 			int index = m_start + m_position;
 			int end = index + length;
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			for (; index < end; ++index)
-				i = (i >>> 8) | (data[index] << 24);
+				i = (i >>> 8) | (bb.get(index) << 24);
 
 			m_position += length;
 			return i;
@@ -587,7 +688,7 @@ final class Buffer implements IBuffer {
 		 * passed in must be not greater than {@code remaining()}. So
 		 * {@code remaining()} should be called to decide {@code length} before
 		 * calling this method.
-		 * 
+		 *
 		 * @param l
 		 *            the base long value to be left shifted into
 		 * @param length
@@ -597,9 +698,9 @@ final class Buffer implements IBuffer {
 		long readLongB(long l, final int length) {
 			int index = m_start + m_position;
 			int end = index + length;
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			for (; index < end; ++index)
-				l = (l << 8) | (data[index] & 0xFF);
+				l = (l << 8) | (bb.get(index) & 0xFF);
 
 			m_position += length;
 			return l;
@@ -611,7 +712,7 @@ final class Buffer implements IBuffer {
 		 * passed in must be not greater than {@code remaining()}. So
 		 * {@code remaining()} should be called to decide {@code length} before
 		 * calling this method.
-		 * 
+		 *
 		 * @param l
 		 *            the base long value to be right shifted into
 		 * @param length
@@ -621,9 +722,9 @@ final class Buffer implements IBuffer {
 		long readLongL(long l, final int length) {
 			int index = m_start + m_position;
 			int end = index + length;
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			for (; index < end; ++index)
-				l = (l >>> 8) | (((long) data[index]) << 56);
+				l = (l >>> 8) | (((long) bb.get(index)) << 56);
 
 			m_position += length;
 			return l;
@@ -643,7 +744,7 @@ final class Buffer implements IBuffer {
 		 * method.
 		 */
 		void writeByte(byte b) {
-			m_data[m_start + m_size++] = b;
+			m_data.put(m_start + m_size++, b);
 		}
 
 		int writeFill(byte b, int count) {
@@ -654,16 +755,16 @@ final class Buffer implements IBuffer {
 				n = count;
 
 			int size = m_start + m_size;
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			while (count-- > 0)
-				data[size++] = b;
+				bb.put(size++, b);
 
 			m_size += n;
 			return n;
 		}
 
 		void headWriteByte(byte b) {
-			m_data[--m_start] = b;
+			m_data.put(--m_start, b);
 
 			if (m_position > 0) {
 				++m_position;
@@ -680,7 +781,7 @@ final class Buffer implements IBuffer {
 			else
 				n = length;
 
-			System.arraycopy(src, offset, m_data, m_start + m_size, length);
+			window(m_start + m_size, length).put(src, offset, length);
 			m_size += n;
 			return n;
 		}
@@ -695,7 +796,7 @@ final class Buffer implements IBuffer {
 
 			int index = m_start - length;
 			m_start = index;
-			System.arraycopy(src, offset, m_data, index, length);
+			window(index, length).put(src, offset, length);
 
 			if (m_position > 0) {
 				m_position += n;
@@ -713,11 +814,11 @@ final class Buffer implements IBuffer {
 			else
 				n = count;
 
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			int index = m_start;
 			while (count-- > 0)
-				data[--index] = b;
-			
+				bb.put(--index, b);
+
 			m_start = index;
 
 			if (m_position > 0) {
@@ -736,7 +837,7 @@ final class Buffer implements IBuffer {
 			else
 				n = length;
 
-			src.getBytes(offset, offset + length, m_data, m_start + m_size);
+			put(m_start + m_size, src, offset, length);
 			m_size += n;
 			return n;
 		}
@@ -748,7 +849,13 @@ final class Buffer implements IBuffer {
 			else
 				n = length;
 
-			src.read(m_data, m_start + m_size, length);
+			ByteBuffer bb = m_data;
+			int index = m_start + m_size;
+			if (bb.hasArray())
+				src.read(bb.array(), bb.arrayOffset() + index, length);
+			else
+				src.read(window(index, length));
+
 			m_size += n;
 			return n;
 		}
@@ -763,7 +870,7 @@ final class Buffer implements IBuffer {
 
 			int index = m_start - length;
 			m_start = index;
-			src.getBytes(offset, offset + length, m_data, index);
+			put(index, src, offset, length);
 
 			if (m_position > 0) {
 				m_position += n;
@@ -781,7 +888,7 @@ final class Buffer implements IBuffer {
 			else
 				n = length;
 
-			src.get(m_data, m_start + m_size, length);
+			put(m_start + m_size, src, length);
 			m_size += n;
 			return n;
 		}
@@ -797,7 +904,7 @@ final class Buffer implements IBuffer {
 
 			int index = m_start - length;
 			m_start = index;
-			src.get(m_data, index, length);
+			put(index, src, length);
 
 			if (m_position > 0) {
 				m_position += n;
@@ -816,13 +923,13 @@ final class Buffer implements IBuffer {
 		 * should be called to decide {@code length} before calling this method.
 		 */
 		int writeIntB(int i, final int length) {
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			int end = m_size;
 			m_size = end + length;
 			int index = m_start + end;
 			end = index + length;
 			for (; index < end; ++index) {
-				data[index] = (byte) (i >>> 24);
+				bb.put(index, (byte) (i >>> 24));
 				i <<= 8;
 			}
 
@@ -838,11 +945,11 @@ final class Buffer implements IBuffer {
 		 * calling this method.
 		 */
 		int headWriteIntB(int i, final int length) {
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			int end = m_start;
 			int index = end - length;
 			while (end > index) {
-				data[--end] = (byte) i;
+				bb.put(--end, (byte) i);
 				i >>= 8;
 			}
 
@@ -866,13 +973,13 @@ final class Buffer implements IBuffer {
 		 * should be called to decide {@code length} before calling this method.
 		 */
 		int writeIntL(int i, final int length) {
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			int end = m_size;
 			m_size = end + length;
 			int index = m_start + end;
 			end = index + length;
 			for (; index < end; ++index) {
-				data[index] = (byte) i;
+				bb.put(index, (byte) i);
 				i >>= 8;
 			}
 
@@ -888,11 +995,11 @@ final class Buffer implements IBuffer {
 		 * calling this method.
 		 */
 		int headWriteIntL(int i, final int length) {
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			int end = m_start;
 			int index = end - length;
 			while (end > index) {
-				data[--end] = (byte) (i >> 24);
+				bb.put(--end, (byte) (i >> 24));
 				i <<= 8;
 			}
 
@@ -916,13 +1023,13 @@ final class Buffer implements IBuffer {
 		 * should be called to decide {@code length} before calling this method.
 		 */
 		long writeLongB(long l, final int length) {
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			int end = m_size;
 			m_size = end + length;
 			int index = m_start + end;
 			end = index + length;
 			for (; index < end; ++index) {
-				data[index] = (byte) (l >>> 56);
+				bb.put(index, (byte) (l >>> 56));
 				l <<= 8;
 			}
 
@@ -938,11 +1045,11 @@ final class Buffer implements IBuffer {
 		 * calling this method.
 		 */
 		long headWriteLongB(long l, final int length) {
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			int end = m_start;
 			int index = end - length;
 			while (end > index) {
-				data[--end] = (byte) l;
+				bb.put(--end, (byte) l);
 				l >>= 8;
 			}
 
@@ -965,13 +1072,13 @@ final class Buffer implements IBuffer {
 		 * should be called to decide {@code length} before calling this method.
 		 */
 		long writeLongL(long l, final int length) {
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			int end = m_size;
 			m_size = end + length;
 			int index = m_start + end;
 			end = index + length;
 			for (; index < end; ++index) {
-				data[index] = (byte) l;
+				bb.put(index, (byte) l);
 				l >>= 8;
 			}
 
@@ -987,11 +1094,11 @@ final class Buffer implements IBuffer {
 		 * calling this method.
 		 */
 		long headWriteLongL(long l, final int length) {
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			int end = m_start;
 			int index = end - length;
 			while (end > index) {
-				data[--end] = (byte) (l >> 56);
+				bb.put(--end, (byte) (l >> 56));
 				l <<= 8;
 			}
 
@@ -1007,32 +1114,16 @@ final class Buffer implements IBuffer {
 		}
 
 		/**
-		 * Slice {@code n} bytes from the end of the data.
-		 * 
+		 * Slice {@code n} bytes from the end of the data. The returned unit
+		 * shares the storage with this unit.
+		 *
 		 * @param n
 		 *            the number of bytes to be sliced from the end
 		 */
-		Unit cut(int n, BufferFactory factory) {
-			Unit unit = null;
+		Unit cut(int n) {
+			Unit unit = share();
 			int size = m_size - n;
-			if (size >= n) { // copy the slice
-				unit = factory.getUnit(n);
-				getBytes(size, unit.m_data, 0, n);
-				unit.m_start = 0;
-			} else { // copy the rest
-				unit = factory.getUnit(size);
-				getBytes(0, unit.m_data, 0, size);
-				byte[] temp = m_data;
-				ByteBuffer tempBb = m_bb;
-				m_data = unit.m_data;
-				m_bb = unit.m_bb;
-				unit.m_data = temp;
-				unit.m_bb = tempBb;
-
-				unit.m_start = m_start + size;
-				m_start = 0;
-			}
-
+			unit.m_start = m_start + size;
 			unit.m_size = n;
 			m_size = size;
 
@@ -1057,7 +1148,7 @@ final class Buffer implements IBuffer {
 
 		ByteBuffer getByteBufferForWrite() {
 			ByteBuffer bb = m_bb;
-			bb.limit(m_data.length);
+			bb.limit(bb.capacity());
 			bb.position(m_start + m_size);
 			return bb;
 		}
@@ -1069,19 +1160,19 @@ final class Buffer implements IBuffer {
 		ByteBuffer getByteBufferForRead() {
 			ByteBuffer bb = m_bb;
 			int start = m_start;
-			bb.position(start + m_position);
 			bb.limit(start + m_size);
+			bb.position(start + m_position);
 			return bb;
 		}
 
 		ByteBuffer getByteBufferForRead(int offset, int length) {
 			ByteBuffer bb = m_bb;
 			int start = m_start;
-			bb.position(start + offset);
 			length += offset;
 			if (length > m_size)
 				length = m_size;
 			bb.limit(start + length);
+			bb.position(start + offset);
 			return bb;
 		}
 
@@ -1089,16 +1180,27 @@ final class Buffer implements IBuffer {
 			m_position = m_bb.position() - m_start;
 		}
 
+		/**
+		 * Return the index of the first occurrence searched for by the given
+		 * {@code searcher} wholly in this unit at or after {@code fromIndex}.
+		 */
+		int indexOf(Searcher searcher, int fromIndex) {
+			int start = m_start;
+			int index = searcher.findIn(m_data, start + fromIndex, m_size
+					- fromIndex);
+			return index < 0 ? index : index - start;
+		}
+
 		void addTo(Blob blob, int offset) {
-			blob.add(m_data, m_start + offset, m_size - offset);
+			add(blob, m_start + offset, m_size - offset);
 		}
 
 		void addToWithSize(Blob blob, int size) {
-			blob.add(m_data, m_start, size);
+			add(blob, m_start, size);
 		}
 
 		void addTo(Blob blob) {
-			blob.add(m_data, m_start, m_size);
+			add(blob, m_start, m_size);
 		}
 
 		void compact() {
@@ -1113,11 +1215,11 @@ final class Buffer implements IBuffer {
 		}
 
 		int compare(IByteSequence sequence, int from, int len) {
-			byte[] data = m_data;
+			ByteBuffer bb = m_data;
 			int i = m_start + m_position;
 			len += i;
 			for (; i < len; ++i, ++from) {
-				byte b1 = data[i];
+				byte b1 = bb.get(i);
 				byte b2 = sequence.byteAt(from);
 				if (b1 != b2)
 					return b1 < b2 ? -1 : 1;
@@ -1127,17 +1229,162 @@ final class Buffer implements IBuffer {
 		}
 
 		int compare(int i, Unit that, int j, int len) {
-			byte[] data = m_data;
-			byte[] thatData = that.m_data;
+			ByteBuffer bb = m_data;
+			ByteBuffer thatBb = that.m_data;
 			for (; len > 0; ++i, ++j, --len) {
-				byte b1 = data[i];
-				byte b2 = thatData[j];
+				byte b1 = bb.get(i);
+				byte b2 = thatBb.get(j);
 				if (b1 != b2)
 					return (b1 < b2) ? -1 : 1;
 			}
 
 			return 0;
 		}
+
+		/**
+		 * Set the position and limit of the underlying byte buffer to the
+		 * given range for a relative bulk operation.
+		 */
+		private ByteBuffer window(int index, int length) {
+			ByteBuffer bb = m_bb;
+			bb.limit(index + length);
+			bb.position(index);
+			return bb;
+		}
+
+		private void put(int index, ByteBuffer src, int length) {
+			int limit = src.limit();
+			src.limit(src.position() + length);
+			window(index, length).put(src);
+			src.limit(limit);
+		}
+
+		private void put(int index, IByteSequence src, int offset, int length) {
+			ByteBuffer bb = m_data;
+			if (bb.hasArray()) {
+				src.getBytes(offset, offset + length, bb.array(),
+						bb.arrayOffset() + index);
+				return;
+			}
+
+			int end = index + length;
+			for (; index < end; ++index, ++offset)
+				bb.put(index, src.byteAt(offset));
+		}
+
+		private void append(BytesBuilder out, int index, int length) {
+			ByteBuffer bb = m_data;
+			if (bb.hasArray()) {
+				out.append(bb.array(), bb.arrayOffset() + index, length);
+				return;
+			}
+
+			int end = index + length;
+			for (; index < end; ++index)
+				out.append(bb.get(index));
+		}
+
+		// Blob holds the given bytes without copying. So the data of a
+		// direct unit has to be copied out.
+		private void add(Blob blob, int index, int length) {
+			ByteBuffer bb = m_data;
+			if (bb.hasArray()) {
+				blob.add(bb.array(), bb.arrayOffset() + index, length);
+				return;
+			}
+
+			byte[] data = new byte[length];
+			window(index, length).get(data);
+			blob.add(data);
+		}
+	}
+
+	/**
+	 * A search that reads the units in place. A blob holds only byte arrays,
+	 * so direct units are searched this way rather than copied into one.
+	 */
+	static abstract class Searcher {
+
+		/**
+		 * Return the length of the longest occurrence.
+		 */
+		abstract int length();
+
+		abstract int findIn(ByteBuffer target, int offset, int length);
+
+		abstract int findIn(byte[] target, int offset, int length);
+	}
+
+	static final class KmpSearcher extends Searcher {
+
+		private final ByteKmp m_pattern;
+
+		KmpSearcher(ByteKmp pattern) {
+			m_pattern = pattern;
+		}
+
+		@Override
+		int length() {
+			return m_pattern.length();
+		}
+
+		@Override
+		int findIn(ByteBuffer target, int offset, int length) {
+			return m_pattern.findIn(target, offset, length);
+		}
+
+		@Override
+		int findIn(byte[] target, int offset, int length) {
+			return m_pattern.findIn(target, offset, length);
+		}
+	}
+
+	static final class BmhSearcher extends Searcher {
+
+		private final ByteBmh m_pattern;
+
+		BmhSearcher(ByteBmh pattern) {
+			m_pattern = pattern;
+		}
+
+		@Override
+		int length() {
+			return m_pattern.length();
+		}
+
+		@Override
+		int findIn(ByteBuffer target, int offset, int length) {
+			return m_pattern.findIn(target, offset, length);
+		}
+
+		@Override
+		int findIn(byte[] target, int offset, int length) {
+			return m_pattern.findIn(target, offset, length);
+		}
+	}
+
+	static final class MultiPatternSearcher extends Searcher {
+
+		private final ByteMultiPattern m_patterns;
+
+		MultiPatternSearcher(ByteMultiPattern patterns) {
+			m_patterns = patterns;
+		}
+
+		@Override
+		int length() {
+			return m_patterns.maxLength();
+		}
+
+		@Override
+		int findIn(ByteBuffer target, int offset, int length) {
+			return m_patterns.findIn(target, offset, length);
+		}
+
+		@Override
+		int findIn(byte[] target, int offset, int length) {
+			return m_patterns.findIn(target, offset, length);
+		}
 	}
 
 	final class BufferInputStream extends InputStream {
@@ -1245,6 +1492,18 @@ final class Buffer implements IBuffer {
 		return buffer;
 	}
 
+	static Buffer get(BufferFactory factory, int unitCapacity) {
+		Buffer buffer = m_bufferCache.take();
+		if (buffer == null)
+			buffer = new Buffer();
+
+		buffer.m_head.set(factory.getSizedUnit(unitCapacity));
+		buffer.m_factory = factory;
+		buffer.m_unitCapacity = unitCapacity;
+
+		return buffer;
+	}
+
 	private static Buffer getForSlice(BufferFactory factory) {
 		Buffer buffer = m_bufferCache.take();
 		if (buffer == null)
@@ -1265,6 +1524,7 @@ final class Buffer implements IBuffer {
 
 		BufferFactory factory = m_factory;
 		m_factory = null;
+		m_unitCapacity = 0;
 
 		factory.putUnit(head.get());
 		head.set(null);
@@ -2163,17 +2423,25 @@ final class Buffer implements IBuffer {
 		for (;;) {
 			if (n >= 0) {
 				int m = unitSize - n;
-				n += index;
+				int i = index + n;
 				if (m >= length)
-					return n;
+					return i;
 
-				if (n <= size) {
-					BiListNode<Unit> temp = node.next();
-					while ((unit = temp.get()).startsWith(bytes, m)) {
-						if ((m += unit.size()) >= length)
-							return n;
-						temp = temp.next();
-					}
+				if (i > size)
+					break;
+
+				BiListNode<Unit> temp = node.next();
+				Unit next;
+				while ((next = temp.get()).startsWith(bytes, m)) {
+					if ((m += next.size()) >= length)
+						return i;
+					temp = temp.next();
+				}
+
+				// the cut-off match does not continue, try the later ones
+				if (++n < unitSize) {
+					n = unit.indexOf(bytes, n);
+					continue;
 				}
 			}
 
@@ -2208,23 +2476,12 @@ final class Buffer implements IBuffer {
 		if (length < 1)
 			return fromIndex;
 
-		BiListNode<Unit> head = m_head;
-		BiListNode<Unit> node = head;
-		Unit unit = node.get();
-		int index = fromIndex;
-		while (index >= (size = unit.size())) {
-			index -= size;
-			node = node.next();
-			unit = node.get();
-		}
+		if (m_head.get().isDirect())
+			return indexOf(new KmpSearcher(pattern), fromIndex);
 
 		int n = 0;
-		Blob blob = Blob.get();
+		Blob blob = blob(fromIndex);
 		try {
-			unit.addTo(blob, index);
-			while ((node = node.next()) != head)
-				node.get().addTo(blob);
-
 			n = blob.indexOf(pattern);
 		} finally {
 			blob.close();
@@ -2233,6 +2490,61 @@ final class Buffer implements IBuffer {
 		return n < 0 ? n : fromIndex + n;
 	}
 
+	@Override
+	public int indexOf(ByteBmh pattern) {
+		return indexOf(pattern, 0);
+	}
+
+	@Override
+	public int indexOf(ByteBmh pattern, int fromIndex) {
+		int length = pattern.length();
+		int size = m_size - length;
+		if (fromIndex > size)
+			return length < 1 ? size : -1;
+
+		if (fromIndex < 0)
+			fromIndex = 0;
+
+		if (length < 1)
+			return fromIndex;
+
+		if (m_head.get().isDirect())
+			return indexOf(new BmhSearcher(pattern), fromIndex);
+
+		Blob blob = blob(fromIndex);
+		try {
+			int n = blob.indexOf(pattern);
+			return n < 0 ? n : fromIndex + n;
+		} finally {
+			blob.close();
+		}
+	}
+
+	@Override
+	public int indexOf(ByteMultiPattern patterns) {
+		return indexOf(patterns, 0);
+	}
+
+	@Override
+	public int indexOf(ByteMultiPattern patterns, int fromIndex) {
+		if (fromIndex >= m_size)
+			return -1;
+
+		if (fromIndex < 0)
+			fromIndex = 0;
+
+		if (m_head.get().isDirect())
+			return indexOf(new MultiPatternSearcher(patterns), fromIndex);
+
+		Blob blob = blob(fromIndex);
+		try {
+			int n = blob.indexOf(patterns);
+			return n < 0 ? n : fromIndex + n;
+		} finally {
+			blob.close();
+		}
+	}
+
 	@Override
 	public int lastIndexOf(byte b) {
 		return lastIndexOf(b, m_size);
@@ -2365,6 +2677,7 @@ final class Buffer implements IBuffer {
 		}
 
 		fromIndex -= index;
+		// unlike the forward searches, this one copies direct units
 		Blob blob = Blob.get();
 		try {
 			for (BiListNode<Unit> node = head; node != last; node = node.next())
@@ -2447,6 +2760,7 @@ final class Buffer implements IBuffer {
 			unit = node.get();
 		}
 
+		unit = unitToSet(node);
 		unit.setByte(index, b);
 
 		return this;
@@ -2474,12 +2788,13 @@ final class Buffer implements IBuffer {
 			unit = node.get();
 		}
 
+		unit = unitToSet(node);
 		if ((n = unit.setBytes(start, src, offset, length)) < length) {
 			do {
 				offset += n;
 				length -= n;
 				node = node.next();
-				unit = node.get();
+				unit = unitToSet(node);
 			} while ((n = unit.setBytes(0, src, offset, length)) < length);
 		}
 
@@ -2500,6 +2815,7 @@ final class Buffer implements IBuffer {
 			unit = node.get();
 		}
 
+		unit = unitToSet(node);
 		int length = n - start;
 		if (length >= 4) {
 			unit.setIntB(start, i, 4);
@@ -2511,7 +2827,7 @@ final class Buffer implements IBuffer {
 		for (;;) {
 			n -= length;
 			node = node.next();
-			unit = node.get();
+			unit = unitToSet(node);
 			length = unit.size();
 			if (length >= n) {
 				unit.setIntB(0, i, n);
@@ -2538,6 +2854,7 @@ final class Buffer implements IBuffer {
 			unit = node.get();
 		}
 
+		unit = unitToSet(node);
 		int length = n - start;
 		if (length >= 4) {
 			unit.setIntL(start, i, 4);
@@ -2549,7 +2866,7 @@ final class Buffer implements IBuffer {
 		for (;;) {
 			n -= length;
 			node = node.next();
-			unit = node.get();
+			unit = unitToSet(node);
 			length = unit.size();
 			if (length >= n) {
 				unit.setIntL(0, i, n);
@@ -2576,6 +2893,7 @@ final class Buffer implements IBuffer {
 			unit = node.get();
 		}
 
+		unit = unitToSet(node);
 		int length = n - start;
 		if (length >= 8) {
 			unit.setLongB(start, l, 8);
@@ -2587,7 +2905,7 @@ final class Buffer implements IBuffer {
 		for (;;) {
 			n -= length;
 			node = node.next();
-			unit = node.get();
+			unit = unitToSet(node);
 			length = unit.size();
 			if (length >= n) {
 				unit.setLongB(0, l, n);
@@ -2614,6 +2932,7 @@ final class Buffer implements IBuffer {
 			unit = node.get();
 		}
 
+		unit = unitToSet(node);
 		int length = n - start;
 		if (length >= 8) {
 			unit.setLongL(start, l, 8);
@@ -2625,7 +2944,7 @@ final class Buffer implements IBuffer {
 		for (;;) {
 			n -= length;
 			node = node.next();
-			unit = node.get();
+			unit = unitToSet(node);
 			length = unit.size();
 			if (length >= n) {
 				unit.setLongL(0, l, n);
@@ -2652,11 +2971,12 @@ final class Buffer implements IBuffer {
 			unit = node.get();
 		}
 
+		unit = unitToSet(node);
 		int length = n - start;
 		unit.setByte(start, (byte) (s >> 8));
 		if (length < 2) {
 			node = node.next();
-			unit = node.get();
+			unit = unitToSet(node);
 			start = 0;
 		} else
 			++start;
@@ -2680,11 +3000,12 @@ final class Buffer implements IBuffer {
 			unit = node.get();
 		}
 
+		unit = unitToSet(node);
 		int length = n - start;
 		unit.setByte(start, (byte) s);
 		if (length < 2) {
 			node = node.next();
-			unit = node.get();
+			unit = unitToSet(node);
 			start = 0;
 		} else
 			++start;
@@ -2731,11 +3052,12 @@ final class Buffer implements IBuffer {
 			unit = node.get();
 		}
 
+		unit = unitToSet(node);
 		if ((n = unit.setFill(start, b, count)) < count) {
 			do {
 				count -= n;
 				node = node.next();
-				unit = node.get();
+				unit = unitToSet(node);
 			} while ((n = unit.setFill(0, b, count)) < count);
 		}
 
@@ -3783,6 +4105,27 @@ final class Buffer implements IBuffer {
 		return n;
 	}
 
+	@Override
+	public int getByteBuffers(ByteBuffer[] dsts, int offset) {
+		int n = dsts.length;
+		if (m_position >= m_size || offset >= n)
+			return 0;
+
+		Unit unit = getCurrentUnitToRead();
+		BiListNode<Unit> node = m_posNode;
+		BiListNode<Unit> tail = m_head.previous();
+		int i = offset;
+		dsts[i] = unit.getByteBufferForRead();
+		while (++i < n && node != tail) {
+			node = node.next();
+			unit = node.get();
+			unit.rewind();
+			dsts[i] = unit.getByteBufferForRead();
+		}
+
+		return i - offset;
+	}
+
 	@Override
 	public int compareTo(IBuffer that) {
 		if (!(that instanceof Buffer))
@@ -3866,34 +4209,38 @@ final class Buffer implements IBuffer {
 
 	@Override
 	public IBuffer compact() {
-		BiListNode<Unit> head = m_head;
-		Unit unit = head.get();
-		if (!unit.isEmpty()) {
-			unit.compact();
+		if (m_position < 1)
 			return this;
-		}
 
-		BufferFactory factory = m_factory;
-		BiListNode<Unit> prev = head.previous();
-		BiListNode<Unit> node = head;
-		BiListNode<Unit> next = node.next();
-		if (next != head) {
+		// the units after the one at the position are not rewound yet
+		BiListNode<Unit> head = m_head;
+		BiListNode<Unit> posNode = m_posNode;
+		Unit unit = posNode.get();
+		if (unit.isEmpty() && posNode.next() != head) {
+			posNode = posNode.next();
+			unit = posNode.get();
+			unit.rewind();
+		}
+
+		if (posNode != head) {
+			BufferFactory factory = m_factory;
+			BiListNode<Unit> prev = head.previous();
+			BiListNode<Unit> node = head;
 			do {
-				factory.putUnit(unit);
+				BiListNode<Unit> next = node.next();
+				factory.putUnit(node.get());
 				node.close();
 				node = next;
-				next = next.next();
-				unit = node.get();
-			} while (next != head && unit.isEmpty());
-			m_head = node;
-			node.previous(prev);
-			prev.next(node);
-			m_markNode = node;
-			m_posNode = node;
+			} while (node != posNode);
+			m_head = posNode;
+			posNode.previous(prev);
+			prev.next(posNode);
 		}
+		m_markNode = posNode;
+		m_posNode = posNode;
 
 		if (unit.isEmpty())
-			unit.clear();
+			clearUnit(posNode);
 		else
 			unit.compact();
 
@@ -3951,7 +4298,7 @@ final class Buffer implements IBuffer {
 
 		if (size > 0) {
 			BiListNode<Unit> temp = BiListNode.create();
-			temp.set(unit.cut(size, m_factory));
+			temp.set(unit.cut(size));
 			m_head = temp;
 			BiListNode<Unit> next = node.next();
 			if (next == head) {
@@ -3967,23 +4314,27 @@ final class Buffer implements IBuffer {
 				node.next(head);
 			}
 		} else {
-			m_head = node;
-			BiListNode<Unit> prev = node.previous();
+			// split on the end of node, the rest starts at the next one
+			BiListNode<Unit> next = node.next();
+			m_head = next;
 			BiListNode<Unit> tail = head.previous();
-			head.previous(prev);
-			prev.next(head);
-			node.previous(tail);
-			tail.next(node);
+			head.previous(node);
+			node.next(head);
+			next.previous(tail);
+			tail.next(next);
 		}
 
 		// mark
 		n = m_mark;
 		size = slice.m_size;
-		if (n > size) {
+		if (n >= size) {
 			slice.m_markNode = node;
 			unit.mark();
 			slice.m_mark = size;
 			m_mark = n - size;
+			// the marked unit is the one cut
+			if (m_markNode == node)
+				m_markNode = m_head;
 		} else {
 			slice.m_markNode = m_markNode;
 			slice.m_mark = n;
@@ -3993,10 +4344,12 @@ final class Buffer implements IBuffer {
 
 		// position
 		n = m_position;
-		if (n > size) {
+		if (n >= size) {
 			slice.m_posNode = node;
 			slice.m_position = size;
 			m_position = n - size;
+			if (m_posNode == node)
+				m_posNode = m_head;
 		} else {
 			slice.m_posNode = m_posNode;
 			slice.m_position = n;
@@ -4004,9 +4357,77 @@ final class Buffer implements IBuffer {
 			m_posNode = m_head;
 		}
 
+		if (m_position == 0) {
+			// the units following the old position may be stale
+			m_posNode = m_head;
+			m_markNode = m_head;
+			m_head.get().rewind();
+		}
+
 		return slice;
 	}
 
+	@Override
+	public IBuffer slice() {
+		if (m_position >= m_size)
+			return newBuffer();
+
+		Buffer slice = getForSlice(m_factory);
+		BiListNode<Unit> head = m_head;
+		BiListNode<Unit> node = m_posNode;
+		boolean first = true;
+		do {
+			Unit unit = node.get();
+			if (!unit.isEmpty()) {
+				unit = unit.share();
+				unit.compact();
+				unit.rewind();
+				if (first) {
+					slice.m_head.set(unit);
+					first = false;
+				} else
+					slice.addUnit(unit);
+			}
+			node = node.next();
+		} while (node != head);
+
+		slice.m_size = m_size - m_position;
+		return slice;
+	}
+
+	@Override
+	public IBuffer duplicate() {
+		if (m_size < 1)
+			return newBuffer();
+
+		Buffer duplicate = getForSlice(m_factory);
+		BiListNode<Unit> head = m_head;
+		BiListNode<Unit> posNode = m_posNode;
+		BiListNode<Unit> markNode = m_markNode;
+		BiListNode<Unit> node = head;
+		do {
+			Unit unit = node.get().share();
+			BiListNode<Unit> dupNode;
+			if (node == head) {
+				dupNode = duplicate.m_head;
+				dupNode.set(unit);
+			} else
+				dupNode = duplicate.addUnit(unit);
+
+			if (node == posNode)
+				duplicate.m_posNode = dupNode;
+			if (node == markNode)
+				duplicate.m_markNode = dupNode;
+
+			node = node.next();
+		} while (node != head);
+
+		duplicate.m_position = m_position;
+		duplicate.m_mark = m_mark;
+		duplicate.m_size = m_size;
+		return duplicate;
+	}
+
 	@Override
 	public Buffer newBuffer() {
 		return Buffer.get(m_factory);
@@ -4034,7 +4455,7 @@ final class Buffer implements IBuffer {
 			head.next(head);
 		}
 
-		head.get().clear();
+		clearUnit(head);
 	}
 
 	@Override
@@ -4065,7 +4486,8 @@ final class Buffer implements IBuffer {
 		thisTail.next(node);
 		node.previous(thisTail);
 
-		dst.m_size += m_size;
+		// the data before the position has been dropped
+		dst.m_size += m_size - m_position;
 
 		node = BiListNode.create();
 		node.next(node);
@@ -4152,12 +4574,20 @@ final class Buffer implements IBuffer {
 	public SSLEngineResult unwrap(IBuffer src, SSLEngine engine)
 			throws SSLException {
 		ByteBuffer netData = null;
+		int length = src.remaining();
+		if (length > 0) {
+			// The engine consumes at most one record per call. So only the
+			// next record has to be contiguous.
+			int recordLength = recordLength(src);
+			if (recordLength > 0 && recordLength < length)
+				length = recordLength;
+		}
+
 		if (src instanceof Buffer) {
 			Buffer srcBuf = (Buffer) src;
-			Unit unit = null;
 			if (srcBuf.remaining() > 0) {
-				unit = srcBuf.getCurrentUnitToRead();
-				if (srcBuf.m_posNode == srcBuf.m_head.previous())
+				Unit unit = srcBuf.getCurrentUnitToRead();
+				if (unit.remaining() >= length)
 					netData = unit.getByteBufferForRead();
 			} else
 				netData = srcBuf.m_posNode.get().getByteBufferForRead();
@@ -4165,8 +4595,9 @@ final class Buffer implements IBuffer {
 
 		BytesBuilder builder = null;
 		if (netData == null) {
-			builder = BytesBuilder.get(src.remaining());
-			netData = builder.getByteBuffer(0, builder.capacity());
+			// the next record spans units
+			builder = BytesBuilder.get(length);
+			netData = builder.getByteBuffer(0, length);
 			src.mark();
 			src.read(netData);
 			src.reset();
@@ -4192,13 +4623,13 @@ final class Buffer implements IBuffer {
 			src.skip(netData.position() - pos);
 
 			int n = 0;
-			while (node != head) {
+			do {
 				Unit unit = node.get();
 				int size = unit.size();
 				unit.syncWrite();
 				n += unit.size() - size;
 				node = node.next();
-			}
+			} while (node != head);
 			m_size += n;
 		} finally {
 			if (builder != null)
@@ -4210,16 +4641,38 @@ final class Buffer implements IBuffer {
 		return result;
 	}
 
+	/**
+	 * Return the length of the SSL/TLS record starting at the position of the
+	 * given {@code src}, or 0 if the header is incomplete.
+	 */
+	private static int recordLength(IBuffer src) {
+		int position = src.position();
+		int n = src.remaining();
+		int type = src.getUByte(position);
+		if (type > 0x17) { // SSLv2
+			if (n < 2)
+				return 0;
+
+			int mask = type < 0x80 ? 0x3F : 0x7F;
+			return ((type & mask) << 8 | src.getUByte(position + 1)) + 2;
+		}
+
+		if (n < 5)
+			return 0;
+
+		return src.getUShortB(position + 3) + 5;
+	}
+
 	@Override
 	public SSLEngineResult wrap(IBuffer dst, SSLEngine engine)
 			throws SSLException {
-		BiListNode<Unit> node = m_posNode;
 		BiListNode<Unit> head = m_head;
 		ByteBufferArray bba = ByteBufferArray.get();
 		if (remaining() <= 0)
-			bba.add(node.get().getByteBufferForRead());
+			bba.add(m_posNode.get().getByteBufferForRead());
 		else {
 			bba.add(getCurrentUnitToRead().getByteBufferForRead());
+			BiListNode<Unit> node = m_posNode.next();
 			while (node != head) {
 				Unit unit = node.get();
 				unit.rewind();
@@ -4270,17 +4723,17 @@ final class Buffer implements IBuffer {
 			}
 
 			int n = 0;
-			node = m_posNode;
-			while (node != head) {
+			BiListNode<Unit> node = m_posNode;
+			for (;;) {
 				Unit unit = node.get();
 				pos = unit.position();
 				unit.syncRead();
 				n += unit.position() - pos;
-				if (unit.remaining() > 0)
+				if (unit.remaining() > 0 || node.next() == head)
 					break;
 				node = node.next();
 			}
-			m_posNode = head.previous();
+			m_posNode = node;
 			m_position += n;
 		} finally {
 			if (builder != null)
@@ -4292,6 +4745,196 @@ final class Buffer implements IBuffer {
 		return result;
 	}
 
+	@Override
+	public void deflate(IBuffer dst, Deflater deflater) {
+		if (dst == this)
+			throw new IllegalArgumentException();
+
+		BytesBuilder builder = null;
+		try {
+			BiListNode<Unit> head = m_head;
+			BiListNode<Unit> node = m_posNode;
+			int offset = node.get().position();
+			do {
+				Unit unit = node.get();
+				int length = unit.size() - offset;
+				if (length > 0) {
+					builder = setInput(deflater, unit, offset, length, builder);
+					while (!deflater.needsInput())
+						deflateTo(dst, deflater);
+				}
+				offset = 0;
+				node = node.next();
+			} while (node != head);
+
+			deflater.finish();
+			while (!deflater.finished())
+				deflateTo(dst, deflater);
+		} finally {
+			if (builder != null)
+				builder.close();
+		}
+
+		skip(remaining());
+	}
+
+	@Override
+	public void inflate(IBuffer dst, Inflater inflater)
+			throws DataFormatException {
+		inflate(dst, inflater, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public void inflate(IBuffer dst, Inflater inflater, int maxLength)
+			throws DataFormatException {
+		if (dst == this || maxLength < 0)
+			throw new IllegalArgumentException();
+
+		// one more byte than allowed tells the limit is exceeded
+		long left = maxLength + 1L;
+		BytesBuilder builder = null;
+		try {
+			BiListNode<Unit> head = m_head;
+			BiListNode<Unit> node = m_posNode;
+			int offset = node.get().position();
+			do {
+				Unit unit = node.get();
+				int length = unit.size() - offset;
+				if (length > 0) {
+					builder = setInput(inflater, unit, offset, length, builder);
+					for (;;) {
+						int n = inflateTo(dst, inflater,
+								(int) Math.min(left, Integer.MAX_VALUE));
+						if ((left -= n) < 1)
+							throw new DataFormatException(
+									"Inflated data exceeds the limit");
+						if (inflater.finished() || n == 0
+								&& inflater.needsInput())
+							break;
+						if (n == 0 && inflater.needsDictionary())
+							throw new DataFormatException("Dictionary needed");
+					}
+					if (inflater.finished())
+						break;
+				}
+				offset = 0;
+				node = node.next();
+			} while (node != head);
+		} finally {
+			if (builder != null)
+				builder.close();
+		}
+
+		if (!inflater.finished())
+			throw new DataFormatException("Truncated compressed data");
+
+		skip(remaining());
+	}
+
+	/**
+	 * Set the data of the given {@code unit} as the input of the given
+	 * {@code deflater}. The data of a direct unit is copied to the array of
+	 * the given {@code builder}, which is created if {@code null} and
+	 * returned.
+	 */
+	private static BytesBuilder setInput(Deflater deflater, Unit unit,
+			int offset, int length, BytesBuilder builder) {
+		ByteBuffer in = unit.getByteBufferForRead(offset, length);
+		if (in.hasArray()) {
+			deflater.setInput(in.array(), in.arrayOffset() + in.position(),
+					length);
+			return builder;
+		}
+
+		builder = copy(in, length, builder);
+		deflater.setInput(builder.getByteBuffer(0, length).array(), 0, length);
+		return builder;
+	}
+
+	private static BytesBuilder setInput(Inflater inflater, Unit unit,
+			int offset, int length, BytesBuilder builder) {
+		ByteBuffer in = unit.getByteBufferForRead(offset, length);
+		if (in.hasArray()) {
+			inflater.setInput(in.array(), in.arrayOffset() + in.position(),
+					length);
+			return builder;
+		}
+
+		builder = copy(in, length, builder);
+		inflater.setInput(builder.getByteBuffer(0, length).array(), 0, length);
+		return builder;
+	}
+
+	private static BytesBuilder copy(ByteBuffer in, int length,
+			BytesBuilder builder) {
+		if (builder == null)
+			builder = BytesBuilder.get(length);
+		else
+			builder.ensureCapacity(length);
+
+		builder.getByteBuffer(0, length).put(in);
+		return builder;
+	}
+
+	/**
+	 * Deflate into the free space of the last unit of the given {@code dst},
+	 * or through a heap array if the unit is direct.
+	 */
+	private static void deflateTo(IBuffer dst, Deflater deflater) {
+		if (dst instanceof Buffer) {
+			Buffer dstBuf = (Buffer) dst;
+			Unit unit = dstBuf.getCurrentUnitToWrite();
+			ByteBuffer out = unit.getByteBufferForWrite();
+			if (out.hasArray()) {
+				int pos = out.position();
+				int n = deflater.deflate(out.array(), out.arrayOffset() + pos,
+						out.remaining());
+				out.position(pos + n);
+				unit.syncWrite();
+				dstBuf.m_size += n;
+				return;
+			}
+		}
+
+		BytesBuilder builder = BytesBuilder.get();
+		try {
+			int capacity = builder.capacity();
+			byte[] array = builder.getByteBuffer(0, capacity).array();
+			dst.writeBytes(array, 0, deflater.deflate(array, 0, capacity));
+		} finally {
+			builder.close();
+		}
+	}
+
+	private static int inflateTo(IBuffer dst, Inflater inflater, int max)
+			throws DataFormatException {
+		if (dst instanceof Buffer) {
+			Buffer dstBuf = (Buffer) dst;
+			Unit unit = dstBuf.getCurrentUnitToWrite();
+			ByteBuffer out = unit.getByteBufferForWrite();
+			if (out.hasArray()) {
+				int pos = out.position();
+				int n = inflater.inflate(out.array(), out.arrayOffset() + pos,
+						Math.min(out.remaining(), max));
+				out.position(pos + n);
+				unit.syncWrite();
+				dstBuf.m_size += n;
+				return n;
+			}
+		}
+
+		BytesBuilder builder = BytesBuilder.get();
+		try {
+			int capacity = Math.min(builder.capacity(), max);
+			byte[] array = builder.getByteBuffer(0, capacity).array();
+			int n = inflater.inflate(array, 0, capacity);
+			dst.writeBytes(array, 0, n);
+			return n;
+		} finally {
+			builder.close();
+		}
+	}
+
 	private Unit getCurrentUnitToRead() {
 		Unit unit = m_posNode.get();
 		if (unit.isEmpty())
@@ -4317,8 +4960,19 @@ final class Buffer implements IBuffer {
 	}
 
 	private Unit getNextUnitToWrite() {
+		Unit unit = newUnit();
+		addUnit(unit);
+		return unit;
+	}
+
+	private Unit newUnit() {
+		int unitCapacity = m_unitCapacity;
+		return unitCapacity > 0 ? m_factory.getSizedUnit(unitCapacity)
+				: m_factory.getUnit();
+	}
+
+	private BiListNode<Unit> addUnit(Unit unit) {
 		BiListNode<Unit> node = BiListNode.create();
-		Unit unit = m_factory.getUnit();
 		node.set(unit);
 		BiListNode<Unit> head = m_head;
 		BiListNode<Unit> prev = head.previous();
@@ -4326,7 +4980,31 @@ final class Buffer implements IBuffer {
 		node.previous(prev);
 		prev.next(node);
 		head.previous(node);
-		return unit;
+		return node;
+	}
+
+	// A shared unit is copied before being written in place, so that the
+	// buffers sharing its storage are not changed.
+	private Unit unitToSet(BiListNode<Unit> node) {
+		Unit unit = node.get();
+		if (!unit.isShared())
+			return unit;
+
+		Unit copy = m_factory.getSizedUnit(unit.capacity());
+		copy.copyFrom(unit);
+		m_factory.putUnit(unit);
+		node.set(copy);
+		return copy;
+	}
+
+	// A shared unit cannot be written into, so it is replaced with a new one.
+	private void clearUnit(BiListNode<Unit> node) {
+		Unit unit = node.get();
+		if (unit.isShared()) {
+			m_factory.putUnit(unit);
+			node.set(newUnit());
+		} else
+			unit.clear();
 	}
 
 	private Unit getHeadUnitToWrite() {
@@ -4350,9 +5028,133 @@ final class Buffer implements IBuffer {
 		prev.next(node);
 		head.previous(node);
 		m_head = node;
+
+		// the data written to the head is before a position/mark of zero
+		if (m_position == 0)
+			m_posNode = node;
+		if (m_mark == 0)
+			m_markNode = node;
 		return unit;
 	}
 
+	/**
+	 * Search the units in place from the given {@code fromIndex}, which must be
+	 * less than m_size and non-negative. An occurrence across units is looked
+	 * for in a copy of the bytes around the boundary, as long as the longest
+	 * occurrence on each side.
+	 */
+	private int indexOf(Searcher searcher, int fromIndex) {
+		BiListNode<Unit> head = m_head;
+		BiListNode<Unit> node = head;
+		Unit unit = node.get();
+		// index of the first byte of the unit
+		int base = 0;
+		int size;
+		while (fromIndex >= base + (size = unit.size())) {
+			base += size;
+			node = node.next();
+			unit = node.get();
+		}
+
+		// bytes an occurrence may have on either side of a boundary
+		int n = searcher.length() - 1;
+		byte[] seam = null;
+		for (;;) {
+			int end = base + size;
+			int index = -1;
+			if (size > 0) {
+				index = unit.indexOf(searcher, fromIndex > base ? fromIndex
+						- base : 0);
+				if (index >= 0)
+					index += base;
+			}
+
+			BiListNode<Unit> next = node.next();
+			if (next == head)
+				return index;
+
+			// an occurrence across the boundary starts at or after (end - n)
+			if (n > 0 && (index < 0 || index > end - n)) {
+				int start = end - n;
+				if (start < fromIndex)
+					start = fromIndex;
+				int length = end + n;
+				if (length > m_size)
+					length = m_size;
+				length -= start;
+
+				if (seam == null)
+					seam = new byte[n << 1];
+				copy(node, start - base, seam, length);
+				int i = searcher.findIn(seam, 0, length);
+				if (i >= 0) {
+					i += start;
+					if (index < 0 || i < index)
+						index = i;
+				}
+			}
+
+			if (index >= 0)
+				return index;
+
+			base = end;
+			node = next;
+			unit = node.get();
+			size = unit.size();
+		}
+	}
+
+	/**
+	 * Copy {@code length} bytes starting at the given {@code offset} into the
+	 * unit of the given {@code node} to {@code dst}. A negative offset goes
+	 * back into the preceding units.
+	 */
+	private static void copy(BiListNode<Unit> node, int offset, byte[] dst,
+			int length) {
+		while (offset < 0) {
+			node = node.previous();
+			offset += node.get().size();
+		}
+
+		int n = 0;
+		for (;;) {
+			Unit unit = node.get();
+			int size = unit.size();
+			if (offset < size) {
+				n += unit.getBytes(offset, dst, n, length - n);
+				offset = 0;
+			} else
+				offset -= size;
+
+			if (n >= length)
+				return;
+
+			node = node.next();
+		}
+	}
+
+	/**
+	 * Return a blob of the data from the given {@code fromIndex} to the end.
+	 * {@code fromIndex} must be less than m_size and non-negative.
+	 */
+	private Blob blob(int fromIndex) {
+		BiListNode<Unit> head = m_head;
+		BiListNode<Unit> node = head;
+		Unit unit = node.get();
+		int size;
+		while (fromIndex >= (size = unit.size())) {
+			fromIndex -= size;
+			node = node.next();
+			unit = node.get();
+		}
+
+		Blob blob = Blob.get();
+		unit.addTo(blob, fromIndex);
+		while ((node = node.next()) != head)
+			node.get().addTo(blob);
+		return blob;
+	}
+
 	private static String errMsg(int start, int length, int size) {
 		return StringBuilder.get().append("start[").append(start)
 				.append("], length[").append(length).append("], size[")
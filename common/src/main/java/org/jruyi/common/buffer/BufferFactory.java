@@ -19,26 +19,78 @@ import java.util.Map;
 
 import org.jruyi.common.IBuffer;
 import org.jruyi.common.IBufferFactory;
-import org.jruyi.common.IThreadLocalCache;
-import org.jruyi.common.ThreadLocalCache;
 import org.jruyi.common.buffer.Buffer.Unit;
 
 public final class BufferFactory implements IBufferFactory {
 
 	private static final int MIN_UNIT_CAPACITY = 8;
+	private static final int DEFAULT_MAGAZINE_SIZE = 16;
+	private static final long DEFAULT_POOL_CAPACITY = 64L * 1024L * 1024L;
 	private static final String UNIT_CAPACITY = "unitCapacity";
-	private final IThreadLocalCache<Unit> m_unitCache = ThreadLocalCache
-			.weakLinkedCache();
+	private static final String BUFFER_TYPE = "bufferType";
+	private static final String BUFFER_TYPE_DIRECT = "direct";
+	private static final String MAGAZINE_SIZE = "magazineSize";
+	private static final String POOL_CAPACITY = "poolCapacity";
+	private volatile UnitPool m_pool;
 	private int m_unitCapacity;
+	private int m_magazineSize;
+	private long m_poolCapacity;
 
 	@Override
 	public IBuffer create() {
 		return Buffer.get(this);
 	}
 
+	@Override
+	public IBuffer create(int unitCapacity) {
+		if (unitCapacity < MIN_UNIT_CAPACITY)
+			unitCapacity = MIN_UNIT_CAPACITY;
+
+		return Buffer.get(this, unitCapacity);
+	}
+
+	/**
+	 * Return the number of unit requests served from the pool. Hits still
+	 * counted in thread local magazines are not included.
+	 */
+	public long poolHits() {
+		return m_pool.hits();
+	}
+
+	/**
+	 * Return the number of unit requests that allocated a new unit.
+	 */
+	public long poolMisses() {
+		return m_pool.misses();
+	}
+
+	/**
+	 * Return the total capacity of the units held by the shared pool.
+	 */
+	public long pooledBytes() {
+		return m_pool.pooledBytes();
+	}
+
 	protected void modified(Map<String, ?> properties) {
 		int value = (Integer) properties.get(UNIT_CAPACITY);
 		m_unitCapacity = value > MIN_UNIT_CAPACITY ? value : MIN_UNIT_CAPACITY;
+
+		boolean direct = BUFFER_TYPE_DIRECT.equals(properties
+				.get(BUFFER_TYPE));
+		Integer magazineSize = (Integer) properties.get(MAGAZINE_SIZE);
+		value = magazineSize == null ? DEFAULT_MAGAZINE_SIZE : magazineSize;
+		Integer poolCapacity = (Integer) properties.get(POOL_CAPACITY);
+		long capacity = poolCapacity == null ? DEFAULT_POOL_CAPACITY
+				: poolCapacity;
+
+		// Units in the old pool are left to GC
+		UnitPool pool = m_pool;
+		if (pool == null || pool.isDirect() != direct
+				|| m_magazineSize != value || m_poolCapacity != capacity) {
+			m_magazineSize = value;
+			m_poolCapacity = capacity;
+			m_pool = new UnitPool(direct, value, capacity);
+		}
 	}
 
 	protected void activate(Map<String, ?> properties) {
@@ -46,38 +98,18 @@ public final class BufferFactory implements IBufferFactory {
 	}
 
 	Unit getUnit() {
-		Unit unit = m_unitCache.take();
-		if (unit == null)
-			unit = new Unit(m_unitCapacity);
-		else {
-			int capacity = m_unitCapacity;
-			if (unit.capacity() < capacity)
-				unit.setCapacity(capacity);
-
-			unit.clear();
-		}
-
-		return unit;
+		return getSizedUnit(m_unitCapacity);
 	}
 
-	Unit getUnit(int capacity) {
-		if (capacity < m_unitCapacity)
-			capacity = m_unitCapacity;
-
-		Unit unit = m_unitCache.take();
-		if (unit == null)
-			unit = new Unit(capacity);
-		else {
-			if (unit.capacity() < capacity)
-				unit.setCapacity(capacity);
-
-			unit.clear();
-		}
-
+	// The capacity may be less than the default.
+	Unit getSizedUnit(int capacity) {
+		Unit unit = m_pool.take(capacity);
+		unit.clear();
 		return unit;
 	}
-	
+
 	void putUnit(Unit unit) {
-		m_unitCache.put(unit);
+		if (unit.release())
+			m_pool.put(unit);
 	}
 }
@@ -0,0 +1,352 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.common.buffer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jruyi.common.buffer.Buffer.Unit;
+
+/**
+ * A pool of buffer units shared by all the threads. Units are grouped into
+ * power-of-two size classes. Each thread keeps a small magazine of units per
+ * size class, and exchanges half a magazine at a time with a striped shared
+ * depot. The total capacity of the units held by the depot is bounded, and so
+ * is the size of each magazine.
+ * <p>
+ * A magazine holds units of at most {@code MAX_MAGAZINE_BYTES} in total, and
+ * at least two units. Units too large for two of them to fit are exchanged
+ * with the depot directly. So a thread holds at most {@code MAX_MAGAZINE_BYTES}
+ * per size class outside the bound of the depot.
+ */
+final class UnitPool {
+
+	// size classes: 8, 16, ..., 1M
+	private static final int MIN_SHIFT = 3;
+	private static final int MAX_SHIFT = 20;
+	private static final int NUM_CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+	// the max total capacity of the units in one magazine
+	private static final int MAX_MAGAZINE_BYTES = 256 * 1024;
+	// the largest size class of the units kept in magazines: 128K
+	private static final int MAX_MAGAZINE_CLASS = 17 - MIN_SHIFT;
+	private static final int HITS_FLUSH_THRESHOLD = 1024;
+	private final boolean m_direct;
+	private final int m_magazineSize;
+	private final long m_capacity;
+	private final Stripe[][] m_depot;
+	private final int m_stripeMask;
+	private final AtomicLong m_pooledBytes = new AtomicLong();
+	private final AtomicLong m_hits = new AtomicLong();
+	private final AtomicLong m_misses = new AtomicLong();
+	private final ThreadLocal<Magazine[]> m_magazines = new ThreadLocal<Magazine[]>() {
+
+		@Override
+		protected Magazine[] initialValue() {
+			return new Magazine[NUM_CLASSES];
+		}
+	};
+
+	static final class Magazine {
+
+		final Unit[] m_units;
+		final int m_stripe;
+		int m_size;
+		int m_hits;
+
+		Magazine(int capacity, int stripe) {
+			m_units = new Unit[capacity];
+			m_stripe = stripe;
+		}
+	}
+
+	static final class Stripe {
+
+		private Unit[] m_units = new Unit[16];
+		private int m_size;
+
+		synchronized int take(Unit[] dst, int offset, int n) {
+			int size = m_size;
+			if (n > size)
+				n = size;
+
+			Unit[] units = m_units;
+			for (int i = 0; i < n; ++i) {
+				dst[offset++] = units[--size];
+				units[size] = null;
+			}
+
+			m_size = size;
+			return n;
+		}
+
+		synchronized Unit poll() {
+			int size = m_size;
+			if (size < 1)
+				return null;
+
+			Unit[] units = m_units;
+			Unit unit = units[--size];
+			units[size] = null;
+			m_size = size;
+			return unit;
+		}
+
+		synchronized void put(Unit unit) {
+			int size = m_size;
+			ensureCapacity(size + 1)[size] = unit;
+			m_size = size + 1;
+		}
+
+		synchronized void put(Unit[] src, int offset, int n) {
+			int size = m_size;
+			System.arraycopy(src, offset, ensureCapacity(size + n), size, n);
+			m_size = size + n;
+		}
+
+		private Unit[] ensureCapacity(int minCapacity) {
+			Unit[] units = m_units;
+			if (minCapacity > units.length) {
+				int newCapacity = (units.length * 3) / 2 + 1;
+				if (newCapacity < minCapacity)
+					newCapacity = minCapacity;
+				Unit[] newUnits = new Unit[newCapacity];
+				System.arraycopy(units, 0, newUnits, 0, m_size);
+				units = newUnits;
+				m_units = units;
+			}
+			return units;
+		}
+	}
+
+	UnitPool(boolean direct, int magazineSize, long capacity) {
+		int stripes = 1;
+		int n = Runtime.getRuntime().availableProcessors();
+		while (stripes < n)
+			stripes <<= 1;
+
+		Stripe[][] depot = new Stripe[NUM_CLASSES][stripes];
+		for (Stripe[] classStripes : depot) {
+			for (int i = 0; i < stripes; ++i)
+				classStripes[i] = new Stripe();
+		}
+
+		m_direct = direct;
+		m_magazineSize = magazineSize;
+		m_capacity = capacity;
+		m_depot = depot;
+		m_stripeMask = stripes - 1;
+	}
+
+	boolean isDirect() {
+		return m_direct;
+	}
+
+	long hits() {
+		return m_hits.get();
+	}
+
+	long misses() {
+		return m_misses.get();
+	}
+
+	/**
+	 * Return the total capacity of the units held by the shared depot.
+	 */
+	long pooledBytes() {
+		return m_pooledBytes.get();
+	}
+
+	/**
+	 * Take a unit of the smallest size class that can hold {@code capacity}
+	 * bytes. The returned unit is not cleared.
+	 */
+	Unit take(int capacity) {
+		int sizeClass = sizeClass(capacity);
+		if (sizeClass < 0 || m_magazineSize < 1) {
+			m_misses.incrementAndGet();
+			return new Unit(capacity, m_direct);
+		}
+
+		if (sizeClass > MAX_MAGAZINE_CLASS)
+			return takeShared(sizeClass);
+
+		Magazine magazine = magazine(sizeClass);
+		int size = magazine.m_size;
+		if (size < 1) {
+			size = refill(magazine, sizeClass);
+			if (size < 1) {
+				m_misses.incrementAndGet();
+				return new Unit(1 << (sizeClass + MIN_SHIFT), m_direct);
+			}
+		}
+
+		if (++magazine.m_hits >= HITS_FLUSH_THRESHOLD)
+			flushHits(magazine);
+
+		Unit[] units = magazine.m_units;
+		Unit unit = units[--size];
+		units[size] = null;
+		magazine.m_size = size;
+		return unit;
+	}
+
+	void put(Unit unit) {
+		int capacity = unit.capacity();
+		int sizeClass = sizeClass(capacity);
+		// drop units that are oversized or left from a previous buffer type
+		if (sizeClass < 0 || (1 << (sizeClass + MIN_SHIFT)) != capacity
+				|| unit.isDirect() != m_direct || m_magazineSize < 1)
+			return;
+
+		if (sizeClass > MAX_MAGAZINE_CLASS) {
+			putShared(unit, sizeClass);
+			return;
+		}
+
+		Magazine magazine = magazine(sizeClass);
+		Unit[] units = magazine.m_units;
+		int size = magazine.m_size;
+		if (size >= units.length)
+			size = spill(magazine, sizeClass);
+
+		units[size] = unit;
+		magazine.m_size = size + 1;
+	}
+
+	private Magazine magazine(int sizeClass) {
+		Magazine[] magazines = m_magazines.get();
+		Magazine magazine = magazines[sizeClass];
+		if (magazine == null) {
+			int n = MAX_MAGAZINE_BYTES >> (sizeClass + MIN_SHIFT);
+			if (n > m_magazineSize)
+				n = m_magazineSize;
+			// spilling half of one unit moves nothing
+			if (n < 2)
+				n = 2;
+			magazine = new Magazine(n, homeStripe());
+			magazines[sizeClass] = magazine;
+		}
+		return magazine;
+	}
+
+	/**
+	 * Take a unit of a size class not kept in magazines from the depot.
+	 */
+	private Unit takeShared(int sizeClass) {
+		Stripe[] stripes = m_depot[sizeClass];
+		int mask = m_stripeMask;
+		int home = homeStripe();
+		for (int i = 0; i <= mask; ++i) {
+			Unit unit = stripes[(home + i) & mask].poll();
+			if (unit != null) {
+				m_pooledBytes.addAndGet(-(1L << (sizeClass + MIN_SHIFT)));
+				m_hits.incrementAndGet();
+				return unit;
+			}
+		}
+
+		m_misses.incrementAndGet();
+		return new Unit(1 << (sizeClass + MIN_SHIFT), m_direct);
+	}
+
+	/**
+	 * Put a unit of a size class not kept in magazines to the depot, or drop
+	 * it if the depot is full.
+	 */
+	private void putShared(Unit unit, int sizeClass) {
+		long bytes = 1L << (sizeClass + MIN_SHIFT);
+		AtomicLong pooledBytes = m_pooledBytes;
+		if (pooledBytes.addAndGet(bytes) > m_capacity) {
+			pooledBytes.addAndGet(-bytes);
+			return;
+		}
+
+		m_depot[sizeClass][homeStripe()].put(unit);
+	}
+
+	/**
+	 * Move half a magazine of units from the depot, looking into the other
+	 * stripes if the home stripe is empty.
+	 */
+	private int refill(Magazine magazine, int sizeClass) {
+		Unit[] units = magazine.m_units;
+		int n = (units.length + 1) >> 1;
+		Stripe[] stripes = m_depot[sizeClass];
+		int mask = m_stripeMask;
+		int home = magazine.m_stripe;
+		for (int i = 0; i <= mask; ++i) {
+			int m = stripes[(home + i) & mask].take(units, 0, n);
+			if (m > 0) {
+				m_pooledBytes.addAndGet(-((long) m << (sizeClass + MIN_SHIFT)));
+				magazine.m_size = m;
+				flushHits(magazine);
+				return m;
+			}
+		}
+
+		flushHits(magazine);
+		return 0;
+	}
+
+	/**
+	 * Move the older half of a full magazine to the depot, or drop it if the
+	 * depot is full. Return the new size of the magazine.
+	 */
+	private int spill(Magazine magazine, int sizeClass) {
+		Unit[] units = magazine.m_units;
+		int size = magazine.m_size;
+		int n = size >> 1;
+		long bytes = (long) n << (sizeClass + MIN_SHIFT);
+		AtomicLong pooledBytes = m_pooledBytes;
+		if (pooledBytes.addAndGet(bytes) > m_capacity)
+			pooledBytes.addAndGet(-bytes);
+		else
+			m_depot[sizeClass][magazine.m_stripe].put(units, 0, n);
+
+		int m = size - n;
+		System.arraycopy(units, n, units, 0, m);
+		for (int i = m; i < size; ++i)
+			units[i] = null;
+
+		magazine.m_size = m;
+		return m;
+	}
+
+	private int homeStripe() {
+		return (int) Thread.currentThread().getId() & m_stripeMask;
+	}
+
+	private void flushHits(Magazine magazine) {
+		int hits = magazine.m_hits;
+		if (hits > 0) {
+			magazine.m_hits = 0;
+			m_hits.addAndGet(hits);
+		}
+	}
+
+	/**
+	 * Return the index of the smallest size class not less than the given
+	 * {@code capacity}, or -1 if it is larger than the largest size class.
+	 */
+	private static int sizeClass(int capacity) {
+		if (capacity > (1 << MAX_SHIFT))
+			return -1;
+
+		if (capacity <= (1 << MIN_SHIFT))
+			return 0;
+
+		return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+	}
+}
@@ -19,6 +19,7 @@ import java.util.HashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.jruyi.common.IServiceHolderManager;
+import org.jruyi.common.IServiceHolderManager.IListener;
 import org.jruyi.common.StrUtil;
 import org.jruyi.common.ServiceHolderManager.IFactory;
 import org.osgi.framework.BundleContext;
@@ -48,6 +49,7 @@ public final class ServiceHolderManagerProvider implements IFactory {
 		private final String m_nameOfId;
 		private final ReentrantLock m_lock;
 		private final HashMap<String, ServiceHolder<T>> m_holders;
+		private volatile IListener<T> m_listener;
 
 		ServiceHolderTracker(BundleContext context, Filter filter,
 				String nameOfId) {
@@ -62,6 +64,7 @@ public final class ServiceHolderManagerProvider implements IFactory {
 			String name = getName(reference);
 			ServiceHolder<T> holder = getServiceHolder(name);
 			holder.add(reference);
+			notifyListener(holder);
 			return new NameHolder(name);
 		}
 
@@ -74,10 +77,12 @@ public final class ServiceHolderManagerProvider implements IFactory {
 
 			ServiceHolder<T> holder = ungetServiceHolder(nameHolder.m_name);
 			holder.remove(reference);
+			notifyListener(holder);
 
 			holder = getServiceHolder(name);
 			holder.add(reference);
 			nameHolder.m_name = name;
+			notifyListener(holder);
 		}
 
 		@Override
@@ -85,6 +90,12 @@ public final class ServiceHolderManagerProvider implements IFactory {
 			String name = ((NameHolder) service).m_name;
 			ServiceHolder<T> holder = ungetServiceHolder(name);
 			holder.remove(reference);
+			notifyListener(holder);
+		}
+
+		@Override
+		public void setListener(IListener<T> listener) {
+			m_listener = listener;
 		}
 
 		@Override
@@ -128,6 +139,12 @@ public final class ServiceHolderManagerProvider implements IFactory {
 			}
 		}
 
+		private void notifyListener(ServiceHolder<T> holder) {
+			IListener<T> listener = m_listener;
+			if (listener != null)
+				listener.onServiceChanged(holder);
+		}
+
 		private String getName(ServiceReference reference) {
 			return reference.getProperty(m_nameOfId).toString();
 		}
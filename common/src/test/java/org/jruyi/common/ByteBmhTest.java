@@ -0,0 +1,73 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.common;
+
+import java.nio.ByteBuffer;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ByteBmhTest {
+
+	private static final byte[] EMPTY = new byte[0];
+	private static final byte[] m_word = "1231234".getBytes();
+	private static final byte[] m_text = "1231234owieur238419824123123420398iooidjoei1231234"
+			.getBytes();
+
+	@Test
+	public void test_findIn() {
+		ByteBmh bmh = new ByteBmh(m_word);
+		Assert.assertEquals(bmh.findIn(m_text, 0, m_text.length), 0);
+		Assert.assertEquals(bmh.findIn(m_text, 1, m_text.length - 1), 22);
+		Assert.assertEquals(bmh.findIn(m_text, 1, 27), -1);
+		Assert.assertEquals(bmh.findIn(m_text, 23, m_text.length - 23), 43);
+
+		bmh = new ByteBmh(EMPTY);
+		Assert.assertEquals(bmh.findIn(m_text, 0, m_text.length), 0);
+	}
+
+	@Test
+	public void test_findInByteBuffer() {
+		ByteBuffer text = ByteBuffer.allocateDirect(m_text.length);
+		text.put(m_text).position(3);
+		ByteBmh bmh = new ByteBmh(m_word);
+		Assert.assertEquals(bmh.findIn(text, 0, m_text.length), 0);
+		Assert.assertEquals(bmh.findIn(text, 1, m_text.length - 1), 22);
+		Assert.assertEquals(bmh.findIn(text, 1, 27), -1);
+		Assert.assertEquals(bmh.findIn(text, 23, m_text.length - 23), 43);
+		Assert.assertEquals(text.position(), 3);
+		Assert.assertEquals(text.limit(), m_text.length);
+
+		bmh = new ByteBmh(EMPTY);
+		Assert.assertEquals(bmh.findIn(text, 0, m_text.length), 0);
+	}
+
+	@Test
+	public void test_findInBlob() {
+		ByteBmh bmh = new ByteBmh(m_word);
+		for (int i = 1; i < m_text.length; ++i) {
+			Blob blob = Blob.get();
+			try {
+				// split the text into pieces of i bytes
+				for (int j = 1; j < m_text.length; j += i)
+					blob.add(m_text, j, Math.min(i, m_text.length - j));
+				Assert.assertEquals(blob.indexOf(bmh), 21);
+			} finally {
+				blob.close();
+			}
+		}
+	}
+}
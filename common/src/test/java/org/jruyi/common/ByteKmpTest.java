@@ -15,6 +15,8 @@
  */
 package org.jruyi.common;
 
+import java.nio.ByteBuffer;
+
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -37,6 +39,22 @@ public class ByteKmpTest {
 		Assert.assertEquals(kmp.findIn(m_text, 0, m_text.length), 0);
 	}
 
+	@Test
+	public void test_findInByteBuffer() {
+		ByteBuffer text = ByteBuffer.allocateDirect(m_text.length);
+		text.put(m_text).position(3);
+		ByteKmp kmp = new ByteKmp(m_word);
+		Assert.assertEquals(kmp.findIn(text, 0, m_text.length), 0);
+		Assert.assertEquals(kmp.findIn(text, 1, m_text.length - 1), 22);
+		Assert.assertEquals(kmp.findIn(text, 1, 27), -1);
+		Assert.assertEquals(kmp.findIn(text, 23, m_text.length - 23), 43);
+		Assert.assertEquals(text.position(), 3);
+		Assert.assertEquals(text.limit(), m_text.length);
+
+		kmp = new ByteKmp(EMPTY);
+		Assert.assertEquals(kmp.findIn(text, 0, m_text.length), 0);
+	}
+
 	@Test
 	public void test_rfindIn() {
 		ByteKmp kmp = new ByteKmp(m_word);
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.common;
+
+import java.nio.ByteBuffer;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ByteMultiPatternTest {
+
+	private static final byte[] m_text = "GET / HTTP/1.1\r\nHost: a\r\n\r\n--xyz\r\n"
+			.getBytes();
+
+	@Test
+	public void test_findIn() {
+		ByteMultiPattern patterns = new ByteMultiPattern("\r\n\r\n".getBytes(),
+				"--xyz".getBytes());
+		Assert.assertEquals(patterns.findIn(m_text, 0, m_text.length), 23);
+		Assert.assertEquals(patterns.findIn(m_text, 24, m_text.length - 24), 27);
+		Assert.assertEquals(patterns.findIn(m_text, 0, 26), -1);
+
+		// the earliest start wins over the earliest end
+		patterns = new ByteMultiPattern("Host: a\r\n".getBytes(),
+				"a".getBytes(), "T /".getBytes());
+		Assert.assertEquals(patterns.findIn(m_text, 0, m_text.length), 2);
+		Assert.assertEquals(patterns.findIn(m_text, 5, m_text.length - 5), 16);
+
+		// overlapping patterns sharing suffixes
+		patterns = new ByteMultiPattern("he".getBytes(), "she".getBytes(),
+				"his".getBytes(), "hers".getBytes());
+		byte[] text = "ushers".getBytes();
+		Assert.assertEquals(patterns.findIn(text, 0, text.length), 1);
+		Assert.assertEquals(patterns.findIn(text, 2, text.length - 2), 2);
+	}
+
+	@Test
+	public void test_findInByteBuffer() {
+		ByteBuffer text = ByteBuffer.allocateDirect(m_text.length);
+		text.put(m_text).position(5);
+		ByteMultiPattern patterns = new ByteMultiPattern("\r\n\r\n".getBytes(),
+				"--xyz".getBytes());
+		Assert.assertEquals(patterns.findIn(text, 0, m_text.length), 23);
+		Assert.assertEquals(patterns.findIn(text, 24, m_text.length - 24), 27);
+		Assert.assertEquals(patterns.findIn(text, 0, 26), -1);
+		Assert.assertEquals(text.position(), 5);
+		Assert.assertEquals(text.limit(), m_text.length);
+	}
+
+	@Test
+	public void test_findInBlob() {
+		ByteMultiPattern patterns = new ByteMultiPattern("\r\n\r\n".getBytes(),
+				"--xyz".getBytes());
+		for (int i = 1; i < m_text.length; ++i) {
+			Blob blob = Blob.get();
+			try {
+				for (int j = 0; j < m_text.length; j += i)
+					blob.add(m_text, j, Math.min(i, m_text.length - j));
+				Assert.assertEquals(blob.indexOf(patterns), 23);
+			} finally {
+				blob.close();
+			}
+		}
+	}
+}
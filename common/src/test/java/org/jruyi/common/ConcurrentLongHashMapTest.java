@@ -0,0 +1,128 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.common;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ConcurrentLongHashMapTest {
+
+	@Test
+	public void test_putGetRemove() {
+		ConcurrentLongHashMap<Long> map = new ConcurrentLongHashMap<Long>(4, 2);
+		Map<Long, Long> expected = new HashMap<Long, Long>();
+		Random random = new Random();
+		for (int i = 0; i < 20000; ++i) {
+			// a small key range to exercise collisions and removals
+			long key = random.nextInt(512) - 256;
+			if (random.nextBoolean()) {
+				Long value = Long.valueOf(random.nextLong());
+				Assert.assertEquals(map.put(key, value), expected.put(key, value));
+			} else
+				Assert.assertEquals(map.remove(key), expected.remove(key));
+		}
+
+		Assert.assertEquals(map.size(), expected.size());
+		for (long key = -256; key < 256; ++key)
+			Assert.assertEquals(map.get(key), expected.get(key));
+
+		Assert.assertEquals(map.values().size(), expected.size());
+
+		map.clear();
+		Assert.assertTrue(map.isEmpty());
+	}
+
+	@Test
+	public void test_putIfAbsent() {
+		ConcurrentLongHashMap<String> map = new ConcurrentLongHashMap<String>();
+		Assert.assertNull(map.putIfAbsent(Long.MIN_VALUE, "a"));
+		Assert.assertEquals(map.putIfAbsent(Long.MIN_VALUE, "b"), "a");
+		Assert.assertFalse(map.remove(Long.MIN_VALUE, "b"));
+		Assert.assertTrue(map.remove(Long.MIN_VALUE, "a"));
+		Assert.assertNull(map.get(Long.MIN_VALUE));
+	}
+
+	@Test
+	public void test_getRacingUpdates() throws InterruptedException {
+		final int stableKeys = 64;
+		final int transientKeys = 512;
+		for (int round = 0; round < 10; ++round) {
+			// a single stripe for updates to race every lookup
+			final ConcurrentLongHashMap<Long> map = new ConcurrentLongHashMap<Long>(
+					4, 1);
+			for (long key = 0; key < stableKeys; ++key)
+				map.put(key, key);
+
+			final AtomicReference<String> failure = new AtomicReference<String>();
+			final Thread writer = new Thread() {
+
+				@Override
+				public void run() {
+					// the first pass grows the table through several rehashes,
+					// the removals shift the stable keys back in their probe
+					// sequences
+					Random random = new Random();
+					for (int pass = 0; pass < 200; ++pass) {
+						for (long key = stableKeys; key < stableKeys
+								+ transientKeys; ++key)
+							map.put(key, key);
+						for (int i = 0; i < transientKeys; ++i)
+							map.remove(stableKeys + random.nextInt(transientKeys));
+						for (long key = stableKeys; key < stableKeys
+								+ transientKeys; ++key)
+							map.remove(key);
+					}
+				}
+			};
+
+			Thread[] readers = new Thread[3];
+			for (int i = 0; i < readers.length; ++i) {
+				readers[i] = new Thread() {
+
+					@Override
+					public void run() {
+						Random random = new Random();
+						while (writer.isAlive()) {
+							// mostly the keys that must never be missed
+							long key = random.nextInt(stableKeys << 1);
+							Long value = map.get(key);
+							if (value == null ? key < stableKeys : value != key) {
+								failure.compareAndSet(null, "key " + key
+										+ " got " + value);
+								return;
+							}
+						}
+					}
+				};
+			}
+
+			writer.start();
+			for (Thread reader : readers)
+				reader.start();
+			writer.join();
+			for (Thread reader : readers)
+				reader.join();
+
+			Assert.assertNull(failure.get());
+			Assert.assertEquals(map.size(), stableKeys);
+		}
+	}
+}
@@ -16,12 +16,18 @@
 package org.jruyi.common.buffer;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
+import org.jruyi.common.ByteBmh;
 import org.jruyi.common.ByteKmp;
+import org.jruyi.common.ByteMultiPattern;
 import org.jruyi.common.IBuffer;
 import org.jruyi.common.StringBuilder;
 import org.testng.Assert;
@@ -33,6 +39,10 @@ import org.testng.annotations.Test;
 public class BufferTest {
 
 	private static final String UNIT_CAPACITY = "unitCapacity";
+	private static final String BUFFER_TYPE = "bufferType";
+	private static final String MAGAZINE_SIZE = "magazineSize";
+	private static final String POOL_CAPACITY = "poolCapacity";
+	private static final String[] BUFFER_TYPES = { "heap", "direct" };
 	private BufferFactory m_factory;
 	private Map<String, Object> m_props;
 
@@ -43,7 +53,20 @@ public class BufferTest {
 		byte[] bytes = new byte[n];
 		for (int i = 0; i < n; ++i)
 			bytes[i] = (byte) i;
-		return new Object[][] { new Object[] { bytes } };
+		String[] bufferTypes = BUFFER_TYPES;
+		Object[][] data = new Object[bufferTypes.length][];
+		for (int i = 0; i < bufferTypes.length; ++i)
+			data[i] = new Object[] { bytes, bufferTypes[i] };
+		return data;
+	}
+
+	@DataProvider(name = "bufferTypes")
+	public Object[][] createBufferTypes() {
+		String[] bufferTypes = BUFFER_TYPES;
+		Object[][] data = new Object[bufferTypes.length][];
+		for (int i = 0; i < bufferTypes.length; ++i)
+			data[i] = new Object[] { bufferTypes[i] };
+		return data;
 	}
 
 	@BeforeClass
@@ -60,7 +83,7 @@ public class BufferTest {
 	}
 
 	@Test(dataProvider = "bytes")
-	public void test_writeReadBytes(byte[] bytes) {
+	public void test_writeReadBytes(byte[] bytes, String bufferType) {
 		StringBuilder builder = StringBuilder.get();
 		String hexDump1 = null;
 		String hexDump2 = null;
@@ -71,7 +94,7 @@ public class BufferTest {
 			builder.setLength(0);
 
 			for (int i = 1; i < bytes.length + 11; i += 10) {
-				BufferFactory factory = initializeFactory(i);
+				BufferFactory factory = initializeFactory(i, bufferType);
 				IBuffer buffer = factory.create();
 				buffer.writeBytes(bytes);
 
@@ -96,13 +119,13 @@ public class BufferTest {
 	}
 
 	@Test(dataProvider = "bytes")
-	public void test_writeReadInt(byte[] bytes) {
+	public void test_writeReadInt(byte[] bytes, String bufferType) {
 		int v = new Random().nextInt();
 		int t = 0x12345678;
 		byte[] r1 = { 0x12, 0x34, 0x56, 0x78 };
 		byte[] r2 = { 0x78, 0x56, 0x34, 0x12 };
 		for (int i = bytes.length / 2 + 1; i < bytes.length + 10; ++i) {
-			BufferFactory factory = initializeFactory(i);
+			BufferFactory factory = initializeFactory(i, bufferType);
 			IBuffer buffer = factory.create();
 			buffer.writeBytes(bytes);
 
@@ -142,13 +165,13 @@ public class BufferTest {
 	}
 
 	@Test(dataProvider = "bytes")
-	public void test_writeReadShort(byte[] bytes) {
+	public void test_writeReadShort(byte[] bytes, String bufferType) {
 		short v = (short) new Random().nextInt();
 		short t = 0x1234;
 		byte[] r1 = { 0x12, 0x34 };
 		byte[] r2 = { 0x34, 0x12 };
 		for (int i = bytes.length / 2 + 1; i < bytes.length + 9; ++i) {
-			BufferFactory factory = initializeFactory(i);
+			BufferFactory factory = initializeFactory(i, bufferType);
 			IBuffer buffer = factory.create();
 			buffer.writeBytes(bytes);
 
@@ -193,7 +216,7 @@ public class BufferTest {
 	}
 
 	@Test(dataProvider = "bytes")
-	public void test_writeReadLong(byte[] bytes) {
+	public void test_writeReadLong(byte[] bytes, String bufferType) {
 		long v = new Random().nextLong();
 		long t = 0x1234567890abcdefL;
 		byte[] r1 = { 0x12, 0x34, 0x56, 0x78, (byte) 0x90, (byte) 0xab,
@@ -201,7 +224,7 @@ public class BufferTest {
 		byte[] r2 = { (byte) 0xef, (byte) 0xcd, (byte) 0xab, (byte) 0x90, 0x78,
 				0x56, 0x34, 0x12 };
 		for (int i = bytes.length / 2 + 1; i < bytes.length + 17; ++i) {
-			BufferFactory factory = initializeFactory(i);
+			BufferFactory factory = initializeFactory(i, bufferType);
 			IBuffer buffer = factory.create();
 			buffer.writeBytes(bytes);
 
@@ -233,12 +256,13 @@ public class BufferTest {
 		}
 	}
 
-	@Test
-	public void test_writeReadString() throws UnsupportedEncodingException {
+	@Test(dataProvider = "bufferTypes")
+	public void test_writeReadString(String bufferType)
+			throws UnsupportedEncodingException {
 		String testStr = "Test Buffer.readString/Buffer.writeString;对read和write的测试";
 		byte[] bytes = testStr.getBytes("UTF-8");
 		for (int i = 1; i < testStr.length() + 2; ++i) {
-			BufferFactory factory = initializeFactory(i);
+			BufferFactory factory = initializeFactory(i, bufferType);
 			IBuffer buffer = factory.create();
 			buffer.writeBytes(bytes);
 
@@ -259,7 +283,7 @@ public class BufferTest {
 	}
 
 	@Test(dataProvider = "bytes")
-	public void test_indexOf(byte[] bytes) {
+	public void test_indexOf(byte[] bytes, String bufferType) {
 		Random random = new Random();
 		int n = random.nextInt(bytes.length);
 		int len = random.nextInt(bytes.length - n);
@@ -277,7 +301,7 @@ public class BufferTest {
 		byte b = (byte) n;
 
 		for (int i = 1; i < bytes.length + 2; ++i) {
-			BufferFactory factory = initializeFactory(i);
+			BufferFactory factory = initializeFactory(i, bufferType);
 
 			IBuffer buffer = factory.create();
 			buffer.writeBytes(target);
@@ -318,8 +342,130 @@ public class BufferTest {
 		}
 	}
 
+	@Test(dataProvider = "bufferTypes")
+	public void test_indexOfAcrossUnits(String bufferType) {
+		// with units of 16 bytes, a cut-off match at "aa" fails before the
+		// real one at "aab"
+		byte[] text = "xxxxxxxxxxxxxxaaab\r\n".getBytes();
+		byte[] target = { 'a', 'a', 'b' };
+		byte[] crlf = { '\r', '\n' };
+		for (int i = 1; i < text.length + 2; ++i) {
+			BufferFactory factory = initializeFactory(i, bufferType);
+			IBuffer buffer = factory.create();
+			buffer.writeBytes(text);
+
+			Assert.assertEquals(buffer.indexOf(target), 15);
+			Assert.assertEquals(buffer.indexOf((byte) 'b'), 17);
+			Assert.assertEquals(buffer.indexOf(crlf), 18);
+			Assert.assertEquals(buffer.indexOf(crlf, 19), -1);
+
+			buffer.close();
+		}
+	}
+
+	@Test(dataProvider = "bufferTypes")
+	public void test_indexOfPatterns(String bufferType) {
+		byte[] text = "HTTP/1.1 200 OK\r\nA: b\r\n\r\n--boundary\r\n"
+				.getBytes();
+		ByteBmh bmh = new ByteBmh("--boundary".getBytes());
+		ByteMultiPattern patterns = new ByteMultiPattern(
+				"\r\n\r\n".getBytes(), "--boundary".getBytes());
+		for (int i = 1; i < text.length + 2; ++i) {
+			BufferFactory factory = initializeFactory(i, bufferType);
+			IBuffer buffer = factory.create();
+			buffer.writeBytes(text);
+
+			Assert.assertEquals(buffer.indexOf(bmh), 25);
+			Assert.assertEquals(buffer.indexOf(bmh, 26), -1);
+			Assert.assertEquals(buffer.indexOf(patterns), 21);
+			Assert.assertEquals(patterns.patternAt(buffer, 21), 0);
+			Assert.assertEquals(buffer.indexOf(patterns, 22), 25);
+			Assert.assertEquals(patterns.patternAt(buffer, 25), 1);
+			Assert.assertEquals(buffer.indexOf(patterns, 26), -1);
+
+			buffer.close();
+		}
+	}
+
+	@Test(dataProvider = "bytes")
+	public void test_deflateInflate(byte[] bytes, String bufferType)
+			throws DataFormatException {
+		Deflater deflater = new Deflater();
+		Inflater inflater = new Inflater();
+		try {
+			for (int i = 1; i < bytes.length + 2; i += 7) {
+				BufferFactory factory = initializeFactory(i, bufferType);
+				IBuffer buffer = factory.create();
+				for (int j = 0; j < 8; ++j)
+					buffer.writeBytes(bytes);
+				buffer.skip(3);
+
+				IBuffer compressed = factory.create();
+				buffer.deflate(compressed, deflater);
+				Assert.assertEquals(buffer.remaining(), 0);
+				Assert.assertTrue(compressed.size() < buffer.size());
+
+				IBuffer decompressed = factory.create();
+				compressed.inflate(decompressed, inflater);
+				Assert.assertEquals(compressed.remaining(), 0);
+
+				buffer.rewind();
+				buffer.skip(3);
+				Assert.assertEquals(decompressed.readBytes(), buffer.readBytes());
+
+				deflater.reset();
+				inflater.reset();
+				buffer.close();
+				compressed.close();
+				decompressed.close();
+			}
+		} finally {
+			deflater.end();
+			inflater.end();
+		}
+	}
+
+	@Test(dataProvider = "bytes")
+	public void test_inflateLimit(byte[] bytes, String bufferType)
+			throws DataFormatException {
+		Deflater deflater = new Deflater();
+		Inflater inflater = new Inflater();
+		try {
+			BufferFactory factory = initializeFactory(7, bufferType);
+			IBuffer buffer = factory.create();
+			for (int j = 0; j < 8; ++j)
+				buffer.writeBytes(bytes);
+			int size = buffer.size();
+
+			IBuffer compressed = factory.create();
+			buffer.deflate(compressed, deflater);
+
+			IBuffer decompressed = factory.create();
+			compressed.mark();
+			compressed.inflate(decompressed, inflater, size);
+			Assert.assertEquals(decompressed.size(), size);
+
+			inflater.reset();
+			decompressed.drain();
+			compressed.reset();
+			try {
+				compressed.inflate(decompressed, inflater, size - 1);
+				Assert.fail("inflated more than the limit");
+			} catch (DataFormatException e) {
+				Assert.assertTrue(decompressed.size() <= size);
+			}
+
+			buffer.close();
+			compressed.close();
+			decompressed.close();
+		} finally {
+			deflater.end();
+			inflater.end();
+		}
+	}
+
 	@Test(dataProvider = "bytes")
-	public void test_lastIndexOf(byte[] bytes) {
+	public void test_lastIndexOf(byte[] bytes, String bufferType) {
 		Random random = new Random();
 		int n = random.nextInt(bytes.length);
 		int len = random.nextInt(bytes.length - n);
@@ -337,7 +483,7 @@ public class BufferTest {
 		byte b = (byte) n;
 
 		for (int i = 1; i < bytes.length + 2; ++i) {
-			BufferFactory factory = initializeFactory(i);
+			BufferFactory factory = initializeFactory(i, bufferType);
 
 			IBuffer buffer = factory.create();
 			buffer.writeBytes(target);
@@ -378,7 +524,7 @@ public class BufferTest {
 	}
 
 	@Test(dataProvider = "bytes")
-	public void test_startsWith(byte[] bytes) {
+	public void test_startsWith(byte[] bytes, String bufferType) {
 		Random random = new Random();
 		int n = random.nextInt(bytes.length) + 1;
 		byte[] target = new byte[n];
@@ -390,7 +536,7 @@ public class BufferTest {
 		byte[] zeroBytes = new byte[0];
 
 		for (int i = 1; i < bytes.length + 2; ++i) {
-			BufferFactory factory = initializeFactory(i);
+			BufferFactory factory = initializeFactory(i, bufferType);
 			IBuffer buffer = factory.create();
 			buffer.writeBytes(bytes);
 
@@ -402,7 +548,7 @@ public class BufferTest {
 	}
 
 	@Test(dataProvider = "bytes")
-	public void test_endsWith(byte[] bytes) {
+	public void test_endsWith(byte[] bytes, String bufferType) {
 		Random random = new Random();
 		int n = random.nextInt(bytes.length) + 1;
 		byte[] target = new byte[n];
@@ -413,7 +559,7 @@ public class BufferTest {
 
 		byte[] zeroBytes = new byte[0];
 		for (int i = 1; i < bytes.length + 2; ++i) {
-			BufferFactory factory = initializeFactory(i);
+			BufferFactory factory = initializeFactory(i, bufferType);
 			IBuffer buffer = factory.create();
 			buffer.writeBytes(bytes);
 
@@ -425,10 +571,10 @@ public class BufferTest {
 	}
 
 	@Test(dataProvider = "bytes")
-	public void test_drainTo(byte[] bytes) {
+	public void test_drainTo(byte[] bytes, String bufferType) {
 		Random random = new Random();
 		int n = random.nextInt(bytes.length + 1) + 1;
-		BufferFactory factory = initializeFactory(n);
+		BufferFactory factory = initializeFactory(n, bufferType);
 		for (int i = 1; i < bytes.length; ++i) {
 			IBuffer dst = factory.create();
 			dst.writeBytes(bytes, 0, i);
@@ -446,9 +592,31 @@ public class BufferTest {
 	}
 
 	@Test(dataProvider = "bytes")
-	public void test_compareTo(byte[] bytes) {
+	public void test_drainToAfterRead(byte[] bytes, String bufferType) {
+		BufferFactory factory = initializeFactory(16, bufferType);
+		for (int i = 1; i < bytes.length; ++i) {
+			IBuffer dst = factory.create();
+			IBuffer src = factory.create();
+			src.writeBytes(bytes);
+			src.skip(i);
+
+			// only the remaining data is drained
+			src.drainTo(dst);
+
+			Assert.assertTrue(src.isEmpty());
+			Assert.assertEquals(dst.size(), bytes.length - i);
+			Assert.assertEquals(dst.readBytes(),
+					Arrays.copyOfRange(bytes, i, bytes.length));
+
+			dst.close();
+			src.close();
+		}
+	}
+
+	@Test(dataProvider = "bytes")
+	public void test_compareTo(byte[] bytes, String bufferType) {
 		for (int i = 1; i < bytes.length + 2; ++i) {
-			BufferFactory factory = initializeFactory(i);
+			BufferFactory factory = initializeFactory(i, bufferType);
 			IBuffer thisBuf = factory.create();
 			IBuffer thatBuf = factory.create();
 			Assert.assertEquals(thisBuf.compareTo(thatBuf), 0);
@@ -471,9 +639,292 @@ public class BufferTest {
 		}
 	}
 
-	private BufferFactory initializeFactory(int unitCapacity) {
+	@Test(dataProvider = "bytes")
+	public void test_getByteBuffers(byte[] bytes, String bufferType) {
+		for (int i = 1; i < bytes.length + 11; i += 10) {
+			BufferFactory factory = initializeFactory(i, bufferType);
+			IBuffer buffer = factory.create();
+			buffer.writeBytes(bytes);
+			int skip = bytes.length / 3;
+			buffer.skip(skip);
+
+			ByteBuffer[] bbs = new ByteBuffer[bytes.length + 1];
+			int n = buffer.getByteBuffers(bbs, 1);
+			Assert.assertNull(bbs[0]);
+			Assert.assertEquals(buffer.position(), skip);
+
+			byte[] results = new byte[bytes.length - skip];
+			int k = 0;
+			for (int j = 1; j <= n; ++j) {
+				ByteBuffer bb = bbs[j];
+				Assert.assertEquals(bb.isDirect(), "direct".equals(bufferType));
+				int len = bb.remaining();
+				bb.get(results, k, len);
+				k += len;
+			}
+			Assert.assertEquals(k, results.length);
+			Assert.assertEquals(results,
+					Arrays.copyOfRange(bytes, skip, bytes.length));
+
+			buffer.skip(k);
+			Assert.assertEquals(buffer.remaining(), 0);
+			Assert.assertEquals(buffer.getByteBuffers(bbs, 0), 0);
+			buffer.close();
+		}
+	}
+
+	@Test(dataProvider = "bytes")
+	public void test_split(byte[] bytes, String bufferType) {
+		for (int i = 1; i < bytes.length + 11; i += 10) {
+			BufferFactory factory = initializeFactory(i, bufferType);
+			IBuffer buffer = factory.create();
+			buffer.writeBytes(bytes);
+
+			int n = bytes.length / 3;
+			IBuffer first = buffer.split(n);
+			Assert.assertEquals(first.length(), n);
+			Assert.assertEquals(buffer.length(), bytes.length - n);
+
+			// appending to the first piece must not touch the rest
+			first.writeBytes(bytes);
+			Assert.assertEquals(buffer.readBytes(),
+					Arrays.copyOfRange(bytes, n, bytes.length));
+			Assert.assertEquals(first.readBytes(n),
+					Arrays.copyOfRange(bytes, 0, n));
+			Assert.assertEquals(first.readBytes(), bytes);
+
+			first.close();
+			buffer.close();
+		}
+	}
+
+	@Test(dataProvider = "bufferTypes")
+	public void test_splitOnUnitBoundary(String bufferType) {
+		byte[] bytes = new byte[48];
+		for (int i = 0; i < bytes.length; ++i)
+			bytes[i] = (byte) i;
+
+		for (int unitCapacity = 8; unitCapacity <= 16; unitCapacity <<= 1) {
+			BufferFactory factory = initializeFactory(unitCapacity, bufferType);
+			// split near the head and near the tail on each unit boundary
+			for (int n = unitCapacity; n < bytes.length; n += unitCapacity) {
+				for (int skip = 0; skip <= bytes.length; skip += unitCapacity) {
+					IBuffer buffer = factory.create();
+					buffer.writeBytes(bytes);
+					buffer.skip(skip);
+
+					IBuffer first = buffer.split(n);
+					Assert.assertEquals(first.size(), n);
+					Assert.assertEquals(buffer.size(), bytes.length - n);
+					Assert.assertEquals(first.position(), Math.min(skip, n));
+					Assert.assertEquals(buffer.position(),
+							Math.max(skip - n, 0));
+
+					first.rewind();
+					buffer.rewind();
+					Assert.assertEquals(first.readBytes(),
+							Arrays.copyOfRange(bytes, 0, n));
+					Assert.assertEquals(buffer.readBytes(),
+							Arrays.copyOfRange(bytes, n, bytes.length));
+
+					first.close();
+					buffer.close();
+				}
+			}
+		}
+	}
+
+	@Test(dataProvider = "bytes")
+	public void test_setOnSharedUnits(byte[] bytes, String bufferType) {
+		byte[] ones = new byte[bytes.length];
+		Arrays.fill(ones, (byte) -1);
+		for (int i = 1; i < bytes.length + 11; i += 10) {
+			BufferFactory factory = initializeFactory(i, bufferType);
+			IBuffer buffer = factory.create();
+			buffer.writeBytes(bytes);
+			int n = bytes.length / 3;
+
+			// a duplicate and its source
+			IBuffer duplicate = buffer.duplicate();
+			duplicate.setFill(0, (byte) -1, duplicate.size());
+			Assert.assertEquals(buffer.getBytes(0), bytes);
+			buffer.setIntB(n, 0);
+			Assert.assertEquals(duplicate.getBytes(0), ones);
+			buffer.setBytes(n, bytes, n, 4);
+			duplicate.close();
+
+			// a slice and its source
+			buffer.skip(n);
+			IBuffer slice = buffer.slice();
+			slice.setBytes(0, new byte[slice.size()]);
+			Assert.assertEquals(buffer.getBytes(0), bytes);
+			Assert.assertEquals(slice.getBytes(0), new byte[bytes.length - n]);
+			slice.close();
+
+			// split pieces
+			buffer.rewind();
+			IBuffer first = buffer.split(n);
+			IBuffer rest = buffer.duplicate();
+			first.setLongL(0, -1L);
+			buffer.setShortB(0, (short) -1);
+			Assert.assertEquals(first.getLongL(0), -1L);
+			Assert.assertEquals(first.getBytes(8),
+					Arrays.copyOfRange(bytes, 8, n));
+			Assert.assertEquals(buffer.getShortB(0), (short) -1);
+			Assert.assertEquals(buffer.getBytes(2),
+					Arrays.copyOfRange(bytes, n + 2, bytes.length));
+			Assert.assertEquals(rest.getBytes(0),
+					Arrays.copyOfRange(bytes, n, bytes.length));
+
+			rest.close();
+			first.close();
+			buffer.close();
+		}
+	}
+
+	@Test(dataProvider = "bytes")
+	public void test_sliceDuplicate(byte[] bytes, String bufferType) {
+		for (int i = 1; i < bytes.length + 11; i += 10) {
+			BufferFactory factory = initializeFactory(i, bufferType);
+			IBuffer buffer = factory.create();
+			buffer.writeBytes(bytes);
+			int skip = bytes.length / 3;
+			buffer.skip(skip);
+
+			IBuffer slice = buffer.slice();
+			Assert.assertEquals(slice.position(), 0);
+			Assert.assertEquals(slice.length(), bytes.length - skip);
+
+			IBuffer duplicate = buffer.duplicate();
+			Assert.assertEquals(duplicate.position(), skip);
+			Assert.assertEquals(duplicate.length(), bytes.length);
+
+			slice.writeBytes(bytes);
+			duplicate.writeIntB(i);
+			buffer.close();
+
+			Assert.assertEquals(slice.readBytes(bytes.length - skip),
+					Arrays.copyOfRange(bytes, skip, bytes.length));
+			Assert.assertEquals(slice.readBytes(), bytes);
+			Assert.assertEquals(duplicate.readBytes(bytes.length - skip),
+					Arrays.copyOfRange(bytes, skip, bytes.length));
+			Assert.assertEquals(duplicate.readIntB(), i);
+
+			slice.close();
+			duplicate.close();
+		}
+	}
+
+	@Test(dataProvider = "bytes")
+	public void test_compact(byte[] bytes, String bufferType) {
+		for (int i = 1; i < bytes.length + 11; i += 10) {
+			BufferFactory factory = initializeFactory(i, bufferType);
+			for (int skip = 0; skip <= bytes.length; skip += 7) {
+				IBuffer buffer = factory.create();
+				buffer.writeBytes(bytes);
+				// leave the units behind the position read through
+				buffer.readBytes();
+				buffer.rewind();
+				buffer.skip(skip);
+				buffer.compact();
+
+				Assert.assertEquals(buffer.position(), 0);
+				Assert.assertEquals(buffer.size(), bytes.length - skip);
+				Assert.assertEquals(buffer.readBytes(),
+						Arrays.copyOfRange(bytes, skip, bytes.length));
+				buffer.close();
+			}
+		}
+	}
+
+	@Test(dataProvider = "bytes")
+	public void test_headWrite(byte[] bytes, String bufferType) {
+		for (int i = 1; i < bytes.length + 11; i += 10) {
+			BufferFactory factory = initializeFactory(i, bufferType);
+			IBuffer buffer = factory.create();
+			buffer.writeBytes(bytes);
+			buffer.headWriteIntB(i);
+			buffer.headWriteByte((byte) 0x7F);
+
+			Assert.assertEquals(buffer.position(), 0);
+			Assert.assertEquals(buffer.size(), bytes.length + 5);
+			Assert.assertEquals(buffer.readByte(), (byte) 0x7F);
+			Assert.assertEquals(buffer.readIntB(), i);
+			Assert.assertEquals(buffer.readBytes(), bytes);
+			buffer.close();
+		}
+	}
+
+	@Test(dataProvider = "bufferTypes")
+	public void test_unitPool(String bufferType) throws InterruptedException {
+		final BufferFactory factory = new BufferFactory();
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put(UNIT_CAPACITY, 1024);
+		props.put(BUFFER_TYPE, bufferType);
+		props.put(MAGAZINE_SIZE, 2);
+		factory.modified(props);
+
+		final IBuffer[] buffers = new IBuffer[8];
+		for (int i = 0; i < buffers.length; ++i)
+			buffers[i] = factory.create();
+		Assert.assertEquals(factory.poolMisses(), buffers.length);
+
+		// units released by another thread go to the shared pool once its
+		// magazine is full
+		Thread thread = new Thread() {
+
+			@Override
+			public void run() {
+				for (IBuffer buffer : buffers)
+					buffer.close();
+			}
+		};
+		thread.start();
+		thread.join();
+		Assert.assertEquals(factory.pooledBytes(), 6 * 1024);
+
+		for (int i = 0; i < 6; ++i)
+			buffers[i] = factory.create();
+		Assert.assertEquals(factory.poolMisses(), buffers.length);
+		Assert.assertEquals(factory.pooledBytes(), 0);
+
+		// a different size class
+		factory.create(100).close();
+		Assert.assertEquals(factory.poolMisses(), buffers.length + 1);
+	}
+
+	@Test(dataProvider = "bufferTypes")
+	public void test_largeUnitPool(String bufferType) {
+		final int unitCapacity = 512 * 1024;
+		BufferFactory factory = new BufferFactory();
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put(UNIT_CAPACITY, 1024);
+		props.put(BUFFER_TYPE, bufferType);
+		props.put(POOL_CAPACITY, 2 * unitCapacity);
+		factory.modified(props);
+
+		IBuffer[] buffers = new IBuffer[3];
+		for (int i = 0; i < buffers.length; ++i)
+			buffers[i] = factory.create(unitCapacity);
+		Assert.assertEquals(factory.poolMisses(), buffers.length);
+
+		// large units skip the magazine, and the one over the pool capacity
+		// is dropped
+		for (IBuffer buffer : buffers)
+			buffer.close();
+		Assert.assertEquals(factory.pooledBytes(), 2 * unitCapacity);
+
+		for (int i = 0; i < buffers.length; ++i)
+			buffers[i] = factory.create(unitCapacity);
+		Assert.assertEquals(factory.poolHits(), 2);
+		Assert.assertEquals(factory.poolMisses(), buffers.length + 1);
+		Assert.assertEquals(factory.pooledBytes(), 0);
+	}
+
+	private BufferFactory initializeFactory(int unitCapacity, String bufferType) {
 		Map<String, Object> props = m_props;
 		props.put(UNIT_CAPACITY, unitCapacity);
+		props.put(BUFFER_TYPE, bufferType);
 		BufferFactory factory = m_factory;
 		factory.modified(props);
 		return factory;
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.common.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jruyi.common.IBuffer;
+
+/**
+ * Compares {@code Buffer.indexOf} with a byte-by-byte scan of the same data
+ * when looking for line terminators in multi-KB lines. Run it with
+ * {@code java -cp <test-classes>:<classes>:<deps> org.jruyi.common.buffer.IndexOfBenchmark}.
+ */
+public final class IndexOfBenchmark {
+
+	private static final int ROUNDS = 20000;
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	public static void main(String[] args) {
+		for (String bufferType : new String[] { "heap", "direct" }) {
+			for (int lineLength : new int[] { 1024, 4096, 16384 })
+				run(bufferType, lineLength);
+		}
+	}
+
+	private static void run(String bufferType, int lineLength) {
+		Map<String, Object> props = new HashMap<String, Object>();
+		// a unit holds a whole line
+		props.put("unitCapacity", 65536);
+		props.put("bufferType", bufferType);
+		BufferFactory factory = new BufferFactory();
+		factory.modified(props);
+
+		byte[] line = new byte[lineLength];
+		for (int i = 0; i < lineLength - 2; ++i)
+			line[i] = (byte) ('a' + i % 26);
+		line[lineLength - 2] = '\r';
+		line[lineLength - 1] = '\n';
+
+		IBuffer buffer = factory.create();
+		buffer.writeBytes(line);
+		ByteBuffer[] bbs = new ByteBuffer[1];
+		buffer.getByteBuffers(bbs, 0);
+		ByteBuffer bb = bbs[0];
+
+		long sink = 0L;
+		// warm up
+		for (int i = 0; i < ROUNDS; ++i) {
+			sink += buffer.indexOf(CRLF);
+			sink += scalarIndexOf(bb, CRLF);
+		}
+
+		long t0 = System.nanoTime();
+		for (int i = 0; i < ROUNDS; ++i)
+			sink += buffer.indexOf(CRLF);
+		long t1 = System.nanoTime();
+		for (int i = 0; i < ROUNDS; ++i)
+			sink += scalarIndexOf(bb, CRLF);
+		long t2 = System.nanoTime();
+
+		buffer.close();
+
+		System.out.println(bufferType + " line=" + lineLength + ": indexOf "
+				+ (t1 - t0) / ROUNDS + "ns, scalar " + (t2 - t1) / ROUNDS
+				+ "ns (" + (sink == 0L ? "" : "ok") + ")");
+	}
+
+	/**
+	 * The byte-by-byte search formerly done by {@code Unit.indexOf}.
+	 */
+	private static int scalarIndexOf(ByteBuffer bb, byte[] bytes) {
+		int base = bb.position();
+		int end = bb.limit() - bytes.length;
+		next: for (int i = base; i <= end; ++i) {
+			for (int j = 0; j < bytes.length; ++j) {
+				if (bb.get(i + j) != bytes[j])
+					continue next;
+			}
+			return i - base;
+		}
+		return -1;
+	}
+}
@@ -15,24 +15,29 @@
  */
 package org.jruyi.io.channel;
 
+import java.nio.ByteBuffer;
 import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ScatteringByteChannel;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.IdentityHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.jruyi.common.IBuffer;
+import org.jruyi.common.IBufferFactory;
 import org.jruyi.common.ICloseable;
 import org.jruyi.common.IDumpable;
-import org.jruyi.common.IThreadLocalCache;
 import org.jruyi.common.ListNode;
 import org.jruyi.common.StringBuilder;
 import org.jruyi.common.StrUtil;
-import org.jruyi.common.ThreadLocalCache;
+import org.jruyi.io.IFileRegion;
 import org.jruyi.io.IFilter;
 import org.jruyi.io.IFilterOutput;
 import org.jruyi.timeoutadmin.ITimeoutEvent;
@@ -46,18 +51,36 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 	private static final Logger m_logger = LoggerFactory.getLogger(Channel.class);
 	private static final AtomicLong m_idSeed = new AtomicLong(0L);
 	private static final Object EOF = new Object();
+	// returned by the departure filtering if a filter aborts it
+	private static final Object ABORT = new Object();
+	// max number of byte buffers to gather in one write
+	private static final int MAX_IOV = 64;
 	private static final ThreadLocal<FilterVars> m_filterVars;
-	private Long m_id;
+	private static final AtomicIntegerFieldUpdater<Channel> m_readingUpdater = AtomicIntegerFieldUpdater
+			.newUpdater(Channel.class, "m_reading");
+	private static final AtomicReferenceFieldUpdater<Channel, FilterSlots> m_filterSlotsUpdater = AtomicReferenceFieldUpdater
+			.newUpdater(Channel.class, FilterSlots.class, "m_filterSlots");
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<Channel, ConcurrentHashMap> m_attributesUpdater = AtomicReferenceFieldUpdater
+			.newUpdater(Channel.class, ConcurrentHashMap.class, "m_attributes");
+	private long m_id;
 	private final IChannelService m_channelService;
 	private final ReentrantLock m_lock;
-	private ConcurrentHashMap<String, Object> m_attributes;
+	// both created on first use
+	private volatile ConcurrentHashMap<String, Object> m_attributes;
 	private IdentityHashMap<Object, Object> m_storage;
+	private volatile FilterSlots m_filterSlots;
 	private Object m_attachment;
 	private volatile boolean m_closed;
+	// 1 if a read is in progress
+	private volatile int m_reading;
 	private SelectionKey m_selectionKey;
 	private ITimeoutNotifier m_timeoutNotifier;
+	private final boolean m_inlineIo;
 	private Runnable m_readThread;
 	private WriteThread m_writeThread;
+	private ReceiveThread m_receiveThread;
+	private final ResumedArrivals m_resumedArrivals;
 
 	static {
 
@@ -86,6 +109,28 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 		}
 	}
 
+	/**
+	 * Departure data produced within the filter chain, which has been through
+	 * the filters already and is to be written out as it is.
+	 */
+	static final class Departure implements ICloseable {
+
+		private final Object m_out;
+
+		Departure(Object out) {
+			m_out = out;
+		}
+
+		Object out() {
+			return m_out;
+		}
+
+		@Override
+		public void close() {
+			((ICloseable) m_out).close();
+		}
+	}
+
 	static final class MsgArrayList {
 
 		private Object[] m_msgs;
@@ -153,11 +198,13 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 		private final MsgArrayList m_msgs1;
 		private final MsgArrayList m_msgs2;
 		private final FilterOutput m_output;
+		private final ByteBuffer[] m_iov;
 
 		FilterVars() {
 			m_msgs1 = new MsgArrayList();
 			m_msgs2 = new MsgArrayList();
 			m_output = new FilterOutput();
+			m_iov = new ByteBuffer[MAX_IOV];
 		}
 
 		MsgArrayList msgs1() {
@@ -171,79 +218,139 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 		FilterOutput output() {
 			return m_output;
 		}
-	}
 
-	static final class FilterContext implements ICloseable {
-
-		private static final IThreadLocalCache<FilterContext> m_cache = ThreadLocalCache.weakLinkedCache();
-		private int m_msgLen;
-		private IBuffer m_data;
-
-		private FilterContext() {
+		ByteBuffer[] iov() {
+			return m_iov;
 		}
+	}
 
-		static FilterContext get() {
-			FilterContext context = m_cache.take();
-			if (context == null)
-				context = new FilterContext();
+	/**
+	 * Per-session state of one filter.
+	 */
+	static final class FilterSlot {
 
-			return context;
-		}
+		// partial data left by tellBoundary
+		IBuffer m_data;
+		int m_msgLen;
+		// filter defined state
+		volatile Object m_state;
 
-		int msgLen() {
-			return m_msgLen;
+		void clear() {
+			IBuffer data = m_data;
+			if (data != null) {
+				m_data = null;
+				data.close();
+			}
 		}
+	}
 
-		void msgLen(int msgLen) {
-			m_msgLen = msgLen;
+	/**
+	 * Per-session state of the filters in a filter chain, indexed by the
+	 * position of the filter in the chain. The slots of the filters still in
+	 * the chain are carried over when the chain is recompiled, so the state
+	 * set through a stale layout is not lost.
+	 */
+	static final class FilterSlots {
+
+		final IFilter[] m_filters;
+		final FilterSlot[] m_slots;
+
+		FilterSlots(IFilter[] filters) {
+			int n = filters.length;
+			FilterSlot[] slots = new FilterSlot[n];
+			for (int i = 0; i < n; ++i)
+				slots[i] = new FilterSlot();
+			m_filters = filters;
+			m_slots = slots;
 		}
 
-		IBuffer data() {
-			return m_data;
+		/**
+		 * Lay out the slots for the given new {@code filters}, carrying over
+		 * the slots of the filters still in the chain.
+		 */
+		FilterSlots remap(IFilter[] filters) {
+			FilterSlots slots = new FilterSlots(filters);
+			IFilter[] oldFilters = m_filters;
+			for (int i = 0; i < oldFilters.length; ++i) {
+				int j = indexOf(filters, oldFilters[i]);
+				if (j >= 0)
+					slots.m_slots[j] = m_slots[i];
+			}
+			return slots;
 		}
 
-		void data(IBuffer data) {
-			m_data = data;
+		/**
+		 * Release the slots of the filters not in the given {@code filters}.
+		 */
+		void clearRemoved(IFilter[] filters) {
+			IFilter[] oldFilters = m_filters;
+			for (int i = 0; i < oldFilters.length; ++i) {
+				if (indexOf(filters, oldFilters[i]) < 0)
+					m_slots[i].clear();
+			}
 		}
 
 		void clear() {
-			m_msgLen = 0;
-			m_data = null;
+			FilterSlot[] slots = m_slots;
+			for (int i = 0; i < slots.length; ++i)
+				slots[i].clear();
 		}
 
-		@Override
-		public void close() {
-			m_msgLen = 0;
-			m_data = null;
-			m_cache.put(this);
+		static int indexOf(IFilter[] filters, IFilter filter) {
+			for (int i = 0; i < filters.length; ++i) {
+				if (filters[i] == filter)
+					return i;
+			}
+			return -1;
 		}
 	}
 
 	static final class ReadThread implements Runnable {
 
+		// max number of reads upon one wakeup when sizing adaptively
+		private static final int MAX_READS = 16;
 		private final Channel m_channel;
+		// null if the unit size for reading is not adaptive
+		private final ReadSizePredictor m_predictor;
 
 		ReadThread(Channel channel) {
 			m_channel = channel;
+			IChannelService cs = channel.channelService();
+			int maxSize = cs.maxReadUnitSize();
+			m_predictor = maxSize > 0 ? new ReadSizePredictor(
+					cs.minReadUnitSize(), maxSize) : null;
 		}
 
 		@Override
 		public void run() {
 			Channel channel = m_channel;
 			IChannelService cs = channel.channelService();
-			IBuffer in = cs.getBufferFactory().create();
+			ReadSizePredictor predictor = m_predictor;
+			IBufferFactory bf = cs.getBufferFactory();
+			IBuffer in = predictor == null ? bf.create() : bf.create(predictor
+					.nextSize());
 			ScatteringByteChannel rbc = channel.scatteringByteChannel();
 			int n = 0;
 			try {
 				int readThreshold = cs.readThreshold();
+				int reads = 0;
 				for (;;) {
 					n = in.readIn(rbc);
 					if (n > 0) {
-						if (in.length() > readThreshold)
+						if (in.length() <= readThreshold)
+							continue;
+
+						// keep reading while the reads fill up the prediction
+						if (predictor == null || n < predictor.nextSize()
+								|| ++reads >= MAX_READS)
 							break;
 					} else if (in.isEmpty()) {
 						in.close();
-						channel.close();
+						// a spurious wakeup if the read interest is kept armed
+						if (n < 0)
+							channel.close();
+						else
+							channel.onReadDone();
 						return;
 					} else
 						break;
@@ -255,12 +362,15 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 				return;
 			}
 
+			if (predictor != null)
+				predictor.record(in.length());
+
 			try {
 				if (n < 0) {
 					channel.close();
 					channel.onReadIn(in);
 				} else if (channel.onReadIn(in))
-					cs.getChannelAdmin().onReadRequired(channel);
+					channel.onReadDone();
 				else
 					channel.close();
 			} catch (Exception e) {
@@ -271,74 +381,331 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 
 	static final class WriteThread implements Runnable {
 
+		// max number of messages batched into one gathering write
+		private static final int MAX_BATCH = 32;
+		// stop batching once this many bytes are pending
+		private static final int MAX_BATCH_BYTES = 256 * 1024;
 		private final Channel m_channel;
 		// indicates whether writing is in process
 		private Object m_data;
 		private ListNode<Object> m_head;
 		private ListNode<Object> m_tail;
 		private final ReentrantLock m_lock;
+		// the batched messages and their departure data
+		private final Object[] m_msgs;
+		private final Object[] m_outs;
+		// number of the batched messages
+		private int m_count;
+		// index of the first batched message not fully flushed
+		private int m_index;
+		// true if EOF is hit when batching
+		private boolean m_eof;
+		// departure data of the batched messages merged for the coalescing
+		// filter, and the index of the first message merged
+		private IBuffer m_merged;
+		private int m_mergedFrom;
+		// bytes of the queued data not yet taken for writing
+		private long m_queuedBytes;
+		// true if the queued bytes reached the high watermark
+		private boolean m_suspended;
 
 		WriteThread(Channel channel) {
 			m_channel = channel;
 			m_head = m_tail = ListNode.create();
 			m_lock = new ReentrantLock();
+			m_msgs = new Object[MAX_BATCH];
+			m_outs = new Object[MAX_BATCH];
 		}
 
 		@Override
 		public void run() {
 			Channel channel = m_channel;
-			IBuffer data = null;
 			try {
 				IChannelService cs = channel.channelService();
 				GatheringByteChannel gbc = channel.gatheringByteChannel();
-				Object msg = peek();
-				do {
-					if (msg == EOF) {
-						channel.close();
-						return;
-					}
-
-					Object out = msg;
-					IFilter[] filters = cs.getFilterChain();
-					int i = filters.length;
-					if (i > 0) {
-						FilterOutput output = m_filterVars.get().output();
+				// resume the batch left by the last partial write if any
+				Object msg = m_count > 0 ? null : peek();
+				for (;;) {
+					boolean abort = false;
+					if (msg != null) {
+						IFilter[] filters = cs.getFilterChain();
+						// messages are merged for the first coalescing filter
+						int c = coalescingIndex(filters);
+						ICoalescingFilter cf = c < 0 ? null
+								: (ICoalescingFilter) filters[c];
+						int bytes = 0;
 						do {
-							if (!filters[--i].onMsgDepart(channel, out, output))
-								return;
-
-							out = output.take();
-						} while (i > 0 && msg != null);
+							if (msg == EOF) {
+								m_eof = true;
+								break;
+							}
+
+							Object out;
+							if (msg instanceof Departure) {
+								// after the data merged so far
+								departMerged(filters, c, m_count);
+								out = ((Departure) msg).out();
+							} else {
+								out = depart(filters, filters.length, c + 1,
+										msg);
+								if (out == ABORT) {
+									abort = true;
+									break;
+								}
+
+								if (cf != null && out != null) {
+									if (out instanceof IBuffer) {
+										IBuffer data = (IBuffer) out;
+										bytes += data.remaining();
+										merge(data);
+										// set when the merged data departs
+										out = null;
+									} else {
+										departMerged(filters, c, m_count);
+										out = depart(filters, c + 1, 0, out);
+										if (out == ABORT) {
+											abort = true;
+											break;
+										}
+									}
+								}
+							}
+
+							if (out instanceof IBuffer)
+								bytes += ((IBuffer) out).remaining();
+							else if (out instanceof IFileRegion)
+								bytes += (int) Math.min(
+										((IFileRegion) out).remaining(),
+										MAX_BATCH_BYTES);
+							else if (out != null)
+								throwBadDeparture(filters);
+
+							m_msgs[m_count] = msg;
+							m_outs[m_count] = out;
+
+							IBuffer merged = m_merged;
+							if (merged != null
+									&& merged.remaining() >= cf.coalesceLimit())
+								departMerged(filters, c, m_count + 1);
+						} while (++m_count < MAX_BATCH
+								&& bytes < MAX_BATCH_BYTES
+								&& (msg = next()) != null);
+
+						departMerged(filters, c, m_count);
 					}
 
-					try {
-						data = (IBuffer) out;
-					} catch (ClassCastException e) {
-						throw new RuntimeException(StrUtil.buildString(filters[0],
-								"has to produce departure data of type " + IBuffer.class.getName()));
+					if (!flush(cs, gbc)) {
+						cs.getChannelAdmin().onWriteRequired(channel);
+						return;
 					}
 
-					while (data.remaining() > 0) {
-						if (data.writeOut(gbc) == 0) {
-							cs.getChannelAdmin().onWriteRequired(channel);
-							return;
-						}
+					if (m_eof) {
+						channel.close();
+						return;
 					}
 
-					cs.onMessageSent(channel, msg);
-					data.close();
-					data = null;
-					msg = poll();
-				} while (msg != null);
+					if (abort || (msg = poll()) == null)
+						return;
+				}
 			} catch (Exception e) {
-				if (data != null)
-					data.close();
+				release();
 
 				if (!channel.isClosed())
 					channel.onException(e);
 			}
 		}
 
+		/**
+		 * Pass the given departure data through the filters from
+		 * {@code filters[from - 1]} down to {@code filters[to]}.
+		 *
+		 * @return the resultant departure data, or {@code ABORT} if any filter
+		 *         aborts the departure
+		 */
+		private Object depart(IFilter[] filters, int from, int to, Object out) {
+			Channel channel = m_channel;
+			FilterOutput output = m_filterVars.get().output();
+			for (int i = from; --i >= to && out != null;) {
+				if (!filters[i].onMsgDepart(channel, out, output))
+					return ABORT;
+
+				out = output.take();
+			}
+			return out;
+		}
+
+		private void merge(IBuffer data) {
+			IBuffer merged = m_merged;
+			if (merged == null) {
+				m_merged = data;
+				m_mergedFrom = m_count;
+				return;
+			}
+
+			data.drainTo(merged);
+			data.close();
+		}
+
+		/**
+		 * Pass the merged departure data through the coalescing filter at
+		 * {@code c} and the filters before it. The resultant departure data is
+		 * shared by the batched messages from {@code m_mergedFrom} to
+		 * {@code end} (exclusive).
+		 */
+		private void departMerged(IFilter[] filters, int c, int end) {
+			IBuffer merged = m_merged;
+			if (merged == null)
+				return;
+
+			m_merged = null;
+			Object out = depart(filters, c + 1, 0, merged);
+			// dropped if aborted
+			if (out == ABORT || out == null)
+				return;
+
+			if (!(out instanceof IBuffer || out instanceof IFileRegion))
+				throwBadDeparture(filters);
+
+			Object[] outs = m_outs;
+			for (int i = m_mergedFrom; i < end; ++i)
+				outs[i] = out;
+		}
+
+		/**
+		 * Return the index of the first coalescing filter in the given
+		 * {@code filters}, or -1 if none.
+		 */
+		private static int coalescingIndex(IFilter[] filters) {
+			for (int i = 0; i < filters.length; ++i) {
+				if (filters[i] instanceof ICoalescingFilter)
+					return i;
+			}
+			return -1;
+		}
+
+		private static void throwBadDeparture(IFilter[] filters) {
+			throw new RuntimeException(StrUtil.buildString(filters[0],
+					"has to produce departure data of type "
+							+ IBuffer.class.getName() + " or "
+							+ IFileRegion.class.getName()));
+		}
+
+		/**
+		 * Write out the batched messages with as few gathering writes as
+		 * possible. File regions are transferred to the channel directly.
+		 * 
+		 * @return false if the channel cannot take more data for now, otherwise
+		 *         true
+		 */
+		private boolean flush(IChannelService cs, GatheringByteChannel gbc)
+				throws Exception {
+			Channel channel = m_channel;
+			Object[] msgs = m_msgs;
+			Object[] outs = m_outs;
+			int count = m_count;
+			int i = m_index;
+			for (;;) {
+				// notify the messages fully flushed
+				for (; i < count; ++i) {
+					Object out = outs[i];
+					if (out != null && remaining(out) > 0)
+						break;
+
+					Object msg = msgs[i];
+					msgs[i] = null;
+					outs[i] = null;
+					// not notified if dropped by the filters
+					if (out != null && !(msg instanceof Departure))
+						cs.onMessageSent(channel, msg);
+					// shared with the next message if merged
+					if (out != null && (i + 1 >= count || outs[i + 1] != out))
+						((ICloseable) out).close();
+				}
+
+				if (i >= count)
+					break;
+
+				Object out = outs[i];
+				if (out instanceof IFileRegion) {
+					if (((IFileRegion) out).transferTo(gbc) == 0L) {
+						m_index = i;
+						return false;
+					}
+					continue;
+				}
+
+				// one write per message if message boundaries are kept
+				if (channel.messageOriented()) {
+					if (((IBuffer) out).writeOut(gbc) == 0) {
+						m_index = i;
+						return false;
+					}
+					continue;
+				}
+
+				// gather the buffers up to the next file region
+				ByteBuffer[] iov = m_filterVars.get().iov();
+				int n = 0;
+				for (int j = i; j < count && n < iov.length; ++j) {
+					out = outs[j];
+					if (out instanceof IFileRegion)
+						break;
+					if (out != null && (j == i || out != outs[j - 1]))
+						n += ((IBuffer) out).getByteBuffers(iov, n);
+				}
+
+				long written;
+				try {
+					written = n == 1 ? gbc.write(iov[0]) : gbc.write(iov, 0, n);
+				} finally {
+					Arrays.fill(iov, 0, n, null);
+				}
+
+				if (written == 0) {
+					m_index = i;
+					return false;
+				}
+
+				for (int j = i; written > 0; ++j) {
+					out = outs[j];
+					if (out != null && (j == i || out != outs[j - 1]))
+						written -= ((IBuffer) out).skip((int) written);
+				}
+			}
+
+			m_count = 0;
+			m_index = 0;
+			return true;
+		}
+
+		private static long remaining(Object out) {
+			if (out instanceof IBuffer)
+				return ((IBuffer) out).remaining();
+
+			return ((IFileRegion) out).remaining();
+		}
+
+		private void release() {
+			Object[] msgs = m_msgs;
+			Object[] outs = m_outs;
+			int count = m_count;
+			for (int i = 0; i < count; ++i) {
+				Object out = outs[i];
+				if (out != null && (i + 1 >= count || outs[i + 1] != out))
+					((ICloseable) out).close();
+				msgs[i] = null;
+				outs[i] = null;
+			}
+			m_count = 0;
+			m_index = 0;
+
+			IBuffer merged = m_merged;
+			if (merged != null) {
+				m_merged = null;
+				merged.close();
+			}
+		}
+
 		void write(Object data) {
 			if (put(data)) // in writing
 				return;
@@ -347,30 +714,78 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 		}
 
 		private boolean put(Object data) {
+			Channel channel = m_channel;
+			IChannelService cs = channel.channelService();
+			int highWatermark = cs.writeHighWatermark();
+			boolean suspended = false;
 			final ReentrantLock lock = m_lock;
 			lock.lock();
 			try {
-				if (m_data == null)
+				if (m_data == null) {
 					m_data = data;
-				else {
-					ListNode<Object> node = ListNode.create();
-					node.set(data);
-					m_tail.next(node);
-					m_tail = node;
+					return false;
+				}
+
+				if (m_suspended && data != EOF && cs.dropOnWriteSuspended()) {
+					m_logger.debug("{}: writing suspended, data dropped",
+							channel);
+					if (data instanceof ICloseable)
+						((ICloseable) data).close();
 					return true;
 				}
+
+				ListNode<Object> node = ListNode.create();
+				node.set(data);
+				m_tail.next(node);
+				m_tail = node;
+
+				if (data instanceof IBuffer) {
+					long queuedBytes = m_queuedBytes
+							+ ((IBuffer) data).remaining();
+					m_queuedBytes = queuedBytes;
+					if (!m_suspended && highWatermark > 0
+							&& queuedBytes >= highWatermark)
+						suspended = m_suspended = true;
+				}
 			} finally {
 				lock.unlock();
 			}
 
-			return false;
+			if (suspended)
+				cs.onChannelWriteSuspended(channel);
+
+			return true;
 		}
 
 		private Object peek() {
 			return m_data;
 		}
 
+		// take the next queued message without ending the writing
+		private Object next() {
+			Object data;
+			boolean resumed;
+			final ReentrantLock lock = m_lock;
+			lock.lock();
+			try {
+				if (m_head == m_tail)
+					return null;
+
+				data = take();
+				resumed = dequeued(data);
+			} finally {
+				lock.unlock();
+			}
+
+			if (resumed)
+				fireWriteResumed();
+
+			return data;
+		}
+
 		private Object poll() {
+			Object data;
+			boolean resumed;
 			final ReentrantLock lock = m_lock;
 			lock.lock();
 			try {
@@ -378,10 +793,20 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 					m_data = null;
 					return null;
 				}
+
+				data = take();
+				resumed = dequeued(data);
 			} finally {
 				lock.unlock();
 			}
 
+			if (resumed)
+				fireWriteResumed();
+
+			return data;
+		}
+
+		private Object take() {
 			ListNode<Object> head = m_head;
 			ListNode<Object> node = head.next();
 			Object data = node.get();
@@ -393,6 +818,32 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 			return data;
 		}
 
+		/**
+		 * Must be called with the lock held.
+		 * 
+		 * @return true if writing is resumed
+		 */
+		private boolean dequeued(Object data) {
+			if (data instanceof IBuffer)
+				m_queuedBytes -= ((IBuffer) data).remaining();
+
+			if (!m_suspended)
+				return false;
+
+			IChannelService cs = m_channel.channelService();
+			if (cs.writeHighWatermark() > 0
+					&& m_queuedBytes > cs.writeLowWatermark())
+				return false;
+
+			m_suspended = false;
+			return true;
+		}
+
+		private void fireWriteResumed() {
+			Channel channel = m_channel;
+			channel.channelService().onChannelWriteResumed(channel);
+		}
+
 		void clear() {
 			final ReentrantLock lock = m_lock;
 			lock.lock();
@@ -411,10 +862,212 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 					} while (head != tail);
 					m_head = head;
 				}
+				m_queuedBytes = 0L;
+				m_suspended = false;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Delivers the received messages of an inline I/O channel to the channel
+	 * service on the worker, one at a time and in order.
+	 */
+	static final class ReceiveThread implements Runnable {
+
+		private final Channel m_channel;
+		private ListNode<Object> m_head;
+		private ListNode<Object> m_tail;
+		// indicates whether delivering is in process
+		private boolean m_running;
+		private final ReentrantLock m_lock;
+
+		ReceiveThread(Channel channel) {
+			m_channel = channel;
+			m_head = m_tail = ListNode.create();
+			m_lock = new ReentrantLock();
+		}
+
+		@Override
+		public void run() {
+			Channel channel = m_channel;
+			IChannelService cs = channel.channelService();
+			Object msg;
+			while ((msg = poll()) != null) {
+				try {
+					cs.onMessageReceived(channel, msg);
+				} catch (Exception e) {
+					channel.onException(e);
+				}
+			}
+		}
+
+		void receive(Object msg) {
+			ListNode<Object> node = ListNode.create();
+			node.set(msg);
+			final ReentrantLock lock = m_lock;
+			lock.lock();
+			try {
+				m_tail.next(node);
+				m_tail = node;
+				if (m_running)
+					return;
+				m_running = true;
+			} finally {
+				lock.unlock();
+			}
+
+			Channel channel = m_channel;
+			channel.channelService().getChannelAdmin().dispatch(channel, this);
+		}
+
+		void clear() {
+			Object msg;
+			while ((msg = poll()) != null) {
+				if (msg instanceof ICloseable)
+					((ICloseable) msg).close();
+			}
+		}
+
+		private Object poll() {
+			ListNode<Object> head;
+			Object msg;
+			final ReentrantLock lock = m_lock;
+			lock.lock();
+			try {
+				head = m_head;
+				if (head == m_tail) {
+					m_running = false;
+					return null;
+				}
+
+				ListNode<Object> node = head.next();
+				msg = node.get();
+				node.set(null);
+				m_head = node;
+			} finally {
+				lock.unlock();
+			}
+
+			head.close();
+			return msg;
+		}
+	}
+
+	/**
+	 * Arrivals resumed by asynchronous filters. They are passed on to the
+	 * filters after the resuming filter on the read path, so they never run
+	 * concurrently with a read, and they go ahead of the later output of the
+	 * resuming filter.
+	 */
+	static final class ResumedArrivals implements Runnable {
+
+		private final Channel m_channel;
+		// pairs of the resuming filter and the resumed arrival
+		private final ArrayList<Object> m_entries;
+		private volatile int m_count;
+		private final ReentrantLock m_lock;
+
+		ResumedArrivals(Channel channel) {
+			m_channel = channel;
+			m_entries = new ArrayList<Object>();
+			m_lock = new ReentrantLock();
+		}
+
+		// runs on the worker with the read claimed
+		@Override
+		public void run() {
+			Channel channel = m_channel;
+			if (channel.passOnResumed())
+				channel.onReadDone();
+		}
+
+		boolean isEmpty() {
+			return m_count < 1;
+		}
+
+		void add(IFilter filter, Object msg) {
+			final ReentrantLock lock = m_lock;
+			lock.lock();
+			try {
+				m_entries.add(filter);
+				m_entries.add(msg);
+				++m_count;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Move the arrivals resumed by the given {@code filter} to the given
+		 * {@code outMsgs}.
+		 */
+		void takeAll(IFilter filter, MsgArrayList outMsgs) {
+			final ReentrantLock lock = m_lock;
+			lock.lock();
+			try {
+				ArrayList<Object> entries = m_entries;
+				int j = 0;
+				for (int i = 0, n = entries.size(); i < n; i += 2) {
+					Object msg = entries.get(i + 1);
+					if (entries.get(i) == filter)
+						outMsgs.add(msg);
+					else {
+						entries.set(j++, entries.get(i));
+						entries.set(j++, msg);
+					}
+				}
+				truncate(j);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Take the earliest resumed arrival into the given {@code entry}.
+		 * 
+		 * @return false if none
+		 */
+		boolean poll(Object[] entry) {
+			final ReentrantLock lock = m_lock;
+			lock.lock();
+			try {
+				ArrayList<Object> entries = m_entries;
+				if (entries.isEmpty())
+					return false;
+
+				entry[0] = entries.get(0);
+				entry[1] = entries.get(1);
+				entries.subList(0, 2).clear();
+				--m_count;
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void clear() {
+			final ReentrantLock lock = m_lock;
+			lock.lock();
+			try {
+				ArrayList<Object> entries = m_entries;
+				for (int i = 1, n = entries.size(); i < n; i += 2) {
+					Object msg = entries.get(i);
+					if (msg instanceof ICloseable)
+						((ICloseable) msg).close();
+				}
+				truncate(0);
 			} finally {
 				lock.unlock();
 			}
 		}
+
+		private void truncate(int size) {
+			ArrayList<Object> entries = m_entries;
+			entries.subList(size, entries.size()).clear();
+			m_count = size / 2;
+		}
 	}
 
 	static final class IdleTimeoutListener implements ITimeoutListener {
@@ -465,6 +1118,8 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 	protected Channel(IChannelService channelService) {
 		m_channelService = channelService;
 		m_lock = new ReentrantLock();
+		m_inlineIo = channelService.inlineIo();
+		m_resumedArrivals = new ResumedArrivals(this);
 	}
 
 	/**
@@ -475,17 +1130,18 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 		IChannelService channelService = m_channelService;
 		try {
 			m_id = m_idSeed.incrementAndGet();
-			m_attributes = new ConcurrentHashMap<String, Object>();
-			m_storage = new IdentityHashMap<Object, Object>();
 
 			onAccepted();
 			m_readThread = new ReadThread(this);
 			m_writeThread = new WriteThread(this);
+			if (m_inlineIo)
+				m_receiveThread = new ReceiveThread(this);
 
 			IChannelAdmin ca = channelService.getChannelAdmin();
 			m_timeoutNotifier = createTimeoutNotifier(ca);
 			selectableChannel().configureBlocking(false);
 
+			m_filterSlots = new FilterSlots(channelService.getFilterChain());
 			channelService.onChannelOpened(this);
 
 			ca.onRegisterRequired(this);
@@ -533,17 +1189,45 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 
 	@Override
 	public Object deposit(Object id, Object something) {
-		return m_storage.put(id, something);
+		IdentityHashMap<Object, Object> storage = m_storage;
+		if (storage == null) {
+			storage = new IdentityHashMap<Object, Object>();
+			m_storage = storage;
+		}
+		return storage.put(id, something);
 	}
 
 	@Override
 	public Object withdraw(Object id) {
-		return m_storage.remove(id);
+		IdentityHashMap<Object, Object> storage = m_storage;
+		return storage == null ? null : storage.remove(id);
 	}
 
 	@Override
 	public Object inquiry(Object id) {
-		return m_storage.get(id);
+		IdentityHashMap<Object, Object> storage = m_storage;
+		return storage == null ? null : storage.get(id);
+	}
+
+	@Override
+	public Object filterState(IFilter filter) {
+		FilterSlots slots = filterSlots(m_channelService.getFilterChain());
+		int i = FilterSlots.indexOf(slots.m_filters, filter);
+		// not in the chain, fall back to the deposits
+		return i < 0 ? inquiry(filter) : slots.m_slots[i].m_state;
+	}
+
+	@Override
+	public Object filterState(IFilter filter, Object state) {
+		FilterSlots slots = filterSlots(m_channelService.getFilterChain());
+		int i = FilterSlots.indexOf(slots.m_filters, filter);
+		if (i < 0)
+			return deposit(filter, state);
+
+		FilterSlot slot = slots.m_slots[i];
+		Object oldState = slot.m_state;
+		slot.m_state = state;
+		return oldState;
 	}
 
 	@Override
@@ -560,6 +1244,53 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 		}
 	}
 
+	@Override
+	public final void resumeArrive(IFilter filter, Object msg) {
+		try {
+			if (isClosed()) {
+				if (msg instanceof ICloseable)
+					((ICloseable) msg).close();
+				return;
+			}
+
+			ResumedArrivals resumedArrivals = m_resumedArrivals;
+			resumedArrivals.add(filter, msg);
+			// otherwise passed on by the read in progress
+			if (m_readingUpdater.compareAndSet(this, 0, 1))
+				m_channelService.getChannelAdmin().getWorker()
+						.run(resumedArrivals);
+		} catch (Exception e) {
+			onException(e);
+		}
+	}
+
+	@Override
+	public final void resumeDepart(IFilter filter, Object msg) {
+		try {
+			IFilter[] filters = m_channelService.getFilterChain();
+			int k = FilterSlots.indexOf(filters, filter);
+			if (k < 0 || isClosed()) {
+				if (msg instanceof ICloseable)
+					((ICloseable) msg).close();
+				return;
+			}
+
+			FilterOutput output = m_filterVars.get().output();
+			while (--k >= 0) {
+				if (!filters[k].onMsgDepart(this, msg, output))
+					return;
+
+				msg = output.take();
+				if (msg == null)
+					return;
+			}
+
+			m_writeThread.write(new Departure(msg));
+		} catch (Exception e) {
+			onException(e);
+		}
+	}
+
 	@Override
 	public final void close() {
 		if (m_closed)
@@ -590,6 +1321,16 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 		if (wt != null)
 			wt.clear();
 
+		ReceiveThread rt = m_receiveThread;
+		if (rt != null)
+			rt.clear();
+
+		m_resumedArrivals.clear();
+
+		FilterSlots slots = m_filterSlots;
+		if (slots != null)
+			slots.clear();
+
 		try {
 			m_channelService.onChannelClosed(this);
 		} catch (RuntimeException e) {
@@ -614,23 +1355,25 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 	}
 
 	@Override
-	public final Long id() {
+	public final long id() {
 		return m_id;
 	}
 
 	@Override
 	public final Object get(String name) {
-		return m_attributes.get(name);
+		ConcurrentHashMap<String, Object> attributes = m_attributes;
+		return attributes == null ? null : attributes.get(name);
 	}
 
 	@Override
 	public final Object put(String name, Object value) {
-		return m_attributes.put(name, value);
+		return attributes().put(name, value);
 	}
 
 	@Override
 	public final Object remove(String name) {
-		return m_attributes.remove(name);
+		ConcurrentHashMap<String, Object> attributes = m_attributes;
+		return attributes == null ? null : attributes.remove(name);
 	}
 
 	@Override
@@ -663,7 +1406,7 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 	}
 
 	@Override
-	public final void register(Selector selector, int ops) {
+	public void register(Selector selector, int ops) {
 		try {
 			m_selectionKey = selectableChannel().register(selector, ops, this);
 		} catch (Exception e) {
@@ -672,7 +1415,7 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 	}
 
 	@Override
-	public final void interestOps(int ops) {
+	public void interestOps(int ops) {
 		SelectionKey selectionKey = m_selectionKey;
 		try {
 			selectionKey.interestOps(selectionKey.interestOps() | ops);
@@ -686,9 +1429,6 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 		try {
 			m_id = m_idSeed.incrementAndGet();
 
-			m_attributes = new ConcurrentHashMap<String, Object>();
-			m_storage = new IdentityHashMap<Object, Object>();
-
 			IChannelAdmin ca = m_channelService.getChannelAdmin();
 			m_timeoutNotifier = createTimeoutNotifier(ca);
 			if (connect()) {
@@ -714,7 +1454,8 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 
 	@Override
 	public final Runnable onRead() {
-		return m_readThread;
+		return m_readingUpdater.compareAndSet(this, 0, 1) ? m_readThread
+				: null;
 	}
 
 	@Override
@@ -722,6 +1463,11 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 		return m_writeThread;
 	}
 
+	@Override
+	public final boolean inlineIo() {
+		return m_inlineIo;
+	}
+
 	@Override
 	public final void receive(IBuffer in) {
 		try {
@@ -760,6 +1506,14 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 
 	protected abstract GatheringByteChannel gatheringByteChannel();
 
+	/**
+	 * Returns true if each departure has to be written out on its own, such as
+	 * a datagram, rather than gathered with the ones next to it.
+	 */
+	protected boolean messageOriented() {
+		return false;
+	}
+
 	protected ITimeoutNotifier createTimeoutNotifier(IChannelAdmin ca) {
 		return ca.createTimeoutNotifier(this);
 	}
@@ -768,6 +1522,62 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 		m_readThread = readThread;
 	}
 
+	/**
+	 * Allows the next read to be dispatched. {@code OP_READ} is re-armed
+	 * unless the channel admin keeps it armed.
+	 */
+	final void onReadDone() {
+		m_reading = 0;
+		// pass on the arrivals resumed while reading
+		ResumedArrivals resumedArrivals = m_resumedArrivals;
+		while (!resumedArrivals.isEmpty()
+				&& m_readingUpdater.compareAndSet(this, 0, 1)) {
+			if (!passOnResumed())
+				return;
+			m_reading = 0;
+		}
+
+		IChannelAdmin ca = m_channelService.getChannelAdmin();
+		if (!ca.keepReadInterest())
+			ca.onReadRequired(this);
+	}
+
+	/**
+	 * Pass the resumed arrivals on to the filters after their resuming
+	 * filters. Must be called with the read claimed.
+	 * 
+	 * @return false if this channel is closed
+	 */
+	final boolean passOnResumed() {
+		ResumedArrivals resumedArrivals = m_resumedArrivals;
+		Object[] entry = new Object[2];
+		try {
+			while (resumedArrivals.poll(entry)) {
+				IFilter filter = (IFilter) entry[0];
+				Object msg = entry[1];
+				entry[1] = null;
+				int k = FilterSlots.indexOf(m_channelService.getFilterChain(),
+						filter);
+				if (k < 0 || isClosed()) {
+					// the filter has been removed from the chain
+					if (msg instanceof ICloseable)
+						((ICloseable) msg).close();
+					continue;
+				}
+
+				if (!onReadIn(k + 1, msg)) {
+					close();
+					return false;
+				}
+			}
+		} catch (Exception e) {
+			onException(e);
+			return false;
+		}
+
+		return !isClosed();
+	}
+
 	/**
 	 * If returns false, this channel need be closed
 	 * 
@@ -775,6 +1585,14 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 	 * @return
 	 */
 	final boolean onReadIn(Object in) {
+		return onReadIn(0, in);
+	}
+
+	/**
+	 * Filter the given {@code in} starting from the filter at the given
+	 * {@code start} position in the filter chain.
+	 */
+	private boolean onReadIn(int start, Object in) {
 		FilterVars vars = m_filterVars.get();
 		FilterOutput output = vars.output();
 		MsgArrayList inMsgs = vars.msgs1();
@@ -782,7 +1600,7 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 		IChannelService cs = m_channelService;
 		IFilter[] filters = cs.getFilterChain();
 		try {
-			for (int k = 0, m = filters.length; k < m; ++k) {
+			for (int k = start, m = filters.length; k < m; ++k) {
 				if (in instanceof IBuffer) {
 					if (!onAccumulate(k, filters, inMsgs, outMsgs, (IBuffer) in, output))
 						return false;
@@ -808,9 +1626,16 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 				in = inMsgs.take(0);
 			}
 
-			cs.onMessageReceived(this, in);
-			for (int i = 1, n = inMsgs.size(); i < n; ++i)
-				cs.onMessageReceived(this, inMsgs.take(i));
+			ReceiveThread rt = m_receiveThread;
+			if (rt == null) {
+				cs.onMessageReceived(this, in);
+				for (int i = 1, n = inMsgs.size(); i < n; ++i)
+					cs.onMessageReceived(this, inMsgs.take(i));
+			} else {
+				rt.receive(in);
+				for (int i = 1, n = inMsgs.size(); i < n; ++i)
+					rt.receive(inMsgs.take(i));
+			}
 		} finally {
 			inMsgs.release();
 			outMsgs.release();
@@ -823,20 +1648,17 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 			MsgArrayList inMsgs, MsgArrayList outMsgs,
 			IBuffer in, FilterOutput output) {
 		IFilter filter = filters[k];
+		FilterSlot slot = filterSlots(filters).m_slots[k];
 		// mergeContext -start
 		int msgLen = 0;
-		FilterContext context = (FilterContext) withdraw(filter);
-		if (context != null) {
-			IBuffer prevData = context.data();
-			if (prevData != null) {
-				in.drainTo(prevData);
-				in.close();
-				in = prevData;
-			}
-
-			msgLen = context.msgLen();
-			context.close();
-			context = null;
+		IBuffer prevData = slot.m_data;
+		if (prevData != null) {
+			slot.m_data = null;
+			in.drainTo(prevData);
+			in.close();
+			in = prevData;
+
+			msgLen = slot.m_msgLen;
 		}
 		// mergeContext -end
 
@@ -886,24 +1708,59 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 
 		// storeContext - start
 		if (in != null) {
-			context = FilterContext.get();
-			context.data(in);
-			context.msgLen(msgLen);
-			deposit(filter, context);
+			slot.m_data = in;
+			slot.m_msgLen = msgLen;
 		}
 		// storeContext - end
 
 		return true;
 	}
 
+	@SuppressWarnings("unchecked")
+	private ConcurrentHashMap<String, Object> attributes() {
+		ConcurrentHashMap<String, Object> attributes = m_attributes;
+		if (attributes == null) {
+			attributes = new ConcurrentHashMap<String, Object>();
+			if (!m_attributesUpdater.compareAndSet(this, null, attributes))
+				attributes = m_attributes;
+		}
+		return attributes;
+	}
+
+	/**
+	 * Return the filter slots laid out for the given {@code filters}. The
+	 * slots are re-laid out if the filter chain has been recompiled.
+	 */
+	private FilterSlots filterSlots(IFilter[] filters) {
+		for (;;) {
+			FilterSlots slots = m_filterSlots;
+			if (slots == null) {
+				FilterSlots newSlots = new FilterSlots(filters);
+				if (m_filterSlotsUpdater.compareAndSet(this, null, newSlots))
+					return newSlots;
+			} else if (slots.m_filters == filters)
+				return slots;
+			else {
+				FilterSlots newSlots = slots.remap(filters);
+				if (m_filterSlotsUpdater.compareAndSet(this, slots, newSlots)) {
+					slots.clearRemoved(filters);
+					return newSlots;
+				}
+			}
+		}
+	}
+
 	private void onConnectInternal(boolean requireRegister) {
 		try {
 			onConnected();
 
 			m_readThread = new ReadThread(this);
 			m_writeThread = new WriteThread(this);
+			if (m_inlineIo)
+				m_receiveThread = new ReceiveThread(this);
 
 			IChannelService channelService = m_channelService;
+			m_filterSlots = new FilterSlots(channelService.getFilterChain());
 			channelService.onChannelOpened(this);
 
 			IChannelAdmin ca = channelService.getChannelAdmin();
@@ -918,12 +1775,17 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 
 	private boolean onMsgArrive(int index, IFilter[] filters,
 			MsgArrayList outMsgs, Object msg, FilterOutput output) {
-		boolean ok = filters[index].onMsgArrive(this, msg, output);
+		IFilter filter = filters[index];
+		boolean ok = filter.onMsgArrive(this, msg, output);
 		Object out = output.take();
 		if (out == null)
 			return ok;
 
 		if (ok) {
+			// the arrivals resumed by this filter go first
+			ResumedArrivals resumedArrivals = m_resumedArrivals;
+			if (!resumedArrivals.isEmpty())
+				resumedArrivals.takeAll(filter, outMsgs);
 			outMsgs.add(out);
 			return true;
 		}
@@ -945,8 +1807,9 @@ public abstract class Channel implements IChannel, IDumpable, Runnable {
 					"has to produce departure data of type " + IBuffer.class.getName()));
 		}
 
+		// already filtered, not to go through the chain again
 		if (data.remaining() > 0)
-			m_writeThread.write(data);
+			m_writeThread.write(new Departure(data));
 		else
 			data.close();
 
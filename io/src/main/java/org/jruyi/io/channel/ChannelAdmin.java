@@ -15,122 +15,50 @@
  */
 package org.jruyi.io.channel;
 
-import java.io.IOException;
-import java.nio.channels.CancelledKeyException;
-import java.nio.channels.ClosedSelectorException;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.concurrent.RejectedExecutionException;
 
 import org.jruyi.common.StrUtil;
-import org.jruyi.io.common.SyncPutQueue;
 import org.jruyi.timeoutadmin.ITimeoutAdmin;
 import org.jruyi.timeoutadmin.ITimeoutNotifier;
 import org.jruyi.workshop.IWorker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public final class ChannelAdmin implements IChannelAdmin, Runnable {
+public final class ChannelAdmin implements IChannelAdmin {
 
 	private static final Logger m_logger = LoggerFactory
 			.getLogger(ChannelAdmin.class);
-	private SyncPutQueue<ISelectableChannel> m_registerQueue;
-	private SyncPutQueue<ISelectableChannel> m_connectQueue;
-	private SyncPutQueue<ISelectableChannel> m_readQueue;
-	private SyncPutQueue<ISelectableChannel> m_writeQueue;
-	private Thread m_thread;
-	private Selector m_selector;
+	private static final String P_NUMBER_OF_SELECTORS = "numberOfSelectors";
+	private static final String P_KEEP_READ_INTEREST = "keepReadInterest";
+	private static final String P_RESUME_READ_LOAD = "resumeReadLoad";
+	private SelectorThread[] m_sts;
+	private boolean m_keepReadInterest;
 	private IWorker m_worker;
 	private ITimeoutAdmin m_tm;
 
-	@Override
-	public void run() {
-		m_logger.info("ChannelAdmin thread started");
-
-		IWorker worker = m_worker;
-		Selector selector = m_selector;
-		Thread currentThread = Thread.currentThread();
-		try {
-			for (;;) {
-				int n = selector.select();
-				if (currentThread.isInterrupted())
-					break;
-
-				procConnect();
-				procRegister();
-				procRead();
-				procWrite();
-
-				if (n < 1)
-					continue;
-
-				Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
-				while (iter.hasNext()) {
-					SelectionKey key = iter.next();
-					iter.remove();
-
-					ISelectableChannel channel = (ISelectableChannel) key
-							.attachment();
-					try {
-						if (key.isConnectable()) {
-							key.interestOps(key.interestOps()
-									& ~SelectionKey.OP_CONNECT);
-							channel.onConnect();
-						} else {
-							if (key.isReadable()) {
-								key.interestOps(key.interestOps()
-										& ~SelectionKey.OP_READ);
-								worker.run(channel.onRead());
-							}
-
-							if (key.isWritable()) {
-								key.interestOps(key.interestOps()
-										& ~SelectionKey.OP_WRITE);
-								worker.run(channel.onWrite());
-							}
-						}
-					} catch (RejectedExecutionException e) {
-					} catch (CancelledKeyException e) {
-					} catch (Exception e) {
-						m_logger.warn(StrUtil.buildString("Error - ", channel), e);
-					}
-				}
-			}
-		} catch (ClosedSelectorException e) {
-			m_logger.error("Selector closed unexpectedly", e);
-		} catch (IOException e) {
-			m_logger.error("Selector Error", e);
-		} catch (Throwable t) {
-			m_logger.error("Unexpected Error", t);
-		}
-
-		m_logger.info("ChannelAdmin thread stopped");
-	}
-
 	@Override
 	public void onRegisterRequired(ISelectableChannel channel) {
-		m_registerQueue.put(channel);
-		m_selector.wakeup();
+		getSelectorThread(channel).onRegisterRequired(channel);
 	}
 
 	@Override
 	public void onConnectRequired(ISelectableChannel channel) {
-		m_connectQueue.put(channel);
-		m_selector.wakeup();
+		getSelectorThread(channel).onConnectRequired(channel);
 	}
 
 	@Override
 	public void onReadRequired(ISelectableChannel channel) {
-		m_readQueue.put(channel);
-		m_selector.wakeup();
+		getSelectorThread(channel).onReadRequired(channel);
 	}
 
 	@Override
 	public void onWriteRequired(ISelectableChannel channel) {
-		m_writeQueue.put(channel);
-		m_selector.wakeup();
+		getSelectorThread(channel).onWriteRequired(channel);
+	}
+
+	@Override
+	public boolean keepReadInterest() {
+		return m_keepReadInterest;
 	}
 
 	@Override
@@ -157,87 +85,87 @@ public final class ChannelAdmin implements IChannelAdmin, Runnable {
 	protected void activate(Map<String, ?> properties) throws Exception {
 		m_logger.info("Activating ChannelAdmin...");
 
-		m_registerQueue = new SyncPutQueue<ISelectableChannel>();
-		m_connectQueue = new SyncPutQueue<ISelectableChannel>();
-		m_readQueue = new SyncPutQueue<ISelectableChannel>();
-		m_writeQueue = new SyncPutQueue<ISelectableChannel>();
+		int count = numberOfSelectors(properties);
+		boolean keepReadInterest = keepReadInterest(properties);
+		int resumeReadLoad = resumeReadLoad(properties);
+		SelectorThread[] sts = new SelectorThread[count];
+		IWorker worker = m_worker;
+		try {
+			for (int i = 0; i < count; ++i) {
+				SelectorThread st = new SelectorThread(worker,
+						keepReadInterest, resumeReadLoad);
+				st.open(StrUtil.buildString("ChannelAdmin-", i));
+				sts[i] = st;
+			}
+		} catch (Exception e) {
+			for (SelectorThread st : sts) {
+				if (st != null)
+					st.close();
+			}
+			throw e;
+		}
 
-		m_selector = Selector.open();
-		m_thread = new Thread(this, "ChannelAdmin");
-		m_thread.start();
+		m_sts = sts;
+		m_keepReadInterest = keepReadInterest;
 
-		m_logger.info("ChannelAdmin activated");
+		m_logger.info(StrUtil.buildString("ChannelAdmin activated: {"
+				+ P_NUMBER_OF_SELECTORS + "=", count, ", "
+				+ P_KEEP_READ_INTEREST + "=", keepReadInterest, ", "
+				+ P_RESUME_READ_LOAD + "=", resumeReadLoad, "}"));
 	}
 
 	protected void deactivate() {
 		m_logger.info("Deactivating ChannelAdmin...");
 
-		m_thread.interrupt();
-		try {
-			m_thread.join();
-		} catch (InterruptedException e) {
-		} finally {
-			m_thread = null;
-		}
-
-		try {
-			m_selector.close();
-		} catch (Exception e) {
-			m_logger.error("Failed to close the selector", e);
-		}
-		m_selector = null;
-
-		m_writeQueue = null;
-		m_readQueue = null;
-		m_connectQueue = null;
-		m_registerQueue = null;
+		SelectorThread[] sts = m_sts;
+		m_sts = null;
+		for (SelectorThread st : sts)
+			st.close();
 
 		m_logger.info("ChannelAdmin deactivated");
 	}
 
-	IWorker getWorker() {
+	@Override
+	public IWorker getWorker() {
 		return m_worker;
 	}
 
-	private void procRegister() {
-		ISelectableChannel channel = null;
-		SyncPutQueue<ISelectableChannel> registerQueue = m_registerQueue;
-		Selector selector = m_selector;
-		while ((channel = registerQueue.poll()) != null)
-			channel.register(selector, SelectionKey.OP_READ);
+	@Override
+	public void dispatch(ISelectableChannel channel, Runnable job) {
+		getSelectorThread(channel).dispatch(channel, job);
+	}
+
+	// Pins the given channel to one of the selector threads by its ID.
+	private SelectorThread getSelectorThread(ISelectableChannel channel) {
+		SelectorThread[] sts = m_sts;
+		int n = sts.length;
+		if (n == 1)
+			return sts[0];
+
+		return sts[(int) ((channel.id() & Long.MAX_VALUE) % n)];
 	}
 
-	private void procConnect() {
-		ISelectableChannel channel = null;
-		SyncPutQueue<ISelectableChannel> connectQueue = m_connectQueue;
-		Selector selector = m_selector;
-		while ((channel = connectQueue.poll()) != null)
-			channel.register(selector, SelectionKey.OP_CONNECT);
+	private static int numberOfSelectors(Map<String, ?> properties) {
+		Integer value = properties == null ? null : (Integer) properties
+				.get(P_NUMBER_OF_SELECTORS);
+		if (value == null || value < 1)
+			return Runtime.getRuntime().availableProcessors();
+
+		return value;
 	}
 
-	private void procRead() {
-		ISelectableChannel channel = null;
-		SyncPutQueue<ISelectableChannel> readQueue = m_readQueue;
-		while ((channel = readQueue.poll()) != null) {
-			try {
-				channel.interestOps(SelectionKey.OP_READ);
-			} catch (CancelledKeyException e) {
-			} catch (Exception e) {
-				channel.onException(e);
-			}
-		}
+	private static boolean keepReadInterest(Map<String, ?> properties) {
+		Boolean value = properties == null ? null : (Boolean) properties
+				.get(P_KEEP_READ_INTEREST);
+		return value != null && value;
 	}
 
-	private void procWrite() {
-		ISelectableChannel channel = null;
-		SyncPutQueue<ISelectableChannel> writeQueue = m_writeQueue;
-		while ((channel = writeQueue.poll()) != null) {
-			try {
-				channel.interestOps(SelectionKey.OP_WRITE);
-			} catch (CancelledKeyException e) {
-			} catch (Exception e) {
-				channel.onException(e);
-			}
-		}
+	private static int resumeReadLoad(Map<String, ?> properties) {
+		Integer value = properties == null ? null : (Integer) properties
+				.get(P_RESUME_READ_LOAD);
+		if (value == null || value < 1 || value > 100)
+			return 50;
+
+		return value;
 	}
 }
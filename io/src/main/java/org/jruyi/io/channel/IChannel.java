@@ -16,6 +16,7 @@
 package org.jruyi.io.channel;
 
 import org.jruyi.common.IBuffer;
+import org.jruyi.io.IFilter;
 import org.jruyi.io.ISession;
 
 public interface IChannel extends ISession, ISelectableChannel {
@@ -34,6 +35,16 @@ public interface IChannel extends ISession, ISelectableChannel {
 	
 	public void write(Object data, boolean close);
 
+	// Passes the given msg on to the filters after the given filter, as if
+	// the filter's onMsgArrive had output it. For filters completing their
+	// work asynchronously. The msg is passed on on the read path, never
+	// concurrently with a read.
+	public void resumeArrive(IFilter filter, Object msg);
+
+	// Passes the given msg on to the filters before the given filter, as if
+	// the filter's onMsgDepart had output it, and writes out the result.
+	public void resumeDepart(IFilter filter, Object msg);
+
 	public boolean scheduleIdleTimeout(int timeout);
 
 	public boolean scheduleConnectTimeout(int timeout);
@@ -16,6 +16,7 @@
 package org.jruyi.io.channel;
 
 import org.jruyi.timeoutadmin.ITimeoutNotifier;
+import org.jruyi.workshop.IWorker;
 
 public interface IChannelAdmin {
 
@@ -27,5 +28,16 @@ public interface IChannelAdmin {
 
 	public void onWriteRequired(ISelectableChannel channel);
 
+	// If true, OP_READ stays armed while a read is in progress. So there is
+	// no need to call onReadRequired after each read.
+	public boolean keepReadInterest();
+
 	public ITimeoutNotifier createTimeoutNotifier(ISelectableChannel channel);
+
+	public IWorker getWorker();
+
+	// Runs the given job of the channel on the worker. On the selector
+	// thread, the job is held back instead of blocking if the worker is
+	// saturated, and the channel is not read until the job is taken.
+	public void dispatch(ISelectableChannel channel, Runnable job);
 }
@@ -28,6 +28,26 @@ public interface IChannelService {
 
 	public int readThreshold();
 
+	// Bounds of the unit size predicted from the recent reads. The unit size
+	// for reading is not adaptive if maxReadUnitSize is non-positive.
+	public int minReadUnitSize();
+
+	public int maxReadUnitSize();
+
+	// If true, reading, writing and filtering run on the selector thread.
+	// Only onMessageReceived is handed over to the worker.
+	public boolean inlineIo();
+
+	// Writing is suspended once this many bytes of data are queued.
+	// Non-positive to disable.
+	public int writeHighWatermark();
+
+	// Writing is resumed once the queued bytes drop to this value.
+	public int writeLowWatermark();
+
+	// If true, data written while writing is suspended are dropped.
+	public boolean dropOnWriteSuspended();
+
 	public IFilter[] getFilterChain();
 
 	public void onChannelOpened(IChannel channel);
@@ -39,6 +59,10 @@ public interface IChannelService {
 	// The given {@code data} will be closed right after this method returns.
 	public void onMessageSent(IChannel channel, Object msg);
 
+	public void onChannelWriteSuspended(IChannel channel);
+
+	public void onChannelWriteResumed(IChannel channel);
+
 	public void onChannelException(IChannel channel, Throwable t);
 
 	public void onChannelIdleTimedOut(IChannel channel);
@@ -0,0 +1,34 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.io.channel;
+
+import org.jruyi.io.IFilter;
+
+/**
+ * A filter taking the departure data of several messages at once. The data
+ * of the messages batched for writing, as output by the filters after this
+ * filter, is merged before being passed to {@code onMsgDepart}.
+ */
+public interface ICoalescingFilter extends IFilter {
+
+	/**
+	 * Return the number of bytes at which merging stops and the merged data
+	 * departs.
+	 * 
+	 * @return the max bytes to merge
+	 */
+	public int coalesceLimit();
+}
@@ -21,12 +21,19 @@ import org.jruyi.common.ICloseable;
 
 public interface ISelectableChannel extends ICloseable {
 
+	public long id();
+
 	public void onConnect();
 	
+	// Returns null if a read is already in progress.
 	public Runnable onRead();
 
 	public Runnable onWrite();
 
+	// If true, the tasks returned by onRead and onWrite run on the selector
+	// thread instead of the worker.
+	public boolean inlineIo();
+
 	public void onException(Throwable t);
 
 	public void interestOps(int ops);
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.io.channel;
+
+/**
+ * Predicts the unit size for the next read of a channel from the sizes of the
+ * recent reads. The size grows fast when a read fills up the prediction, and
+ * shrinks slowly after two consecutive reads fit in a smaller size.
+ */
+final class ReadSizePredictor {
+
+	private static final int INDEX_INCREMENT = 4;
+	private static final int INDEX_DECREMENT = 1;
+	private static final int INITIAL_SIZE = 1024;
+	// 16, 32, ..., 496, 512, 1024, ..., 2^30
+	private static final int[] SIZE_TABLE;
+	private final int m_minIndex;
+	private final int m_maxIndex;
+	private int m_index;
+	private int m_nextSize;
+	private boolean m_decreaseNow;
+
+	static {
+		int[] sizeTable = new int[31 + 22];
+		int i = 0;
+		for (int size = 16; size < 512; size += 16)
+			sizeTable[i++] = size;
+
+		for (int size = 512; size > 0; size <<= 1)
+			sizeTable[i++] = size;
+
+		SIZE_TABLE = sizeTable;
+	}
+
+	ReadSizePredictor(int minSize, int maxSize) {
+		int minIndex = getSizeTableIndex(minSize);
+		if (SIZE_TABLE[minIndex] < minSize)
+			++minIndex;
+
+		int maxIndex = getSizeTableIndex(maxSize);
+		if (SIZE_TABLE[maxIndex] > maxSize)
+			--maxIndex;
+
+		if (maxIndex < minIndex)
+			maxIndex = minIndex;
+
+		int index = getSizeTableIndex(INITIAL_SIZE);
+		if (index < minIndex)
+			index = minIndex;
+		else if (index > maxIndex)
+			index = maxIndex;
+
+		m_minIndex = minIndex;
+		m_maxIndex = maxIndex;
+		m_index = index;
+		m_nextSize = SIZE_TABLE[index];
+	}
+
+	int nextSize() {
+		return m_nextSize;
+	}
+
+	/**
+	 * Record the number of bytes read upon one wakeup.
+	 */
+	void record(int actualSize) {
+		int index = m_index;
+		if (actualSize <= SIZE_TABLE[Math.max(0, index - INDEX_DECREMENT)]) {
+			if (m_decreaseNow) {
+				index = Math.max(index - INDEX_DECREMENT, m_minIndex);
+				m_index = index;
+				m_nextSize = SIZE_TABLE[index];
+				m_decreaseNow = false;
+			} else
+				m_decreaseNow = true;
+		} else if (actualSize >= m_nextSize) {
+			index = Math.min(index + INDEX_INCREMENT, m_maxIndex);
+			m_index = index;
+			m_nextSize = SIZE_TABLE[index];
+			m_decreaseNow = false;
+		}
+	}
+
+	// Returns the index of the largest size not greater than the given size,
+	// or 0 if there is no such size.
+	private static int getSizeTableIndex(int size) {
+		int[] sizeTable = SIZE_TABLE;
+		int low = 0;
+		int high = sizeTable.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int v = sizeTable[mid];
+			if (size > v)
+				low = mid + 1;
+			else if (size < v)
+				high = mid - 1;
+			else
+				return mid;
+		}
+
+		return high < 0 ? 0 : high;
+	}
+}
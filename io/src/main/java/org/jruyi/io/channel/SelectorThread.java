@@ -0,0 +1,359 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.io.channel;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jruyi.common.StrUtil;
+import org.jruyi.io.common.MpscQueue;
+import org.jruyi.workshop.IWorker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An I/O loop owning one {@code Selector}. Each selectable channel is pinned
+ * to exactly one {@code SelectorThread} by the {@link ChannelAdmin}.
+ */
+final class SelectorThread implements Runnable {
+
+	private static final Logger m_logger = LoggerFactory
+			.getLogger(SelectorThread.class);
+	// interval in milliseconds to check whether paused jobs can resume
+	private static final long RESUME_INTERVAL = 10L;
+	private final MpscQueue<ISelectableChannel> m_registerQueue;
+	private final MpscQueue<ISelectableChannel> m_connectQueue;
+	private final MpscQueue<ISelectableChannel> m_readQueue;
+	private final MpscQueue<ISelectableChannel> m_writeQueue;
+	private final IWorker m_worker;
+	private final boolean m_keepReadInterest;
+	private final int m_resumeReadLoad;
+	// jobs held back because the worker is saturated
+	private final ArrayList<PausedJob> m_pausedJobs;
+	// channels not to read until their held back receiving jobs are taken
+	private final HashSet<ISelectableChannel> m_readPausedChannels;
+	// true if the selector has been or is going to be woken up
+	private final AtomicBoolean m_wakeupPending;
+	private Thread m_thread;
+	private Selector m_selector;
+
+	static final class PausedJob {
+
+		static final int READ = 0;
+		static final int WRITE = 1;
+		// delivering the messages read inline
+		static final int RECEIVE = 2;
+		final ISelectableChannel m_channel;
+		final Runnable m_job;
+		final int m_type;
+
+		PausedJob(ISelectableChannel channel, Runnable job, int type) {
+			m_channel = channel;
+			m_job = job;
+			m_type = type;
+		}
+	}
+
+	SelectorThread(IWorker worker, boolean keepReadInterest,
+			int resumeReadLoad) {
+		m_worker = worker;
+		m_keepReadInterest = keepReadInterest;
+		m_resumeReadLoad = resumeReadLoad;
+		m_pausedJobs = new ArrayList<PausedJob>();
+		m_readPausedChannels = new HashSet<ISelectableChannel>();
+		m_registerQueue = new MpscQueue<ISelectableChannel>();
+		m_connectQueue = new MpscQueue<ISelectableChannel>();
+		m_readQueue = new MpscQueue<ISelectableChannel>();
+		m_writeQueue = new MpscQueue<ISelectableChannel>();
+		m_wakeupPending = new AtomicBoolean();
+	}
+
+	@Override
+	public void run() {
+		Thread currentThread = Thread.currentThread();
+		m_logger.info(StrUtil.buildString(currentThread.getName(), " started"));
+
+		IWorker worker = m_worker;
+		boolean keepReadInterest = m_keepReadInterest;
+		Selector selector = m_selector;
+		ArrayList<PausedJob> pausedJobs = m_pausedJobs;
+		HashSet<ISelectableChannel> readPausedChannels = m_readPausedChannels;
+		try {
+			for (;;) {
+				// Requests queued after this point will wake up the selector.
+				// Those queued before are caught by hasPendingRequests.
+				m_wakeupPending.set(false);
+				int n;
+				if (hasPendingRequests())
+					n = selector.selectNow();
+				else if (pausedJobs.isEmpty())
+					n = selector.select();
+				else
+					n = selector.select(RESUME_INTERVAL);
+
+				if (currentThread.isInterrupted())
+					break;
+
+				procConnect();
+				procRegister();
+				procRead();
+				procWrite();
+
+				if (!pausedJobs.isEmpty())
+					resume(worker);
+
+				if (n < 1)
+					continue;
+
+				Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+				while (iter.hasNext()) {
+					SelectionKey key = iter.next();
+					iter.remove();
+
+					ISelectableChannel channel = (ISelectableChannel) key
+							.attachment();
+					try {
+						if (key.isConnectable()) {
+							key.interestOps(key.interestOps()
+									& ~SelectionKey.OP_CONNECT);
+							channel.onConnect();
+						} else {
+							if (key.isReadable()) {
+								Runnable readThread;
+								if (!readPausedChannels.isEmpty()
+										&& readPausedChannels.contains(channel)) {
+									key.interestOps(key.interestOps()
+											& ~SelectionKey.OP_READ);
+									readThread = null;
+								} else {
+									if (!keepReadInterest)
+										key.interestOps(key.interestOps()
+												& ~SelectionKey.OP_READ);
+									// null if the previous read is still
+									// running
+									readThread = channel.onRead();
+								}
+
+								if (readThread != null) {
+									if (channel.inlineIo())
+										readThread.run();
+									else if (!worker.tryRun(readThread)) {
+										// Stop reading rather than blocking
+										// on the saturated worker. TCP flow
+										// control takes over.
+										if (keepReadInterest)
+											key.interestOps(key.interestOps()
+													& ~SelectionKey.OP_READ);
+										pausedJobs.add(new PausedJob(channel,
+												readThread, PausedJob.READ));
+									}
+								}
+							}
+
+							if (key.isWritable()) {
+								key.interestOps(key.interestOps()
+										& ~SelectionKey.OP_WRITE);
+								Runnable writeThread = channel.onWrite();
+								if (channel.inlineIo())
+									writeThread.run();
+								else if (!worker.tryRun(writeThread))
+									pausedJobs.add(new PausedJob(channel,
+											writeThread, PausedJob.WRITE));
+							}
+						}
+					} catch (RejectedExecutionException e) {
+					} catch (CancelledKeyException e) {
+					} catch (Exception e) {
+						m_logger.warn(StrUtil.buildString("Error - ", channel), e);
+					}
+				}
+			}
+		} catch (ClosedSelectorException e) {
+			m_logger.error("Selector closed unexpectedly", e);
+		} catch (IOException e) {
+			m_logger.error("Selector Error", e);
+		} catch (Throwable t) {
+			m_logger.error("Unexpected Error", t);
+		}
+
+		m_logger.info(StrUtil.buildString(currentThread.getName(), " stopped"));
+	}
+
+	void onRegisterRequired(ISelectableChannel channel) {
+		m_registerQueue.put(channel);
+		wakeup();
+	}
+
+	void onConnectRequired(ISelectableChannel channel) {
+		m_connectQueue.put(channel);
+		wakeup();
+	}
+
+	void onReadRequired(ISelectableChannel channel) {
+		// inline I/O, no need to queue
+		if (Thread.currentThread() == m_thread) {
+			// re-armed once the held back receiving job is taken
+			if (!m_readPausedChannels.contains(channel))
+				interestOps(channel, SelectionKey.OP_READ);
+			return;
+		}
+
+		m_readQueue.put(channel);
+		wakeup();
+	}
+
+	void onWriteRequired(ISelectableChannel channel) {
+		// inline I/O, no need to queue
+		if (Thread.currentThread() == m_thread) {
+			interestOps(channel, SelectionKey.OP_WRITE);
+			return;
+		}
+
+		m_writeQueue.put(channel);
+		wakeup();
+	}
+
+	void dispatch(ISelectableChannel channel, Runnable job) {
+		if (Thread.currentThread() != m_thread) {
+			m_worker.run(job);
+			return;
+		}
+
+		// Hold back the job of inline I/O rather than blocking the selector
+		// on the saturated worker, and stop reading the channel meanwhile.
+		if (!m_worker.tryRun(job)) {
+			m_readPausedChannels.add(channel);
+			m_pausedJobs.add(new PausedJob(channel, job, PausedJob.RECEIVE));
+		}
+	}
+
+	void open(String name) throws Exception {
+		m_selector = Selector.open();
+		m_thread = new Thread(this, name);
+		m_thread.start();
+	}
+
+	void close() {
+		Thread thread = m_thread;
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+			} finally {
+				m_thread = null;
+			}
+		}
+
+		Selector selector = m_selector;
+		if (selector != null) {
+			try {
+				selector.close();
+			} catch (Exception e) {
+				m_logger.error("Failed to close the selector", e);
+			}
+			m_selector = null;
+		}
+	}
+
+	private static void interestOps(ISelectableChannel channel, int ops) {
+		try {
+			channel.interestOps(ops);
+		} catch (CancelledKeyException e) {
+		} catch (Exception e) {
+			channel.onException(e);
+		}
+	}
+
+	private void resume(IWorker worker) {
+		if (worker.queueLoad() >= m_resumeReadLoad)
+			return;
+
+		ArrayList<PausedJob> pausedJobs = m_pausedJobs;
+		int n = pausedJobs.size();
+		int i = 0;
+		try {
+			for (; i < n; ++i) {
+				PausedJob pausedJob = pausedJobs.get(i);
+				if (!worker.tryRun(pausedJob.m_job))
+					break;
+
+				ISelectableChannel channel = pausedJob.m_channel;
+				if (pausedJob.m_type == PausedJob.RECEIVE) {
+					m_readPausedChannels.remove(channel);
+					interestOps(channel, SelectionKey.OP_READ);
+				} else if (pausedJob.m_type == PausedJob.READ
+						&& m_keepReadInterest)
+					// the read does not re-arm OP_READ if it is kept armed
+					interestOps(channel, SelectionKey.OP_READ);
+			}
+		} catch (RejectedExecutionException e) {
+			// the worker is shutdown
+			i = n;
+			m_readPausedChannels.clear();
+		}
+
+		pausedJobs.subList(0, i).clear();
+	}
+
+	private void wakeup() {
+		if (m_wakeupPending.compareAndSet(false, true))
+			m_selector.wakeup();
+	}
+
+	private boolean hasPendingRequests() {
+		return !(m_connectQueue.isEmpty() && m_registerQueue.isEmpty()
+				&& m_readQueue.isEmpty() && m_writeQueue.isEmpty());
+	}
+
+	private void procRegister() {
+		ISelectableChannel channel = null;
+		MpscQueue<ISelectableChannel> registerQueue = m_registerQueue;
+		Selector selector = m_selector;
+		while ((channel = registerQueue.poll()) != null)
+			channel.register(selector, SelectionKey.OP_READ);
+	}
+
+	private void procConnect() {
+		ISelectableChannel channel = null;
+		MpscQueue<ISelectableChannel> connectQueue = m_connectQueue;
+		Selector selector = m_selector;
+		while ((channel = connectQueue.poll()) != null)
+			channel.register(selector, SelectionKey.OP_CONNECT);
+	}
+
+	private void procRead() {
+		ISelectableChannel channel = null;
+		MpscQueue<ISelectableChannel> readQueue = m_readQueue;
+		while ((channel = readQueue.poll()) != null)
+			interestOps(channel, SelectionKey.OP_READ);
+	}
+
+	private void procWrite() {
+		ISelectableChannel channel = null;
+		MpscQueue<ISelectableChannel> writeQueue = m_writeQueue;
+		while ((channel = writeQueue.poll()) != null)
+			interestOps(channel, SelectionKey.OP_WRITE);
+	}
+}
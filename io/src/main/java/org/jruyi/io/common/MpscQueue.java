@@ -0,0 +1,72 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.io.common;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock-free unbounded queue for multiple producers and a single consumer.
+ * <p>
+ * {@code put} may be called from any thread. {@code poll} and
+ * {@code isEmpty} must only be called from the consumer thread.
+ *
+ * @param <E>
+ *            the type of the element
+ */
+public final class MpscQueue<E> {
+
+	// consumer side
+	private Node<E> m_head;
+	// producer side
+	private final AtomicReference<Node<E>> m_tail;
+
+	static final class Node<E> {
+
+		E m_e;
+		volatile Node<E> m_next;
+
+		Node(E e) {
+			m_e = e;
+		}
+	}
+
+	public MpscQueue() {
+		Node<E> stub = new Node<E>(null);
+		m_head = stub;
+		m_tail = new AtomicReference<Node<E>>(stub);
+	}
+
+	public void put(E e) {
+		Node<E> node = new Node<E>(e);
+		// The new node becomes visible to the consumer once it is linked.
+		m_tail.getAndSet(node).m_next = node;
+	}
+
+	public E poll() {
+		Node<E> next = m_head.m_next;
+		if (next == null)
+			return null;
+
+		E e = next.m_e;
+		next.m_e = null;
+		m_head = next;
+		return e;
+	}
+
+	public boolean isEmpty() {
+		return m_head.m_next == null;
+	}
+}
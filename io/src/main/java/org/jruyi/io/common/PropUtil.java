@@ -0,0 +1,37 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.io.common;
+
+import java.util.Map;
+
+/**
+ * Helpers for reading the configuration properties of the components.
+ */
+public final class PropUtil {
+
+	private PropUtil() {
+	}
+
+	/**
+	 * Return the int value of the property of the given {@code name}, or the
+	 * given {@code defaultValue} if the property is not set.
+	 */
+	public static int getInt(Map<String, ?> properties, String name,
+			int defaultValue) {
+		Integer v = (Integer) properties.get(name);
+		return v == null ? defaultValue : v;
+	}
+}
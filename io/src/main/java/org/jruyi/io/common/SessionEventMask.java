@@ -26,6 +26,8 @@ public final class SessionEventMask {
 	private static final int M_READ_TIMEDOUT = 0x0008;
 	private static final int M_CONN_ERROR = 0x0010;
 	private static final int M_RW_ERROR = 0x0020;
+	private static final int M_WRITE_SUSPENDED = 0x0040;
+	private static final int M_WRITE_RESUMED = 0x0080;
 	private static final String[] EVENT_NAMES = {
 		SessionEvent.OPENED.name(),
 		SessionEvent.CLOSED.name(),
@@ -33,6 +35,8 @@ public final class SessionEventMask {
 		SessionEvent.READ_TIMEDOUT.name(),
 		SessionEvent.CONN_ERROR.name(),
 		SessionEvent.RW_ERROR.name(),
+		SessionEvent.WRITE_SUSPENDED.name(),
+		SessionEvent.WRITE_RESUMED.name(),
 	};
 	private static final int[] EVENT_VALS = {
 		M_OPENED,
@@ -41,6 +45,8 @@ public final class SessionEventMask {
 		M_READ_TIMEDOUT,
 		M_CONN_ERROR,
 		M_RW_ERROR,
+		M_WRITE_SUSPENDED,
+		M_WRITE_RESUMED,
 	};
 	private final int m_mask;
 
@@ -79,4 +85,12 @@ public final class SessionEventMask {
 	public boolean notifyRwError() {
 		return (m_mask & M_RW_ERROR) != 0;
 	}
+
+	public boolean notifyWriteSuspended() {
+		return (m_mask & M_WRITE_SUSPENDED) != 0;
+	}
+
+	public boolean notifyWriteResumed() {
+		return (m_mask & M_WRITE_RESUMED) != 0;
+	}
 }
@@ -0,0 +1,185 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.io.filter;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.jruyi.common.IBuffer;
+import org.jruyi.common.StrUtil;
+import org.jruyi.io.Filter;
+import org.jruyi.io.IFilterOutput;
+import org.jruyi.io.ISession;
+import org.jruyi.io.common.PropUtil;
+
+/**
+ * A filter compressing departing messages with the deflate algorithm. Each
+ * message is prefixed with a flag byte telling whether the rest is
+ * compressed, so messages smaller than {@code minSize}, or not shrinking,
+ * pass through as they are. An arriving message that cannot be inflated, or
+ * inflates to more than {@code maxInflatedSize} bytes, closes the session.
+ * <p>
+ * This filter does not split the incoming data. It has to follow a framing
+ * filter, such as the length field filter, in the filter chain.
+ */
+public final class Deflate extends Filter {
+
+	private static final byte RAW = 0;
+	private static final byte DEFLATED = 1;
+	private int m_level;
+	private int m_minSize;
+	private int m_maxInflatedSize;
+	private ArrayBlockingQueue<Deflater> m_deflaters;
+	private ArrayBlockingQueue<Inflater> m_inflaters;
+
+	@Override
+	public boolean onMsgArrive(ISession session, Object msg,
+			IFilterOutput output) {
+		IBuffer data;
+		try {
+			data = (IBuffer) msg;
+		} catch (ClassCastException e) {
+			throw new RuntimeException(
+					"Deflate filter only handles data of type IBuffer");
+		}
+
+		if (data.remaining() < 1) {
+			data.close();
+			return false;
+		}
+
+		byte flag = data.readByte();
+		if (flag == RAW) {
+			data.compact();
+			output.put(data);
+			return true;
+		}
+
+		if (flag != DEFLATED) {
+			data.close();
+			throw new RuntimeException(StrUtil.buildString(
+					"Deflate filter got unknown compression flag: ", flag));
+		}
+
+		IBuffer out = data.newBuffer();
+		Inflater inflater = takeInflater();
+		try {
+			data.inflate(out, inflater, m_maxInflatedSize);
+			output.put(out);
+			out = null;
+			return true;
+		} catch (DataFormatException e) {
+			throw new RuntimeException("Deflate filter failed to inflate", e);
+		} finally {
+			data.close();
+			if (out != null)
+				out.close();
+			putInflater(inflater);
+		}
+	}
+
+	@Override
+	public boolean onMsgDepart(ISession session, Object msg,
+			IFilterOutput output) {
+		IBuffer data;
+		try {
+			data = (IBuffer) msg;
+		} catch (ClassCastException e) {
+			throw new RuntimeException(
+					"Deflate filter only handles data of type IBuffer");
+		}
+
+		int n = data.remaining();
+		if (n >= m_minSize) {
+			IBuffer out = data.newBuffer();
+			out.writeByte(DEFLATED);
+			Deflater deflater = takeDeflater();
+			try {
+				data.mark();
+				data.deflate(out, deflater);
+			} finally {
+				putDeflater(deflater);
+			}
+
+			if (out.size() <= n) {
+				data.close();
+				output.put(out);
+				return true;
+			}
+
+			// not worth it
+			out.close();
+			data.reset();
+		}
+
+		data.headWriteByte(RAW);
+		output.put(data);
+		return true;
+	}
+
+	protected void activate(Map<String, ?> properties) {
+		Integer level = (Integer) properties.get("level");
+		m_level = level == null ? Deflater.DEFAULT_COMPRESSION : level;
+
+		m_minSize = PropUtil.getInt(properties, "minSize", 256);
+
+		int maxInflatedSize = PropUtil.getInt(properties, "maxInflatedSize",
+				1048576);
+		m_maxInflatedSize = maxInflatedSize > 0 ? maxInflatedSize
+				: Integer.MAX_VALUE;
+
+		int poolSize = PropUtil.getInt(properties, "poolSize", 16);
+		if (poolSize < 1)
+			poolSize = 1;
+		m_deflaters = new ArrayBlockingQueue<Deflater>(poolSize);
+		m_inflaters = new ArrayBlockingQueue<Inflater>(poolSize);
+	}
+
+	protected void deactivate() {
+		Deflater deflater;
+		while ((deflater = m_deflaters.poll()) != null)
+			deflater.end();
+
+		Inflater inflater;
+		while ((inflater = m_inflaters.poll()) != null)
+			inflater.end();
+	}
+
+	private Deflater takeDeflater() {
+		Deflater deflater = m_deflaters.poll();
+		return deflater == null ? new Deflater(m_level) : deflater;
+	}
+
+	private void putDeflater(Deflater deflater) {
+		deflater.reset();
+		if (!m_deflaters.offer(deflater))
+			deflater.end();
+	}
+
+	private Inflater takeInflater() {
+		Inflater inflater = m_inflaters.poll();
+		return inflater == null ? new Inflater() : inflater;
+	}
+
+	private void putInflater(Inflater inflater) {
+		inflater.reset();
+		if (!m_inflaters.offer(inflater))
+			inflater.end();
+	}
+}
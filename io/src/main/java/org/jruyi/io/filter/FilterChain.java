@@ -0,0 +1,119 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.io.filter;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+
+import org.jruyi.common.IBufferReader;
+import org.jruyi.common.IServiceHolder;
+import org.jruyi.io.Filter;
+import org.jruyi.io.IFilter;
+import org.jruyi.io.IFilterOutput;
+import org.jruyi.io.ISession;
+
+/**
+ * An immutable snapshot of the filters resolved from a list of service
+ * holders. The snapshot is compiled on first use, and dropped to be compiled
+ * again whenever any of the held filter services changes, so that no filter
+ * service is obtained before a channel needs it.
+ */
+final class FilterChain implements IFilterChain {
+
+	private static final IFilter[] EMPTY = new IFilter[0];
+	private final String[] m_filterIds;
+	private final IServiceHolder<IFilter>[] m_holders;
+	// null if not compiled yet
+	private volatile IFilter[] m_filters;
+
+	FilterChain(String[] filterIds, IServiceHolder<IFilter>[] holders) {
+		m_filterIds = filterIds;
+		m_holders = holders;
+	}
+
+	@Override
+	public IFilter[] filters() {
+		IFilter[] filters = m_filters;
+		return filters != null ? filters : compile();
+	}
+
+	String[] filterIds() {
+		return m_filterIds;
+	}
+
+	boolean contains(IServiceHolder<IFilter> holder) {
+		for (IServiceHolder<IFilter> h : m_holders) {
+			if (h == holder)
+				return true;
+		}
+		return false;
+	}
+
+	synchronized void invalidate() {
+		m_filters = null;
+	}
+
+	private synchronized IFilter[] compile() {
+		IFilter[] result = m_filters;
+		if (result != null)
+			return result;
+
+		IServiceHolder<IFilter>[] holders = m_holders;
+		ArrayList<IFilter> filters = new ArrayList<IFilter>(holders.length);
+		for (IServiceHolder<IFilter> holder : holders) {
+			IFilter filter;
+			try {
+				filter = holder.getService();
+			} catch (RuntimeException e) {
+				// unavailable, fail on use as before
+				filter = new FilterDelegator(holder);
+			}
+
+			if (!isPassThrough(filter))
+				filters.add(filter);
+		}
+
+		result = filters.isEmpty() ? EMPTY : filters
+				.toArray(new IFilter[filters.size()]);
+		m_filters = result;
+		return result;
+	}
+
+	/**
+	 * Test whether the given filter is a {@link Filter} overriding none of its
+	 * pass-through methods.
+	 */
+	private static boolean isPassThrough(IFilter filter) {
+		if (!(filter instanceof Filter))
+			return false;
+
+		Class<?> clazz = filter.getClass();
+		try {
+			return declaredByFilter(clazz.getMethod("tellBoundary",
+					ISession.class, IBufferReader.class))
+					&& declaredByFilter(clazz.getMethod("onMsgArrive",
+							ISession.class, Object.class, IFilterOutput.class))
+					&& declaredByFilter(clazz.getMethod("onMsgDepart",
+							ISession.class, Object.class, IFilterOutput.class));
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	private static boolean declaredByFilter(Method method) {
+		return method.getDeclaringClass() == Filter.class;
+	}
+}
@@ -15,47 +15,76 @@
  */
 package org.jruyi.io.filter;
 
+import java.lang.reflect.Array;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.jruyi.common.IServiceHolder;
 import org.jruyi.common.IServiceHolderManager;
 import org.jruyi.common.ServiceHolderManager;
 import org.jruyi.io.IFilter;
 import org.jruyi.io.IoConstants;
 import org.osgi.framework.BundleContext;
 
-public final class FilterManager implements IFilterManager {
+public final class FilterManager implements IFilterManager,
+		IServiceHolderManager.IListener<IFilter> {
 
-	private static final IFilter[] EMPTY = new IFilter[0];
+	private static final IFilterChain EMPTY = new FilterChain(new String[0],
+			newHolderArray(0));
+	private final CopyOnWriteArrayList<FilterChain> m_chains = new CopyOnWriteArrayList<FilterChain>();
 	private IServiceHolderManager<IFilter> m_manager;
 
 	@Override
-	public IFilter[] getFilters(String[] filterIds) {
+	public IFilterChain getFilters(String[] filterIds) {
 		int n = filterIds.length;
 		if (n < 1)
 			return EMPTY;
 
 		IServiceHolderManager<IFilter> manager = m_manager;
-		IFilter[] filters = new IFilter[n];
+		IServiceHolder<IFilter>[] holders = newHolderArray(n);
 		for (int i = 0; i < n; ++i)
-			filters[i] = new FilterDelegator(manager.getServiceHolder(filterIds[i]));
+			holders[i] = manager.getServiceHolder(filterIds[i]);
 
-		return filters;
+		FilterChain filterChain = new FilterChain(filterIds, holders);
+		m_chains.add(filterChain);
+		return filterChain;
 	}
 
 	@Override
-	public void ungetFilters(String[] filterIds) {
+	public void ungetFilters(IFilterChain filterChain) {
+		if (filterChain == EMPTY || !m_chains.remove(filterChain))
+			return;
+
 		IServiceHolderManager<IFilter> manager = m_manager;
-		for (String filterId : filterIds)
+		for (String filterId : ((FilterChain) filterChain).filterIds())
 			manager.ungetServiceHolder(filterId);
 	}
 
+	@Override
+	public void onServiceChanged(IServiceHolder<IFilter> holder) {
+		for (FilterChain filterChain : m_chains) {
+			if (filterChain.contains(holder))
+				filterChain.invalidate();
+		}
+	}
+
 	protected void activate(BundleContext context) {
 		IServiceHolderManager<IFilter> manager = ServiceHolderManager.newInstance(
 				context, IFilter.class, IoConstants.FILTER_ID);
+		manager.setListener(this);
 		manager.open();
 		m_manager = manager;
 	}
 
 	protected void deactivate() {
+		m_manager.setListener(null);
 		m_manager.close();
 		m_manager = null;
+		m_chains.clear();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static IServiceHolder<IFilter>[] newHolderArray(int n) {
+		return (IServiceHolder<IFilter>[]) Array.newInstance(
+				IServiceHolder.class, n);
 	}
 }
@@ -15,11 +15,9 @@
  */
 package org.jruyi.io.filter;
 
-import org.jruyi.io.IFilter;
-
 public interface IFilterManager {
 
-	public IFilter[] getFilters(String[] filterIds);
+	public IFilterChain getFilters(String[] filterIds);
 
-	public void ungetFilters(String[] filterIds);
+	public void ungetFilters(IFilterChain filterChain);
 }
@@ -0,0 +1,217 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.io.filter;
+
+import java.nio.ByteOrder;
+import java.util.Map;
+
+import org.jruyi.common.IBuffer;
+import org.jruyi.common.IBufferReader;
+import org.jruyi.io.Filter;
+import org.jruyi.io.IFilterOutput;
+import org.jruyi.io.ISession;
+import org.jruyi.io.common.PropUtil;
+
+/**
+ * A filter splitting messages by a fixed size length field of 1, 2, 4 or 8
+ * bytes in either byte order, optionally preceded by {@code lengthFieldOffset}
+ * bytes of other header data.
+ * <p>
+ * The value of the length field plus {@code lengthAdjustment} is the number of
+ * bytes following the length field.
+ */
+public final class LengthField extends Filter {
+
+	private int m_lengthFieldOffset;
+	private int m_lengthFieldSize;
+	private long m_maxLength;
+	private boolean m_bigEndian;
+	private int m_lengthAdjustment;
+	private int m_headerLength;
+	private boolean m_stripHeader;
+	private int m_maxFrameLength;
+
+	@Override
+	public int tellBoundary(ISession session, IBufferReader in) {
+		int headerLength = m_headerLength;
+		if (in.size() < headerLength)
+			return E_UNDERFLOW;
+
+		long length = getLength(in);
+		long frameLength = headerLength + length + m_lengthAdjustment;
+		if (length < 0L || frameLength < headerLength
+				|| frameLength > m_maxFrameLength)
+			return E_ERROR;
+
+		// the length is kept by the session until the frame is complete
+		return (int) frameLength;
+	}
+
+	@Override
+	public boolean onMsgArrive(ISession session, Object msg,
+			IFilterOutput output) {
+		if (m_stripHeader) {
+			IBuffer data = (IBuffer) msg;
+			data.skip(m_headerLength);
+			data.compact();
+		}
+		output.put(msg);
+		return true;
+	}
+
+	@Override
+	public boolean onMsgDepart(ISession session, Object msg,
+			IFilterOutput output) {
+		IBuffer data;
+		try {
+			data = (IBuffer) msg;
+		} catch (ClassCastException e) {
+			throw new RuntimeException(
+					"LengthField filter only handles data of type IBuffer");
+		}
+
+		int headerLength = m_headerLength;
+		long length;
+		long frameLength;
+		if (m_stripHeader) {
+			length = (long) data.length() - m_lengthAdjustment;
+			frameLength = (long) data.length() + headerLength;
+		} else {
+			if (data.length() < headerLength) {
+				data.close();
+				// aborting would leave the departures after it stuck
+				throw new RuntimeException(
+						"LengthField filter got departure data shorter than the header");
+			}
+			length = (long) data.length() - headerLength - m_lengthAdjustment;
+			frameLength = data.length();
+		}
+
+		// a truncated length field would frame the stream wrongly
+		if (length < 0L || length > m_maxLength
+				|| frameLength > m_maxFrameLength) {
+			data.close();
+			throw new RuntimeException("LengthField filter got departure data"
+					+ " of which the frame length is out of range: "
+					+ frameLength);
+		}
+
+		if (m_stripHeader) {
+			// prepend the header, with any bytes before the length field zeroed
+			putLength(data, -1, length);
+			int offset = m_lengthFieldOffset;
+			if (offset > 0)
+				data.headWriteFill((byte) 0, offset);
+		} else
+			// fill in the length field of the header in place
+			putLength(data, m_lengthFieldOffset, length);
+
+		output.put(data);
+		return true;
+	}
+
+	protected void activate(Map<String, ?> properties) {
+		m_lengthFieldOffset = PropUtil.getInt(properties, "lengthFieldOffset", 0);
+		int size = PropUtil.getInt(properties, "lengthFieldSize", 4);
+		if (size != 1 && size != 2 && size != 4 && size != 8)
+			throw new IllegalArgumentException(
+					"lengthFieldSize has to be 1, 2, 4 or 8");
+		m_lengthFieldSize = size;
+		m_maxLength = size < 8 ? (1L << (size << 3)) - 1L : Long.MAX_VALUE;
+
+		String v = (String) properties.get("byteOrder");
+		if (v == null || v.equals(ByteOrder.BIG_ENDIAN.toString()))
+			m_bigEndian = true;
+		else if (v.equals(ByteOrder.LITTLE_ENDIAN.toString()))
+			m_bigEndian = false;
+		else
+			throw new IllegalArgumentException(
+					"byteOrder has to be BIG_ENDIAN or LITTLE_ENDIAN");
+
+		m_lengthAdjustment = PropUtil.getInt(properties, "lengthAdjustment", 0);
+		m_headerLength = m_lengthFieldOffset + size;
+
+		Boolean stripHeader = (Boolean) properties.get("stripHeader");
+		m_stripHeader = stripHeader == null || stripHeader;
+
+		int maxFrameLength = PropUtil.getInt(properties, "maxFrameLength", 0);
+		m_maxFrameLength = maxFrameLength > 0 ? maxFrameLength
+				: Integer.MAX_VALUE;
+	}
+
+	private long getLength(IBufferReader in) {
+		int i = m_lengthFieldOffset;
+		boolean bigEndian = m_bigEndian;
+		switch (m_lengthFieldSize) {
+		case 1:
+			return in.getUByte(i);
+		case 2:
+			return bigEndian ? in.getUShortB(i) : in.getUShortL(i);
+		case 4:
+			return (bigEndian ? in.getIntB(i) : in.getIntL(i)) & 0xFFFFFFFFL;
+		default:
+			return bigEndian ? in.getLongB(i) : in.getLongL(i);
+		}
+	}
+
+	/**
+	 * Write the given {@code length} at the given {@code index}, or to the head
+	 * if {@code index} is negative.
+	 */
+	private void putLength(IBuffer data, int index, long length) {
+		boolean bigEndian = m_bigEndian;
+		switch (m_lengthFieldSize) {
+		case 1:
+			if (index < 0)
+				data.headWriteByte((byte) length);
+			else
+				data.setByte(index, (byte) length);
+			break;
+		case 2:
+			if (index < 0) {
+				if (bigEndian)
+					data.headWriteShortB((short) length);
+				else
+					data.headWriteShortL((short) length);
+			} else if (bigEndian)
+				data.setShortB(index, (short) length);
+			else
+				data.setShortL(index, (short) length);
+			break;
+		case 4:
+			if (index < 0) {
+				if (bigEndian)
+					data.headWriteIntB((int) length);
+				else
+					data.headWriteIntL((int) length);
+			} else if (bigEndian)
+				data.setIntB(index, (int) length);
+			else
+				data.setIntL(index, (int) length);
+			break;
+		default:
+			if (index < 0) {
+				if (bigEndian)
+					data.headWriteLongB(length);
+				else
+					data.headWriteLongL(length);
+			} else if (bigEndian)
+				data.setLongB(index, length);
+			else
+				data.setLongL(index, length);
+		}
+	}
+}
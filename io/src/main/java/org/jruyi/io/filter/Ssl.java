@@ -16,75 +16,284 @@
 package org.jruyi.io.filter;
 
 import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLEngineResult.HandshakeStatus;
 import javax.net.ssl.SSLEngineResult.Status;
+import javax.net.ssl.SSLSessionContext;
 
 import org.jruyi.common.IBuffer;
 import org.jruyi.common.IBufferReader;
 import org.jruyi.common.StrUtil;
-import org.jruyi.io.IFilter;
 import org.jruyi.io.IFilterOutput;
 import org.jruyi.io.ISession;
 import org.jruyi.io.ISslContextInfo;
+import org.jruyi.io.ISslStatistics;
+import org.jruyi.io.channel.IChannel;
+import org.jruyi.io.channel.ICoalescingFilter;
+import org.jruyi.io.common.PropUtil;
 import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public final class Ssl implements IFilter {
+public final class Ssl implements ICoalescingFilter, ISslStatistics {
 
 	private static final Logger m_logger = LoggerFactory.getLogger(Ssl.class);
-	private static final Object SSL_VAR = new Object();
+	// max bytes of plain text in one record
+	private static final int MAX_RECORD_DATA = 16384;
+	// seconds an idle handshake thread waits for tasks before terminating
+	private static final long HANDSHAKE_KEEP_ALIVE = 60L;
 	private SSLContext m_sslContext;
 	private Configuration m_conf;
 	private ISslContextInfo m_sslci;
+	// runs the delegated tasks of the engines, null to run them inline
+	private volatile ThreadPoolExecutor m_handshakeExecutor;
+	private final AtomicLong m_fullHandshakes = new AtomicLong();
+	private final AtomicLong m_abbreviatedHandshakes = new AtomicLong();
 
 	static final class Var {
 
 		private final SSLEngine m_engine;
+		// when the handshake began, to tell whether the session is resumed
+		private final long m_handshakeStart;
 		private IBuffer m_inception;
+		private final ReentrantLock m_lock;
+		// true once the initial handshake is finished
+		private boolean m_established;
+		// true while delegated tasks are outstanding on the handshake
+		// executor, or the data deferred meanwhile is being resumed
+		private boolean m_busy;
+		private final ArrayDeque<IBuffer> m_arrivals;
+		private final ArrayDeque<IBuffer> m_departures;
 
 		Var(SSLEngine engine) {
 			m_engine = engine;
+			m_handshakeStart = System.currentTimeMillis();
+			m_lock = new ReentrantLock();
+			m_arrivals = new ArrayDeque<IBuffer>();
+			m_departures = new ArrayDeque<IBuffer>();
 		}
 
 		SSLEngine engine() {
 			return m_engine;
 		}
 
-		IBuffer inception() {
-			return m_inception;
+		long handshakeStart() {
+			return m_handshakeStart;
 		}
 
 		void inception(IBuffer inception) {
 			m_inception = inception;
 		}
+
+		/**
+		 * Mark the initial handshake finished. A TLSv1.3 client engine reports
+		 * FINISHED again on the session tickets the server sends afterwards.
+		 *
+		 * @return false if it has been marked
+		 */
+		boolean establish() {
+			final ReentrantLock lock = m_lock;
+			lock.lock();
+			try {
+				if (m_established)
+					return false;
+
+				m_established = true;
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		IBuffer takeInception() {
+			final ReentrantLock lock = m_lock;
+			lock.lock();
+			try {
+				IBuffer inception = m_inception;
+				m_inception = null;
+				return inception;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Defer the given {@code data} if delegated tasks are outstanding.
+		 *
+		 * @return true if the data is deferred, otherwise false
+		 */
+		boolean defer(IBuffer data, boolean arrival) {
+			final ReentrantLock lock = m_lock;
+			lock.lock();
+			try {
+				if (!m_busy)
+					return false;
+
+				(arrival ? m_arrivals : m_departures).addLast(data);
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Defer the given {@code data} till the delegated tasks are run. If
+		 * {@code resumed}, the data is being resumed by the caller and goes
+		 * before the other deferred data.
+		 *
+		 * @return true if the caller has to submit the delegated tasks
+		 */
+		boolean await(IBuffer data, boolean arrival, boolean resumed) {
+			final ReentrantLock lock = m_lock;
+			lock.lock();
+			try {
+				ArrayDeque<IBuffer> queue = arrival ? m_arrivals
+						: m_departures;
+				if (resumed) {
+					queue.addFirst(data);
+					return true;
+				}
+
+				queue.addLast(data);
+				if (m_busy)
+					return false;
+
+				m_busy = true;
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		IBuffer pollArrival() {
+			final ReentrantLock lock = m_lock;
+			lock.lock();
+			try {
+				return m_arrivals.pollFirst();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		IBuffer pollDeparture() {
+			final ReentrantLock lock = m_lock;
+			lock.lock();
+			try {
+				return m_departures.pollFirst();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * End the resuming unless more data has been deferred.
+		 *
+		 * @return true if the resuming is ended
+		 */
+		boolean idle() {
+			final ReentrantLock lock = m_lock;
+			lock.lock();
+			try {
+				if (!m_arrivals.isEmpty() || !m_departures.isEmpty())
+					return false;
+
+				m_busy = false;
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void clear() {
+			final ReentrantLock lock = m_lock;
+			lock.lock();
+			try {
+				IBuffer data;
+				while ((data = m_arrivals.pollFirst()) != null)
+					data.close();
+				while ((data = m_departures.pollFirst()) != null)
+					data.close();
+				m_busy = false;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Runs the delegated tasks of an engine on the handshake executor, and
+	 * then resumes the data deferred meanwhile.
+	 */
+	static final class HandshakeTask implements Runnable {
+
+		private final Ssl m_ssl;
+		private final IChannel m_channel;
+		private final Var m_var;
+
+		HandshakeTask(Ssl ssl, IChannel channel, Var var) {
+			m_ssl = ssl;
+			m_channel = channel;
+			m_var = var;
+		}
+
+		@Override
+		public void run() {
+			m_ssl.resume(m_channel, m_var);
+		}
+	}
+
+	static final class HandshakeThreadFactory implements ThreadFactory {
+
+		private static final AtomicInteger m_seed = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			return new Thread(r, StrUtil.buildString("SslHandshake-",
+					m_seed.getAndIncrement()));
+		}
 	}
 
 	static final class Configuration {
 
 		private static final String[] M_PROPS = { "protocol", "provider" };
+		private static final String[] M_HANDSHAKE_PROPS = {
+				"handshakeThreads", "handshakeQueueSize" };
+		private static final String[] M_SESSION_CACHE_PROPS = {
+				"sessionCacheSize", "sessionTimeout" };
 		private static final Method[] m_mProps;
+		private static final Method[] m_mHandshakeProps;
+		private static final Method[] m_mSessionCacheProps;
 		private String m_protocol;
 		private String m_provider;
 		private Boolean m_needClientAuth;
 		private Boolean m_wantClientAuth;
 		private String[] m_enabledProtocols;
 		private String[] m_enabledCipherSuites;
+		private Integer m_handshakeThreads;
+		private Integer m_handshakeQueueSize;
+		private Integer m_sessionCacheSize;
+		private Integer m_sessionTimeout;
 
 		static {
 			Class<Configuration> clazz = Configuration.class;
-			m_mProps = new Method[M_PROPS.length];
-			try {
-				for (int i = 0; i < M_PROPS.length; ++i)
-					m_mProps[i] = clazz.getMethod(M_PROPS[i]);
-			} catch (NoSuchMethodException e) {
-				throw new RuntimeException(e);
-			}
+			m_mProps = getMethods(clazz, M_PROPS);
+			m_mHandshakeProps = getMethods(clazz, M_HANDSHAKE_PROPS);
+			m_mSessionCacheProps = getMethods(clazz, M_SESSION_CACHE_PROPS);
 		}
 
 		public void initialize(Map<String, ?> properties) {
@@ -95,6 +304,14 @@ public final class Ssl implements IFilter {
 			enabledProtocols((String[]) properties.get("enabledProtocols"));
 			enabledCipherSuites((String[]) properties
 					.get("enabledCipherSuites"));
+			handshakeThreads(PropUtil.getInt(properties,
+					"handshakeThreads", 2));
+			handshakeQueueSize(PropUtil.getInt(properties,
+					"handshakeQueueSize", 1024));
+			sessionCacheSize(PropUtil.getInt(properties,
+					"sessionCacheSize", 20480));
+			sessionTimeout(PropUtil.getInt(properties, "sessionTimeout",
+					86400));
 		}
 
 		public void protocol(String protocol) {
@@ -145,8 +362,54 @@ public final class Ssl implements IFilter {
 			return m_enabledCipherSuites;
 		}
 
+		public void handshakeThreads(Integer handshakeThreads) {
+			m_handshakeThreads = handshakeThreads;
+		}
+
+		public Integer handshakeThreads() {
+			return m_handshakeThreads;
+		}
+
+		public void handshakeQueueSize(Integer handshakeQueueSize) {
+			m_handshakeQueueSize = handshakeQueueSize;
+		}
+
+		public Integer handshakeQueueSize() {
+			return m_handshakeQueueSize;
+		}
+
+		public void sessionCacheSize(Integer sessionCacheSize) {
+			m_sessionCacheSize = sessionCacheSize;
+		}
+
+		public Integer sessionCacheSize() {
+			return m_sessionCacheSize;
+		}
+
+		public void sessionTimeout(Integer sessionTimeout) {
+			m_sessionTimeout = sessionTimeout;
+		}
+
+		public Integer sessionTimeout() {
+			return m_sessionTimeout;
+		}
+
 		public boolean isMandatoryChanged(Configuration conf) throws Exception {
-			for (Method m : m_mProps) {
+			return isChanged(m_mProps, conf);
+		}
+
+		public boolean isHandshakeChanged(Configuration conf) throws Exception {
+			return isChanged(m_mHandshakeProps, conf);
+		}
+
+		public boolean isSessionCacheChanged(Configuration conf)
+				throws Exception {
+			return isChanged(m_mSessionCacheProps, conf);
+		}
+
+		private boolean isChanged(Method[] props, Configuration conf)
+				throws Exception {
+			for (Method m : props) {
 				Object v1 = m.invoke(this);
 				Object v2 = m.invoke(conf);
 				if (v1 == v2)
@@ -158,6 +421,17 @@ public final class Ssl implements IFilter {
 
 			return false;
 		}
+
+		private static Method[] getMethods(Class<?> clazz, String[] names) {
+			Method[] methods = new Method[names.length];
+			try {
+				for (int i = 0; i < names.length; ++i)
+					methods[i] = clazz.getMethod(names[i]);
+			} catch (NoSuchMethodException e) {
+				throw new RuntimeException(e);
+			}
+			return methods;
+		}
 	}
 
 	// Byte 0 = SSL record type, if type >= 0x80, SSLv2
@@ -192,57 +466,32 @@ public final class Ssl implements IFilter {
 					"SSL filter only handles data of type IBuffer");
 		}
 
-		Var var = (Var) session.inquiry(SSL_VAR);
+		Var var = (Var) session.filterState(this);
 		if (var == null) {
 			// server mode
-			var = new Var(createEngine(false));
-			session.deposit(SSL_VAR, var);
+			var = new Var(createEngine(session, false));
+			session.filterState(this, var);
 		}
 
-		IBuffer appBuf = data.newBuffer();
-		try {
-			SSLEngine engine = var.engine();
-			for (;;) {
-				SSLEngineResult result = appBuf.unwrap(data, engine);
-				Status status = result.getStatus();
-				if (status == Status.OK) {
-					HandshakeStatus hs = result.getHandshakeStatus();
-					if (hs == HandshakeStatus.NEED_TASK) {
-						runDelegatedTask(engine);
-						continue;
-					}
-
-					if (hs == HandshakeStatus.NEED_UNWRAP)
-						return true;
-					else if (hs == HandshakeStatus.FINISHED) {
-						IBuffer inception = var.inception();
-						if (inception == null)
-							return true;
-						var.inception(null);
+		// delegated tasks outstanding
+		if (var.defer(data, true))
+			return true;
 
-						appBuf.close();
-						appBuf = inception;
-					}
-
-					break;
-				}
+		try {
+			IBuffer appBuf = unwrap((IChannel) session, var, data, false);
+			if (appBuf == null)
+				return true;
 
-				// BUFFER_UNDERFLOW, CLOSED
+			if (appBuf.isEmpty()) {
+				appBuf.close();
 				return true;
 			}
 
-			boolean ret = appBuf.size() > 0;
 			output.put(appBuf);
-			appBuf = null;
-			return ret;
+			return true;
 		} catch (Exception e) {
 			m_logger.error(StrUtil.buildString(session, " failed to unwrap"), e);
 			return false;
-		} finally {
-			data.close();
-
-			if (appBuf != null)
-				appBuf.close();
 		}
 	}
 
@@ -257,52 +506,54 @@ public final class Ssl implements IFilter {
 					"SSL filter only handles data of type IBuffer");
 		}
 
-		Var var = (Var) session.inquiry(SSL_VAR);
+		Var var = (Var) session.filterState(this);
 		if (var == null) {
 			// client mode
-			var = new Var(createEngine(true));
-			session.deposit(SSL_VAR, var);
+			var = new Var(createEngine(session, true));
+			session.filterState(this, var);
 
 			if (!data.isEmpty())
 				var.inception(data.split(data.size()));
 		}
 
-		IBuffer netBuf = data.newBuffer();
-		try {
-			SSLEngine engine = var.engine();
-			for (;;) {
-				SSLEngineResult result = data.wrap(netBuf, engine);
-				Status status = result.getStatus();
-				if (status == Status.OK) {
-					HandshakeStatus hs = result.getHandshakeStatus();
-					if (hs == HandshakeStatus.NEED_TASK) {
-						runDelegatedTask(engine);
-						continue;
-					}
-
-					if (hs == HandshakeStatus.NEED_WRAP) {
-						data.compact();
-						continue;
-					}
+		// delegated tasks outstanding
+		if (var.defer(data, false))
+			return true;
 
-					break;
-				}
+		try {
+			IBuffer netBuf = wrap((IChannel) session, var, data, false);
+			if (netBuf == null)
+				return true;
 
-				return status == Status.BUFFER_UNDERFLOW;
+			if (netBuf.isEmpty()) {
+				netBuf.close();
+				return true;
 			}
 
 			output.put(netBuf);
-			netBuf = null;
+			return true;
 		} catch (Exception e) {
 			m_logger.error(StrUtil.buildString(session, " failed to wrap"), e);
 			return false;
-		} finally {
-			data.close();
-			if (netBuf != null)
-				netBuf.close();
 		}
+	}
+
+	/**
+	 * Small messages departing together are packed into full records.
+	 */
+	@Override
+	public int coalesceLimit() {
+		return MAX_RECORD_DATA;
+	}
 
-		return true;
+	@Override
+	public long fullHandshakes() {
+		return m_fullHandshakes.get();
+	}
+
+	@Override
+	public long abbreviatedHandshakes() {
+		return m_abbreviatedHandshakes.get();
 	}
 
 	protected void setSslContextInfo(ISslContextInfo sslci) {
@@ -323,6 +574,15 @@ public final class Ssl implements IFilter {
 		Configuration newConf = getConf(properties);
 		if (m_conf.isMandatoryChanged(newConf))
 			m_sslContext = createSslContext(newConf);
+		else if (m_conf.isSessionCacheChanged(newConf))
+			configureSessionCache(m_sslContext, newConf);
+
+		if (m_conf.isHandshakeChanged(newConf)) {
+			ThreadPoolExecutor executor = m_handshakeExecutor;
+			m_handshakeExecutor = createHandshakeExecutor(newConf);
+			if (executor != null)
+				executor.shutdown();
+		}
 
 		m_conf = newConf;
 	}
@@ -331,14 +591,248 @@ public final class Ssl implements IFilter {
 			throws Exception {
 		Configuration conf = getConf(properties);
 		m_sslContext = createSslContext(conf);
+		m_handshakeExecutor = createHandshakeExecutor(conf);
 		m_conf = conf;
 	}
 
 	protected void deactivate() {
+		ThreadPoolExecutor executor = m_handshakeExecutor;
+		m_handshakeExecutor = null;
+		if (executor != null)
+			executor.shutdown();
+
 		m_conf = null;
 		m_sslContext = null;
 	}
 
+	/**
+	 * Unwrap the given {@code data}, and send out whatever handshake data the
+	 * engine produces meanwhile. The given data is closed or deferred.
+	 *
+	 * @return the application data, or null if the data is deferred till the
+	 *         delegated tasks are run on the handshake executor
+	 */
+	private IBuffer unwrap(IChannel channel, Var var, IBuffer data,
+			boolean resumed) throws Exception {
+		SSLEngine engine = var.engine();
+		IBuffer appBuf = data.newBuffer();
+		IBuffer netBuf = null;
+		IBuffer empty = null;
+		try {
+			HandshakeStatus hs = engine.getHandshakeStatus();
+			for (;;) {
+				if (hs == HandshakeStatus.NEED_TASK) {
+					ThreadPoolExecutor executor = m_handshakeExecutor;
+					if (executor != null && appBuf.isEmpty()) {
+						depart(channel, netBuf);
+						netBuf = null;
+						IBuffer rest = data;
+						data = null;
+						offload(executor, channel, var, rest, true, resumed);
+						return null;
+					}
+
+					runDelegatedTask(engine);
+					hs = engine.getHandshakeStatus();
+					continue;
+				}
+
+				SSLEngineResult result;
+				if (hs == HandshakeStatus.NEED_WRAP) {
+					if (netBuf == null)
+						netBuf = data.newBuffer();
+					if (empty == null)
+						empty = data.newBuffer();
+					result = empty.wrap(netBuf, engine);
+				} else {
+					if (data.remaining() < 1)
+						break;
+					result = appBuf.unwrap(data, engine);
+				}
+
+				// BUFFER_UNDERFLOW, CLOSED
+				if (result.getStatus() != Status.OK)
+					break;
+
+				hs = result.getHandshakeStatus();
+				if (hs == HandshakeStatus.FINISHED) {
+					onHandshakeFinished(channel, var);
+					IBuffer inception = var.takeInception();
+					if (inception != null) {
+						if (netBuf == null)
+							netBuf = data.newBuffer();
+						wrapInception(engine, inception, netBuf);
+					}
+					hs = engine.getHandshakeStatus();
+				} else if (hs == HandshakeStatus.NOT_HANDSHAKING
+						&& result.bytesConsumed() < 1)
+					break;
+			}
+
+			depart(channel, netBuf);
+			netBuf = null;
+
+			IBuffer out = appBuf;
+			appBuf = null;
+			return out;
+		} finally {
+			if (data != null)
+				data.close();
+			if (appBuf != null)
+				appBuf.close();
+			if (netBuf != null)
+				netBuf.close();
+			if (empty != null)
+				empty.close();
+		}
+	}
+
+	/**
+	 * Wrap the given {@code data}. The given data is closed or deferred.
+	 *
+	 * @return the network data, or null if the data is deferred till the
+	 *         delegated tasks are run on the handshake executor
+	 */
+	private IBuffer wrap(IChannel channel, Var var, IBuffer data,
+			boolean resumed) throws Exception {
+		SSLEngine engine = var.engine();
+		IBuffer netBuf = data.newBuffer();
+		try {
+			for (;;) {
+				SSLEngineResult result = data.wrap(netBuf, engine);
+				if (result.getStatus() != Status.OK)
+					break;
+
+				HandshakeStatus hs = result.getHandshakeStatus();
+				if (hs == HandshakeStatus.NEED_TASK) {
+					ThreadPoolExecutor executor = m_handshakeExecutor;
+					if (executor != null && netBuf.isEmpty()) {
+						IBuffer rest = data;
+						data = null;
+						offload(executor, channel, var, rest, false, resumed);
+						return null;
+					}
+
+					runDelegatedTask(engine);
+					continue;
+				}
+
+				if (hs == HandshakeStatus.NEED_WRAP) {
+					data.compact();
+					continue;
+				}
+
+				if (hs == HandshakeStatus.FINISHED) {
+					onHandshakeFinished(channel, var);
+					IBuffer inception = var.takeInception();
+					if (inception != null)
+						wrapInception(engine, inception, netBuf);
+				}
+
+				// wrap the rest into the following records
+				if (hs == HandshakeStatus.NEED_UNWRAP
+						|| result.bytesConsumed() < 1 || data.remaining() < 1)
+					break;
+			}
+
+			IBuffer out = netBuf;
+			netBuf = null;
+			return out;
+		} finally {
+			if (data != null)
+				data.close();
+			if (netBuf != null)
+				netBuf.close();
+		}
+	}
+
+	/**
+	 * Run on the handshake executor. Runs the delegated tasks, and then filters
+	 * the data deferred meanwhile till none is left, or delegated tasks are
+	 * outstanding again.
+	 */
+	void resume(IChannel channel, Var var) {
+		try {
+			runDelegatedTask(var.engine());
+			do {
+				if (channel.isClosed()) {
+					var.clear();
+					return;
+				}
+
+				IBuffer data;
+				while ((data = var.pollArrival()) != null) {
+					IBuffer appBuf = unwrap(channel, var, data, true);
+					if (appBuf == null)
+						return;
+
+					if (appBuf.isEmpty())
+						appBuf.close();
+					else
+						channel.resumeArrive(this, appBuf);
+				}
+
+				while ((data = var.pollDeparture()) != null) {
+					IBuffer netBuf = wrap(channel, var, data, true);
+					if (netBuf == null)
+						return;
+
+					depart(channel, netBuf);
+				}
+			} while (!var.idle());
+		} catch (Exception e) {
+			m_logger.error(StrUtil.buildString(channel, " failed to handshake"),
+					e);
+			var.clear();
+			channel.close();
+		}
+	}
+
+	/**
+	 * Defer the given {@code data} and submit the delegated tasks to the
+	 * handshake executor, unless they have been submitted.
+	 */
+	private void offload(ThreadPoolExecutor executor, IChannel channel,
+			Var var, IBuffer data, boolean arrival, boolean resumed) {
+		if (!var.await(data, arrival, resumed))
+			return;
+
+		try {
+			executor.execute(new HandshakeTask(this, channel, var));
+		} catch (RejectedExecutionException e) {
+			// too many handshakes in progress
+			var.clear();
+			throw e;
+		}
+	}
+
+	private void onHandshakeFinished(ISession session, Var var) {
+		if (!var.establish())
+			return;
+
+		// a resumed session was created by an earlier handshake
+		boolean resumed = var.engine().getSession().getCreationTime() < var
+				.handshakeStart();
+		if (resumed)
+			m_abbreviatedHandshakes.incrementAndGet();
+		else
+			m_fullHandshakes.incrementAndGet();
+
+		if (m_logger.isDebugEnabled())
+			m_logger.debug(StrUtil.buildString(session, resumed
+					? " resumed SSL session" : " established SSL session"));
+	}
+
+	private void depart(IChannel channel, IBuffer netBuf) {
+		if (netBuf == null)
+			return;
+
+		if (netBuf.isEmpty())
+			netBuf.close();
+		else
+			channel.resumeDepart(this, netBuf);
+	}
+
 	private synchronized SSLContext createSslContext(Configuration conf)
 			throws Exception {
 		String provider = conf.provider();
@@ -349,6 +843,7 @@ public final class Ssl implements IFilter {
 		ISslContextInfo sslci = m_sslci;
 		sslContext.init(sslci.getKeyManagers(), sslci.getCertManagers(),
 				sslci.getSecureRandom());
+		configureSessionCache(sslContext, conf);
 		return sslContext;
 	}
 
@@ -358,8 +853,24 @@ public final class Ssl implements IFilter {
 		return conf;
 	}
 
-	private SSLEngine createEngine(boolean clientMode) {
-		SSLEngine engine = m_sslContext.createSSLEngine();
+	private SSLEngine createEngine(ISession session, boolean clientMode) {
+		SSLEngine engine = null;
+		// client sessions are cached by peer, and resumable only if the
+		// engine is told whom it connects to
+		if (clientMode) {
+			Object remoteAddr = session.remoteAddress();
+			if (remoteAddr instanceof InetSocketAddress) {
+				InetSocketAddress peer = (InetSocketAddress) remoteAddr;
+				InetAddress addr = peer.getAddress();
+				// not to look up the host name
+				String host = addr == null ? peer.getHostName() : addr
+						.getHostAddress();
+				engine = m_sslContext.createSSLEngine(host, peer.getPort());
+			}
+		}
+
+		if (engine == null)
+			engine = m_sslContext.createSSLEngine();
 		Configuration conf = m_conf;
 		if (conf.enabledProtocols() != null)
 			engine.setEnabledProtocols(conf.enabledProtocols());
@@ -374,7 +885,45 @@ public final class Ssl implements IFilter {
 		return engine;
 	}
 
-	private void runDelegatedTask(SSLEngine engine) {
+	private static void configureSessionCache(SSLContext sslContext,
+			Configuration conf) {
+		SSLSessionContext sessionContext = sslContext
+				.getServerSessionContext();
+		if (sessionContext == null)
+			return;
+
+		sessionContext.setSessionCacheSize(conf.sessionCacheSize());
+		sessionContext.setSessionTimeout(conf.sessionTimeout());
+	}
+
+	private static ThreadPoolExecutor createHandshakeExecutor(
+			Configuration conf) {
+		int threads = conf.handshakeThreads();
+		if (threads < 1)
+			return null;
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+				HANDSHAKE_KEEP_ALIVE, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(
+						conf.handshakeQueueSize(), 1)),
+				new HandshakeThreadFactory());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	private static void wrapInception(SSLEngine engine, IBuffer inception,
+			IBuffer netBuf) throws Exception {
+		try {
+			while (inception.remaining() > 0) {
+				if (inception.wrap(netBuf, engine).getStatus() != Status.OK)
+					break;
+			}
+		} finally {
+			inception.close();
+		}
+	}
+
+	private static void runDelegatedTask(SSLEngine engine) {
 		Runnable task;
 		while ((task = engine.getDelegatedTask()) != null)
 			task.run();
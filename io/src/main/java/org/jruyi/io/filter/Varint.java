@@ -0,0 +1,123 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.io.filter;
+
+import java.util.Map;
+
+import org.jruyi.common.IBuffer;
+import org.jruyi.common.IBufferReader;
+import org.jruyi.io.Filter;
+import org.jruyi.io.IFilterOutput;
+import org.jruyi.io.ISession;
+import org.jruyi.io.common.PropUtil;
+
+/**
+ * A filter splitting messages by a length prefix encoded as an unsigned
+ * base-128 varint, least significant group first.
+ */
+public final class Varint extends Filter {
+
+	// an int takes at most 5 groups of 7 bits
+	private static final int MAX_VARINT_SIZE = 5;
+	private boolean m_stripHeader;
+	private int m_maxFrameLength;
+
+	@Override
+	public int tellBoundary(ISession session, IBufferReader in) {
+		int size = in.size();
+		long length = 0L;
+		for (int i = 0; i < MAX_VARINT_SIZE; ++i) {
+			if (i >= size)
+				return E_UNDERFLOW;
+
+			int b = in.getUByte(i);
+			length |= (long) (b & 0x7F) << (i * 7);
+			if (b < 0x80) {
+				long frameLength = length + i + 1;
+				if (frameLength > m_maxFrameLength)
+					return E_ERROR;
+				// the length is kept by the session until the frame is complete
+				return (int) frameLength;
+			}
+		}
+
+		return E_ERROR;
+	}
+
+	@Override
+	public boolean onMsgArrive(ISession session, Object msg,
+			IFilterOutput output) {
+		if (m_stripHeader) {
+			IBuffer data = (IBuffer) msg;
+			int i = 0;
+			while (data.getUByte(i) >= 0x80)
+				++i;
+			data.skip(i + 1);
+			data.compact();
+		}
+		output.put(msg);
+		return true;
+	}
+
+	@Override
+	public boolean onMsgDepart(ISession session, Object msg,
+			IFilterOutput output) {
+		IBuffer data;
+		try {
+			data = (IBuffer) msg;
+		} catch (ClassCastException e) {
+			throw new RuntimeException(
+					"Varint filter only handles data of type IBuffer");
+		}
+
+		int length = data.length();
+		if (m_stripHeader) {
+			int n = 1;
+			while ((length >>> (n * 7)) != 0)
+				++n;
+
+			if ((long) length + n > m_maxFrameLength) {
+				data.close();
+				throw new RuntimeException(
+						"Varint filter got departure data exceeding maxFrameLength: "
+								+ length);
+			}
+
+			// the last group goes first as it is prepended
+			data.headWriteByte((byte) (length >>> (--n * 7)));
+			while (n > 0)
+				data.headWriteByte((byte) ((length >>> (--n * 7)) | 0x80));
+		} else if (length > m_maxFrameLength) {
+			data.close();
+			throw new RuntimeException(
+					"Varint filter got departure data exceeding maxFrameLength: "
+							+ length);
+		}
+
+		output.put(data);
+		return true;
+	}
+
+	protected void activate(Map<String, ?> properties) {
+		Boolean stripHeader = (Boolean) properties.get("stripHeader");
+		m_stripHeader = stripHeader == null || stripHeader;
+
+		int maxFrameLength = PropUtil.getInt(properties, "maxFrameLength",
+				0);
+		m_maxFrameLength = maxFrameLength > 0 ? maxFrameLength
+				: Integer.MAX_VALUE;
+	}
+}
@@ -23,10 +23,18 @@ import org.jruyi.io.common.SessionEventMask;
 
 public class TcpChannelConf {
 
+	private static final String IO_DISPATCH_INLINE = "inline";
+
 	private String m_ip;
 	private Integer m_port;
 	private Integer m_readThreshold;
+	private int m_minReadUnitSize;
+	private int m_maxReadUnitSize;
 	private String[] m_filters;
+	private boolean m_inlineIo;
+	private int m_writeHighWatermark;
+	private int m_writeLowWatermark;
+	private boolean m_dropOnWriteSuspended;
 	private SessionEventMask m_sem;
 	private Boolean m_reuseAddr;
 	private Boolean m_keepAlive;
@@ -41,7 +49,13 @@ public class TcpChannelConf {
 	public void initialize(Map<String, ?> properties) {
 		port((Integer) properties.get("port"));
 		readThreshold((Integer) properties.get("readThreshold"));
+		minReadUnitSize((Integer) properties.get("minReadUnitSize"));
+		maxReadUnitSize((Integer) properties.get("maxReadUnitSize"));
 		filters((String[]) properties.get("filters"));
+		ioDispatch((String) properties.get("ioDispatch"));
+		writeHighWatermark((Integer) properties.get("writeHighWatermark"));
+		writeLowWatermark((Integer) properties.get("writeLowWatermark"));
+		dropOnWriteSuspended((Boolean) properties.get("dropOnWriteSuspended"));
 		sessionEventMask((String[]) properties.get("notifySessionEvents"));
 		reuseAddr((Boolean) properties.get("reuseAddr"));
 		keepAlive((Boolean) properties.get("keepAlive"));
@@ -79,6 +93,22 @@ public class TcpChannelConf {
 		m_readThreshold = readThreshold == null ? 0 : readThreshold;
 	}
 
+	public final int minReadUnitSize() {
+		return m_minReadUnitSize;
+	}
+
+	public final void minReadUnitSize(Integer minReadUnitSize) {
+		m_minReadUnitSize = minReadUnitSize == null ? 64 : minReadUnitSize;
+	}
+
+	public final int maxReadUnitSize() {
+		return m_maxReadUnitSize;
+	}
+
+	public final void maxReadUnitSize(Integer maxReadUnitSize) {
+		m_maxReadUnitSize = maxReadUnitSize == null ? 0 : maxReadUnitSize;
+	}
+
 	public final String[] filters() {
 		return m_filters;
 	}
@@ -87,6 +117,47 @@ public class TcpChannelConf {
 		m_filters = filters == null ? StrUtil.getEmptyStringArray() : filters;
 	}
 
+	public final boolean inlineIo() {
+		return m_inlineIo;
+	}
+
+	public final void ioDispatch(String ioDispatch) {
+		m_inlineIo = IO_DISPATCH_INLINE.equals(ioDispatch);
+	}
+
+	public final int writeHighWatermark() {
+		return m_writeHighWatermark;
+	}
+
+	public final void writeHighWatermark(Integer writeHighWatermark) {
+		m_writeHighWatermark = writeHighWatermark == null ? 0
+				: writeHighWatermark;
+	}
+
+	public final int writeLowWatermark() {
+		int lowWatermark = m_writeLowWatermark;
+		int highWatermark = m_writeHighWatermark;
+		// defaults to half of the high watermark
+		if (lowWatermark < 0 || lowWatermark >= highWatermark)
+			lowWatermark = highWatermark >>> 1;
+
+		return lowWatermark;
+	}
+
+	public final void writeLowWatermark(Integer writeLowWatermark) {
+		m_writeLowWatermark = writeLowWatermark == null ? -1
+				: writeLowWatermark;
+	}
+
+	public final boolean dropOnWriteSuspended() {
+		return m_dropOnWriteSuspended;
+	}
+
+	public final void dropOnWriteSuspended(Boolean dropOnWriteSuspended) {
+		m_dropOnWriteSuspended = dropOnWriteSuspended == null ? false
+				: dropOnWriteSuspended;
+	}
+
 	public final Boolean reuseAddr() {
 		return m_reuseAddr;
 	}
@@ -113,6 +113,20 @@ public final class LongConn extends TcpClient {
 		fireSessionEvent(channel, SessionEvent.READ_TIMEDOUT);
 	}
 
+	@Override
+	public void onChannelWriteSuspended(IChannel channel) {
+		super.onChannelWriteSuspended(channel);
+
+		fireSessionEvent(channel, SessionEvent.WRITE_SUSPENDED);
+	}
+
+	@Override
+	public void onChannelWriteResumed(IChannel channel) {
+		super.onChannelWriteResumed(channel);
+
+		fireSessionEvent(channel, SessionEvent.WRITE_RESUMED);
+	}
+
 	@Override
 	public void onChannelException(IChannel channel, Throwable t) {
 		IMessage message = (IMessage) channel.detach();
@@ -17,13 +17,13 @@ package org.jruyi.io.tcpclient;
 
 import java.lang.reflect.Method;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 
+import org.jruyi.common.ConcurrentLongHashMap;
 import org.jruyi.common.IBufferFactory;
 import org.jruyi.common.Service;
 import org.jruyi.common.StrUtil;
@@ -33,6 +33,7 @@ import org.jruyi.io.SessionEvent;
 import org.jruyi.io.channel.IChannel;
 import org.jruyi.io.channel.IChannelAdmin;
 import org.jruyi.io.channel.IChannelService;
+import org.jruyi.io.filter.IFilterChain;
 import org.jruyi.io.filter.IFilterManager;
 import org.jruyi.io.tcp.TcpChannel;
 import org.jruyi.io.tcp.TcpChannelConf;
@@ -55,9 +56,9 @@ public abstract class TcpClient extends Service implements IEndpoint,
 	private IChannelAdmin m_ca;
 	private IFilterManager m_fm;
 	private IBufferFactory m_bf;
-	private IFilter[] m_filters;
+	private IFilterChain m_filters;
 	private boolean m_closed = true;
-	private ConcurrentHashMap<Object, IChannel> m_channels;
+	private ConcurrentLongHashMap<IChannel> m_channels;
 	private final ReentrantReadWriteLock m_lock = new ReentrantReadWriteLock();
 
 	@Override
@@ -80,20 +81,60 @@ public abstract class TcpClient extends Service implements IEndpoint,
 		return configuration().readThreshold();
 	}
 
+	@Override
+	public int minReadUnitSize() {
+		return configuration().minReadUnitSize();
+	}
+
+	@Override
+	public int maxReadUnitSize() {
+		return configuration().maxReadUnitSize();
+	}
+
+	@Override
+	public boolean inlineIo() {
+		return configuration().inlineIo();
+	}
+
+	@Override
+	public int writeHighWatermark() {
+		return configuration().writeHighWatermark();
+	}
+
+	@Override
+	public int writeLowWatermark() {
+		return configuration().writeLowWatermark();
+	}
+
+	@Override
+	public boolean dropOnWriteSuspended() {
+		return configuration().dropOnWriteSuspended();
+	}
+
 	@Override
 	public final IFilter[] getFilterChain() {
-		return m_filters;
+		return m_filters.filters();
 	}
 
 	@Override
 	public void onChannelClosed(IChannel channel) {
 		m_logger.debug("{}: CLOSED", channel);
 
-		ConcurrentHashMap<Object, IChannel> channels = m_channels;
+		ConcurrentLongHashMap<IChannel> channels = m_channels;
 		if (channels != null)
 			channels.remove(channel.id());
 	}
 
+	@Override
+	public void onChannelWriteSuspended(IChannel channel) {
+		m_logger.debug("{}: WRITE_SUSPENDED", channel);
+	}
+
+	@Override
+	public void onChannelWriteResumed(IChannel channel) {
+		m_logger.debug("{}: WRITE_RESUMED", channel);
+	}
+
 	@Override
 	public void onChannelException(IChannel channel, Throwable t) {
 		try {
@@ -126,7 +167,7 @@ public abstract class TcpClient extends Service implements IEndpoint,
 	public void onChannelOpened(IChannel channel) {
 		m_logger.debug("{}: OPENED", channel);
 
-		Object id = channel.id();
+		long id = channel.id();
 		final ReadLock readLock = m_lock.readLock();
 		if (!readLock.tryLock()) {
 			channel.close();
@@ -210,7 +251,7 @@ public abstract class TcpClient extends Service implements IEndpoint,
 	@Override
 	protected void startInternal() {
 		m_closed = false;
-		m_channels = new ConcurrentHashMap<Object, IChannel>(32);
+		m_channels = new ConcurrentLongHashMap<IChannel>(32);
 	}
 
 	@Override
@@ -223,7 +264,7 @@ public abstract class TcpClient extends Service implements IEndpoint,
 			writeLock.unlock();
 		}
 
-		Collection<IChannel> channels = m_channels.values();
+		List<IChannel> channels = m_channels.values();
 		m_channels = null;
 
 		for (IChannel channel : channels)
@@ -312,8 +353,9 @@ public abstract class TcpClient extends Service implements IEndpoint,
 		if (Arrays.equals(newNames, oldNames))
 			return;
 
+		IFilterChain oldFilters = m_filters;
 		m_filters = fm.getFilters(newNames);
-		fm.ungetFilters(oldNames);
+		fm.ungetFilters(oldFilters);
 	}
 
 	private void fireSessionEvent(IMessage message, SessionEvent event) {
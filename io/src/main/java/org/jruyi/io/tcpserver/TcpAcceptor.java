@@ -24,10 +24,11 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.jruyi.common.StrUtil;
+import org.jruyi.io.common.MpscQueue;
 import org.jruyi.io.common.StopThread;
-import org.jruyi.io.common.SyncPutQueue;
 import org.jruyi.io.tcp.TcpChannel;
 import org.jruyi.workshop.IWorker;
 import org.osgi.service.component.ComponentConstants;
@@ -42,7 +43,8 @@ public final class TcpAcceptor implements ITcpAcceptor, Runnable {
 	private String m_name;
 	private Selector m_selector;
 	private Thread m_thread;
-	private SyncPutQueue<TcpServer> m_queue;
+	private MpscQueue<TcpServer> m_queue;
+	private AtomicBoolean m_wakeupPending;
 	private IWorker m_worker;
 	private ComponentContext m_context;
 
@@ -51,19 +53,23 @@ public final class TcpAcceptor implements ITcpAcceptor, Runnable {
 		SelectableChannel selectableChannel = server.getSelectableChannel();
 		selectableChannel.configureBlocking(false);
 		m_queue.put(server);
-		m_selector.wakeup();
+		if (m_wakeupPending.compareAndSet(false, true))
+			m_selector.wakeup();
 	}
 
 	@Override
 	public void run() {
 		IWorker worker = m_worker;
-		SyncPutQueue<TcpServer> queue = m_queue;
+		MpscQueue<TcpServer> queue = m_queue;
+		AtomicBoolean wakeupPending = m_wakeupPending;
 		Selector selector = m_selector;
 		Thread currentThread = Thread.currentThread();
 		TcpServer server = null;
 		try {
 			for (;;) {
-				int n = selector.select();
+				wakeupPending.set(false);
+				int n = queue.isEmpty() ? selector.select() : selector
+						.selectNow();
 				if (currentThread.isInterrupted())
 					break;
 
@@ -133,7 +139,8 @@ public final class TcpAcceptor implements ITcpAcceptor, Runnable {
 		m_context = context;
 
 		m_selector = Selector.open();
-		m_queue = new SyncPutQueue<TcpServer>();
+		m_queue = new MpscQueue<TcpServer>();
+		m_wakeupPending = new AtomicBoolean();
 		m_thread = new Thread(this, "TcpAcceptor");
 		m_thread.start();
 
@@ -151,6 +158,7 @@ public final class TcpAcceptor implements ITcpAcceptor, Runnable {
 		m_thread = null;
 
 		m_queue = null;
+		m_wakeupPending = null;
 
 		try {
 			m_selector.close();
@@ -23,13 +23,17 @@ import java.net.SocketException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.ServerSocketChannel;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 
+import org.jruyi.common.IBuffer;
+import org.jruyi.common.ConcurrentLongHashMap;
 import org.jruyi.common.IBufferFactory;
 import org.jruyi.common.ICloseable;
 import org.jruyi.common.Service;
@@ -41,6 +45,7 @@ import org.jruyi.io.SessionEvent;
 import org.jruyi.io.channel.IChannel;
 import org.jruyi.io.channel.IChannelAdmin;
 import org.jruyi.io.channel.IChannelService;
+import org.jruyi.io.filter.IFilterChain;
 import org.jruyi.io.filter.IFilterManager;
 import org.jruyi.me.IConsumer;
 import org.jruyi.me.IEndpoint;
@@ -64,11 +69,64 @@ public final class TcpServer extends Service implements IChannelService,
 	private ITcpAcceptor m_acceptor;
 	private IFilterManager m_fm;
 	private IBufferFactory m_bf;
-	private IFilter[] m_filters;
+	private IFilterChain m_filters;
 	private boolean m_closed;
-	private ConcurrentHashMap<Object, IChannel> m_channels;
+	private ConcurrentLongHashMap<IChannel> m_channels;
+	private final ConcurrentHashMap<Object, Group> m_groups =
+			new ConcurrentHashMap<Object, Group>();
 	private final ReentrantReadWriteLock m_lock = new ReentrantReadWriteLock();
 
+	/**
+	 * A session group. It is removed from the server once the last member
+	 * leaves, and can be joined no more.
+	 */
+	static final class Group {
+
+		// channel ID => channel
+		private final ConcurrentLongHashMap<IChannel> m_members =
+				new ConcurrentLongHashMap<IChannel>();
+		private final ReentrantLock m_lock = new ReentrantLock();
+		private boolean m_removed;
+
+		/**
+		 * @return false if this group has been removed
+		 */
+		boolean join(IChannel channel) {
+			final ReentrantLock lock = m_lock;
+			lock.lock();
+			try {
+				if (m_removed)
+					return false;
+
+				m_members.put(channel.id(), channel);
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * @return true if this group is left empty and has to be removed
+		 */
+		boolean leave(long id) {
+			final ReentrantLock lock = m_lock;
+			lock.lock();
+			try {
+				if (m_members.remove(id) == null || !m_members.isEmpty())
+					return false;
+
+				m_removed = true;
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		List<IChannel> members() {
+			return m_members.values();
+		}
+	}
+
 	@Override
 	public Object getConfiguration() {
 		return m_conf;
@@ -89,9 +147,39 @@ public final class TcpServer extends Service implements IChannelService,
 		return m_conf.readThreshold();
 	}
 
+	@Override
+	public int minReadUnitSize() {
+		return m_conf.minReadUnitSize();
+	}
+
+	@Override
+	public int maxReadUnitSize() {
+		return m_conf.maxReadUnitSize();
+	}
+
+	@Override
+	public boolean inlineIo() {
+		return m_conf.inlineIo();
+	}
+
+	@Override
+	public int writeHighWatermark() {
+		return m_conf.writeHighWatermark();
+	}
+
+	@Override
+	public int writeLowWatermark() {
+		return m_conf.writeLowWatermark();
+	}
+
+	@Override
+	public boolean dropOnWriteSuspended() {
+		return m_conf.dropOnWriteSuspended();
+	}
+
 	@Override
 	public IFilter[] getFilterChain() {
-		return m_filters;
+		return m_filters.filters();
 	}
 
 	@Override
@@ -110,6 +198,22 @@ public final class TcpServer extends Service implements IChannelService,
 		throw new UnsupportedOperationException("Not supported yet.");
 	}
 
+	@Override
+	public void onChannelWriteSuspended(IChannel channel) {
+		m_logger.debug("{}: WRITE_SUSPENDED", channel);
+
+		if (m_conf.sessionEventMask().notifyWriteSuspended())
+			fireSessionEvent(channel, SessionEvent.WRITE_SUSPENDED);
+	}
+
+	@Override
+	public void onChannelWriteResumed(IChannel channel) {
+		m_logger.debug("{}: WRITE_RESUMED", channel);
+
+		if (m_conf.sessionEventMask().notifyWriteResumed())
+			fireSessionEvent(channel, SessionEvent.WRITE_RESUMED);
+	}
+
 	@Override
 	public void onChannelException(IChannel channel, Throwable t) {
 		channel.close();
@@ -120,7 +224,7 @@ public final class TcpServer extends Service implements IChannelService,
 	public void onChannelOpened(IChannel channel) {
 		m_logger.debug("{}: OPENED", channel);
 
-		Object id = channel.id();
+		long id = channel.id();
 		final ReadLock readLock = m_lock.readLock();
 		if (!readLock.tryLock()) {
 			channel.close();
@@ -150,9 +254,13 @@ public final class TcpServer extends Service implements IChannelService,
 	public void onChannelClosed(IChannel channel) {
 		m_logger.debug("{}: CLOSED", channel);
 
-		ConcurrentHashMap<Object, IChannel> channels = m_channels;
+		long id = channel.id();
+		ConcurrentLongHashMap<IChannel> channels = m_channels;
 		if (channels != null)
-			channels.remove(channel.id());
+			channels.remove(id);
+
+		for (Entry<Object, Group> entry : m_groups.entrySet())
+			leaveGroup(entry.getKey(), entry.getValue(), id);
 
 		if (m_conf.sessionEventMask().notifyClosed())
 			fireSessionEvent(channel, SessionEvent.CLOSED);
@@ -180,6 +288,12 @@ public final class TcpServer extends Service implements IChannelService,
 				return;
 			}
 
+			Object groupName = message.removeProperty(IoConstants.MP_BROADCAST);
+			if (groupName != null) {
+				broadcast(groupName, data, needCloseChannel(message));
+				return;
+			}
+
 			IChannel channel = getChannel(message);
 			if (channel == null) {
 				m_logger.warn(StrUtil.buildString(this,
@@ -221,8 +335,8 @@ public final class TcpServer extends Service implements IChannelService,
 			bindAddr = InetAddress.getByName(host);
 
 		if (m_channels == null)
-			m_channels = new ConcurrentHashMap<Object, IChannel>(
-				conf.initCapacityOfChannelMap());
+			m_channels = new ConcurrentLongHashMap<IChannel>(
+					conf.initCapacityOfChannelMap());
 
 		ServerSocketChannel ssc = ServerSocketChannel.open();
 		try {
@@ -367,7 +481,7 @@ public final class TcpServer extends Service implements IChannelService,
 	private IChannel getChannel(IMessage message) {
 		Object channelId = message.withdraw(this);
 		if (channelId != null)
-			return m_channels.get(channelId);
+			return m_channels.get((Long) channelId);
 
 		return (IChannel) message.getProperty(IoConstants.MP_PASSIVE_SESSION);
 	}
@@ -389,12 +503,106 @@ public final class TcpServer extends Service implements IChannelService,
 	}
 
 	private void checkAction(IMessage message) {
-		if (!needCloseChannel(message))
+		Object action = message.removeProperty(IoConstants.MP_SESSION_ACTION);
+		if (action == null)
 			return;
 
 		IChannel channel = getChannel(message);
-		if (channel != null)
+		if (channel == null)
+			return;
+
+		if (action == SessionAction.CLOSE)
 			channel.close();
+		else if (action == SessionAction.JOIN_GROUP)
+			joinGroup(channel, message);
+		else if (action == SessionAction.LEAVE_GROUP)
+			leaveGroup(channel, message);
+	}
+
+	private void joinGroup(IChannel channel, IMessage message) {
+		Object groupName = message.getProperty(IoConstants.MP_SESSION_GROUP);
+		if (groupName == null)
+			return;
+
+		// stopping holds the write lock only briefly
+		final ReadLock readLock = m_lock.readLock();
+		readLock.lock();
+		try {
+			if (m_closed) {
+				m_logger.warn(StrUtil.buildString(channel,
+						" failed to join group(server stopped): ", groupName));
+				return;
+			}
+
+			if (channel.isClosed())
+				return;
+
+			ConcurrentHashMap<Object, Group> groups = m_groups;
+			for (;;) {
+				Group group = groups.get(groupName);
+				if (group == null) {
+					group = new Group();
+					Group oldGroup = groups.putIfAbsent(groupName, group);
+					if (oldGroup != null)
+						group = oldGroup;
+				}
+
+				if (group.join(channel))
+					break;
+
+				// the group is being removed as empty
+				groups.remove(groupName, group);
+			}
+		} finally {
+			readLock.unlock();
+		}
+
+		// in case the channel was closed while joining
+		if (channel.isClosed())
+			leaveGroup(channel, message);
+	}
+
+	private void leaveGroup(IChannel channel, IMessage message) {
+		Object groupName = message.getProperty(IoConstants.MP_SESSION_GROUP);
+		if (groupName == null)
+			return;
+
+		Group group = m_groups.get(groupName);
+		if (group != null)
+			leaveGroup(groupName, group, channel.id());
+	}
+
+	private void leaveGroup(Object groupName, Group group, long id) {
+		if (group.leave(id))
+			m_groups.remove(groupName, group);
+	}
+
+	/**
+	 * Write the given data to every member of the given group. The data must
+	 * be a buffer. Each member gets a duplicate sharing its content, and is
+	 * closed after the write if {@code close}.
+	 */
+	private void broadcast(Object groupName, Object data, boolean close) {
+		if (!(data instanceof IBuffer)) {
+			m_logger.warn(StrUtil.buildString(this,
+					" failed to broadcast(not a buffer) to group ", groupName));
+
+			if (data instanceof ICloseable)
+				((ICloseable) data).close();
+			return;
+		}
+
+		IBuffer buffer = (IBuffer) data;
+		try {
+			Group group = m_groups.get(groupName);
+			if (group == null)
+				return;
+
+			for (IChannel channel : group.members())
+				channel.write(buffer.duplicate(), close);
+		} finally {
+			buffer.close();
+		}
 	}
 
 	private void fireSessionEvent(IChannel channel, SessionEvent event) {
@@ -434,16 +642,19 @@ public final class TcpServer extends Service implements IChannelService,
 		if (Arrays.equals(newNames, oldNames))
 			return;
 
+		IFilterChain oldFilters = m_filters;
 		m_filters = fm.getFilters(newNames);
-		fm.ungetFilters(oldNames);
+		fm.ungetFilters(oldFilters);
 	}
 
 	private void closeChannels() {
+		m_groups.clear();
+
 		if (m_channels == null)
 			return;
 
-		if (m_channels.size() > 0) {
-			Collection<IChannel> channels = m_channels.values();
+		if (!m_channels.isEmpty()) {
+			List<IChannel> channels = m_channels.values();
 			for (IChannel channel : channels)
 				channel.close();
 		}
@@ -123,6 +123,11 @@ public class UdpChannel extends Channel {
 		}
 	}
 
+	@Override
+	protected final boolean messageOriented() {
+		return true;
+	}
+
 	@Override
 	protected final ScatteringByteChannel scatteringByteChannel() {
 		return m_datagramChannel;
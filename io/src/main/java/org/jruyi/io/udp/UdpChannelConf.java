@@ -22,9 +22,12 @@ import org.jruyi.common.StrUtil;
 
 public class UdpChannelConf {
 
+	private static final String IO_DISPATCH_INLINE = "inline";
+
 	private String m_ip;
 	private Integer m_port;
 	private String[] m_filters;
+	private boolean m_inlineIo;
 	private Boolean m_reuseAddr;
 	private Integer m_recvBufSize;
 	private Integer m_sendBufSize;
@@ -34,6 +37,7 @@ public class UdpChannelConf {
 	public void initialize(Map<String, ?> properties) {
 		port((Integer) properties.get("port"));
 		filters((String[]) properties.get("filters"));
+		ioDispatch((String) properties.get("ioDispatch"));
 		reuseAddr((Boolean) properties.get("reuseAddr"));
 		recvBufSize((Integer) properties.get("recvBufSize"));
 		sendBufSize((Integer) properties.get("sendBufSize"));
@@ -65,6 +69,14 @@ public class UdpChannelConf {
 		m_filters = filters == null ? StrUtil.getEmptyStringArray() : filters;
 	}
 
+	public final boolean inlineIo() {
+		return m_inlineIo;
+	}
+
+	public final void ioDispatch(String ioDispatch) {
+		m_inlineIo = IO_DISPATCH_INLINE.equals(ioDispatch);
+	}
+
 	public final Boolean reuseAddr() {
 		return m_reuseAddr;
 	}
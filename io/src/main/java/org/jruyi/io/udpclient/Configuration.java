@@ -19,7 +19,7 @@ import java.lang.reflect.Method;
 
 import org.jruyi.io.udp.UdpChannelConf;
 
-final class Configuration extends UdpChannelConf {
+public final class Configuration extends UdpChannelConf {
 
 	public static Method[] getMandatoryPropsAccessors() {
 		// TODO Auto-generated method stub
@@ -30,6 +30,7 @@ import org.jruyi.io.IFilter;
 import org.jruyi.io.channel.IChannel;
 import org.jruyi.io.channel.IChannelAdmin;
 import org.jruyi.io.channel.IChannelService;
+import org.jruyi.io.filter.IFilterChain;
 import org.jruyi.io.filter.IFilterManager;
 import org.jruyi.me.IConsumer;
 import org.jruyi.me.IEndpoint;
@@ -50,7 +51,7 @@ public final class UdpClient extends Service implements IChannelService,
 	private IChannelAdmin m_ca;
 	private IFilterManager m_fm;
 	private IBufferFactory m_bf;
-	private IFilter[] m_filters;
+	private IFilterChain m_filters;
 	private boolean m_closed = true;
 	private volatile IChannel m_channel;
 	private final ReentrantLock m_channelLock = new ReentrantLock();
@@ -112,9 +113,39 @@ public final class UdpClient extends Service implements IChannelService,
 		return 0;
 	}
 
+	@Override
+	public int minReadUnitSize() {
+		return 0;
+	}
+
+	@Override
+	public int maxReadUnitSize() {
+		return 0;
+	}
+
+	@Override
+	public boolean inlineIo() {
+		return m_conf.inlineIo();
+	}
+
+	@Override
+	public int writeHighWatermark() {
+		return 0;
+	}
+
+	@Override
+	public int writeLowWatermark() {
+		return 0;
+	}
+
+	@Override
+	public boolean dropOnWriteSuspended() {
+		return false;
+	}
+
 	@Override
 	public IFilter[] getFilterChain() {
-		return m_filters;
+		return m_filters.filters();
 	}
 
 	@Override
@@ -154,6 +185,14 @@ public final class UdpClient extends Service implements IChannelService,
 	public void onMessageSent(IChannel channel, Object data) {
 	}
 
+	@Override
+	public void onChannelWriteSuspended(IChannel channel) {
+	}
+
+	@Override
+	public void onChannelWriteResumed(IChannel channel) {
+	}
+
 	@Override
 	public void onChannelException(IChannel channel, Throwable t) {
 		channel.close();
@@ -313,7 +352,8 @@ public final class UdpClient extends Service implements IChannelService,
 		if (Arrays.equals(newNames, oldNames))
 			return;
 
+		IFilterChain oldFilters = m_filters;
 		m_filters = fm.getFilters(newNames);
-		fm.ungetFilters(oldNames);
+		fm.ungetFilters(oldFilters);
 	}
 }
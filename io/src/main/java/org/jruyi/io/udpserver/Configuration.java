@@ -19,14 +19,17 @@ import java.lang.reflect.Method;
 import java.util.Map;
 import org.jruyi.io.udp.UdpChannelConf;
 
-final class Configuration extends UdpChannelConf {
+public final class Configuration extends UdpChannelConf {
 
 	private static final String[] M_PROPS = {
-		"bindAddr", "port"
+		"bindAddr", "port", "sharedSocket"
 	};
 	private static final Method[] m_mProps;
+	private static final int DEFAULT_RECEIVE_BATCH_SIZE = 32;
 	private Integer m_sessionIdleTimeout;
 	private Integer m_initCapacityOfChannelMap;
+	private Boolean m_sharedSocket;
+	private int m_receiveBatchSize;
 
 	static {
 		m_mProps = new Method[M_PROPS.length];
@@ -50,6 +53,8 @@ final class Configuration extends UdpChannelConf {
 		bindAddr((String) properties.get("bindAddr"));
 		sessionIdleTimeout((Integer) properties.get("sessionIdleTimeout"));
 		initCapacityOfChannelMap((Integer) properties.get("initCapacityOfChannelMap"));
+		sharedSocket((Boolean) properties.get("sharedSocket"));
+		receiveBatchSize((Integer) properties.get("receiveBatchSize"));
 	}
 
 	public String bindAddr() {
@@ -75,4 +80,22 @@ final class Configuration extends UdpChannelConf {
 	public void initCapacityOfChannelMap(Integer initCapacityOfChannelMap) {
 		m_initCapacityOfChannelMap = initCapacityOfChannelMap;
 	}
+
+	public Boolean sharedSocket() {
+		return m_sharedSocket;
+	}
+
+	public void sharedSocket(Boolean sharedSocket) {
+		m_sharedSocket = sharedSocket == null ? Boolean.FALSE : sharedSocket;
+	}
+
+	public int receiveBatchSize() {
+		return m_receiveBatchSize;
+	}
+
+	public void receiveBatchSize(Integer receiveBatchSize) {
+		m_receiveBatchSize = receiveBatchSize == null
+				|| receiveBatchSize < 1 ? DEFAULT_RECEIVE_BATCH_SIZE
+				: receiveBatchSize;
+	}
 }
@@ -0,0 +1,182 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.io.udpserver;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+import org.jruyi.common.BytesBuilder;
+import org.jruyi.io.channel.Channel;
+import org.jruyi.io.channel.IChannelService;
+
+/**
+ * A peer session of a UDP server in shared socket mode. It sends on the
+ * server's bound socket and is fed by the server channel, instead of having a
+ * connected socket of its own.
+ */
+final class UdpPeerChannel extends Channel {
+
+	private final UdpServerChannel m_serverChannel;
+	private final DatagramChannel m_datagramChannel;
+	private final SocketAddress m_remoteAddress;
+	private final Sender m_sender;
+
+	/**
+	 * Sends each write as one datagram to the peer.
+	 */
+	static final class Sender implements GatheringByteChannel {
+
+		private final DatagramChannel m_datagramChannel;
+		private final SocketAddress m_remoteAddress;
+
+		Sender(DatagramChannel datagramChannel, SocketAddress remoteAddress) {
+			m_datagramChannel = datagramChannel;
+			m_remoteAddress = remoteAddress;
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			return m_datagramChannel.send(src, m_remoteAddress);
+		}
+
+		@Override
+		public long write(ByteBuffer[] srcs, int offset, int length)
+				throws IOException {
+			if (length == 1)
+				return write(srcs[offset]);
+
+			int end = offset + length;
+			int n = 0;
+			for (int i = offset; i < end; ++i)
+				n += srcs[i].remaining();
+
+			// a datagram has to be sent in one piece
+			BytesBuilder builder = BytesBuilder.get(n);
+			try {
+				ByteBuffer bb = builder.getByteBuffer(0, n);
+				for (int i = offset; i < end; ++i) {
+					ByteBuffer src = srcs[i];
+					int position = src.position();
+					bb.put(src);
+					src.position(position);
+				}
+				bb.flip();
+				if (m_datagramChannel.send(bb, m_remoteAddress) == 0)
+					return 0L;
+			} finally {
+				builder.close();
+			}
+
+			for (int i = offset; i < end; ++i) {
+				ByteBuffer src = srcs[i];
+				src.position(src.limit());
+			}
+			return n;
+		}
+
+		@Override
+		public long write(ByteBuffer[] srcs) throws IOException {
+			return write(srcs, 0, srcs.length);
+		}
+
+		@Override
+		public boolean isOpen() {
+			return m_datagramChannel.isOpen();
+		}
+
+		// the shared socket is closed by the server
+		@Override
+		public void close() {
+		}
+	}
+
+	public UdpPeerChannel(IChannelService channelService,
+			UdpServerChannel serverChannel, DatagramChannel datagramChannel,
+			SocketAddress remoteAddress) {
+		super(channelService);
+		m_serverChannel = serverChannel;
+		m_datagramChannel = datagramChannel;
+		m_remoteAddress = remoteAddress;
+		m_sender = new Sender(datagramChannel, remoteAddress);
+	}
+
+	@Override
+	public Object localAddress() {
+		return m_datagramChannel.socket().getLocalSocketAddress();
+	}
+
+	@Override
+	public Object remoteAddress() {
+		return m_remoteAddress;
+	}
+
+	// the shared socket is registered by the server channel only
+	@Override
+	public void register(Selector selector, int ops) {
+	}
+
+	@Override
+	public void interestOps(int ops) {
+		if ((ops & SelectionKey.OP_WRITE) != 0)
+			m_serverChannel.onWriteRequired(this);
+	}
+
+	@Override
+	protected boolean connect() throws Exception {
+		return true;
+	}
+
+	@Override
+	protected void onConnected() throws Exception {
+	}
+
+	@Override
+	protected void onAccepted() throws Exception {
+		throw new UnsupportedOperationException("Not supported yet.");
+	}
+
+	// the shared socket is closed by the server
+	@Override
+	protected void onClose() throws Exception {
+	}
+
+	@Override
+	protected boolean messageOriented() {
+		return true;
+	}
+
+	@Override
+	protected ScatteringByteChannel scatteringByteChannel() {
+		throw new UnsupportedOperationException("Not supported yet.");
+	}
+
+	@Override
+	protected GatheringByteChannel gatheringByteChannel() {
+		return m_sender;
+	}
+
+	@Override
+	protected SelectableChannel selectableChannel() {
+		return m_datagramChannel;
+	}
+}
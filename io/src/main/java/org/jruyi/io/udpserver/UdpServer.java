@@ -37,6 +37,7 @@ import org.jruyi.io.IFilter;
 import org.jruyi.io.channel.IChannel;
 import org.jruyi.io.channel.IChannelAdmin;
 import org.jruyi.io.channel.IChannelService;
+import org.jruyi.io.filter.IFilterChain;
 import org.jruyi.io.filter.IFilterManager;
 import org.jruyi.me.IConsumer;
 import org.jruyi.me.IEndpoint;
@@ -58,7 +59,7 @@ public final class UdpServer extends Service implements IChannelService,
 	private IChannelAdmin m_ca;
 	private IFilterManager m_fm;
 	private IBufferFactory m_bf;
-	private IFilter[] m_filters;
+	private IFilterChain m_filters;
 	private boolean m_closed;
 	private ConcurrentHashMap<Object, IChannel> m_channels;
 	private final ReentrantReadWriteLock m_lock = new ReentrantReadWriteLock();
@@ -83,9 +84,39 @@ public final class UdpServer extends Service implements IChannelService,
 		return 0;
 	}
 
+	@Override
+	public int minReadUnitSize() {
+		return 0;
+	}
+
+	@Override
+	public int maxReadUnitSize() {
+		return 0;
+	}
+
+	@Override
+	public boolean inlineIo() {
+		return m_conf.inlineIo();
+	}
+
+	@Override
+	public int writeHighWatermark() {
+		return 0;
+	}
+
+	@Override
+	public int writeLowWatermark() {
+		return 0;
+	}
+
+	@Override
+	public boolean dropOnWriteSuspended() {
+		return false;
+	}
+
 	@Override
 	public IFilter[] getFilterChain() {
-		return m_filters;
+		return m_filters.filters();
 	}
 
 	@Override
@@ -100,6 +131,14 @@ public final class UdpServer extends Service implements IChannelService,
 		throw new UnsupportedOperationException("Not supported yet.");
 	}
 
+	@Override
+	public void onChannelWriteSuspended(IChannel channel) {
+	}
+
+	@Override
+	public void onChannelWriteResumed(IChannel channel) {
+	}
+
 	@Override
 	public void onChannelException(IChannel channel, Throwable t) {
 		channel.close();
@@ -251,7 +290,7 @@ public final class UdpServer extends Service implements IChannelService,
 
 		m_datagramChannel = datagramChannel;
 		m_ca.onRegisterRequired(new UdpServerChannel(this, datagramChannel,
-				localAddr));
+				localAddr, conf.sharedSocket()));
 
 		m_logger.info(StrUtil.buildString(this, " started: ", conf.port()));
 	}
@@ -332,6 +371,10 @@ public final class UdpServer extends Service implements IChannelService,
 		return m_channels.get(key);
 	}
 
+	int receiveBatchSize() {
+		return m_conf.receiveBatchSize();
+	}
+
 	private static void initSocket(DatagramSocket socket, Configuration conf)
 			throws SocketException {
 
@@ -340,6 +383,17 @@ public final class UdpServer extends Service implements IChannelService,
 		Integer recvBufSize = conf.recvBufSize();
 		if (recvBufSize != null)
 			socket.setReceiveBufferSize(recvBufSize);
+
+		// the bound socket also sends for the peers in shared socket mode
+		if (conf.sharedSocket()) {
+			Integer sendBufSize = conf.sendBufSize();
+			if (sendBufSize != null)
+				socket.setSendBufferSize(sendBufSize);
+
+			Integer trafficClass = conf.trafficClass();
+			if (trafficClass != null)
+				socket.setTrafficClass(trafficClass);
+		}
 	}
 
 	private void updateConf(Configuration newConf) {
@@ -357,8 +411,9 @@ public final class UdpServer extends Service implements IChannelService,
 		if (Arrays.equals(newNames, oldNames))
 			return;
 
+		IFilterChain oldFilters = m_filters;
 		m_filters = fm.getFilters(newNames);
-		fm.ungetFilters(oldNames);
+		fm.ungetFilters(oldFilters);
 	}
 
 	private IChannel getChannel(IMessage message) {
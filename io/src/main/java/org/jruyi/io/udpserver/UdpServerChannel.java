@@ -20,10 +20,16 @@ import java.net.SocketAddress;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.jruyi.common.IBuffer;
+import org.jruyi.common.IBufferFactory;
 import org.jruyi.common.StrUtil;
 import org.jruyi.io.channel.IChannel;
+import org.jruyi.io.channel.IChannelAdmin;
 import org.jruyi.io.channel.ISelectableChannel;
 import org.jruyi.io.udp.UdpChannel;
 import org.slf4j.Logger;
@@ -33,32 +39,98 @@ final class UdpServerChannel implements ISelectableChannel, Runnable {
 
 	private static final Logger m_logger = LoggerFactory
 			.getLogger(UdpServerChannel.class);
+	private static final AtomicLong m_idSeed = new AtomicLong(0L);
+	private final long m_id;
 	private final UdpServer m_udpServer;
 	private final DatagramChannel m_datagramChannel;
 	private final SocketAddress m_localAddr;
+	private final AtomicBoolean m_reading;
+	// true if the peers are served on the bound socket
+	private final boolean m_sharedSocket;
+	private final WriteThread m_writeThread;
 	private SelectionKey m_selectionKey;
+	// the datagrams drained on the current read and their sources
+	private IBuffer[] m_ins;
+	private SocketAddress[] m_remoteAddrs;
+
+	/**
+	 * Resumes the peers blocked on writing to the shared socket once it turns
+	 * writable.
+	 */
+	static final class WriteThread implements Runnable {
+
+		private ArrayList<ISelectableChannel> m_channels;
+		private final ReentrantLock m_lock;
+
+		WriteThread() {
+			m_channels = new ArrayList<ISelectableChannel>();
+			m_lock = new ReentrantLock();
+		}
+
+		@Override
+		public void run() {
+			ArrayList<ISelectableChannel> channels;
+			final ReentrantLock lock = m_lock;
+			lock.lock();
+			try {
+				channels = m_channels;
+				if (channels.isEmpty())
+					return;
+				m_channels = new ArrayList<ISelectableChannel>();
+			} finally {
+				lock.unlock();
+			}
+
+			int n = channels.size();
+			for (int i = 0; i < n; ++i)
+				channels.get(i).onWrite().run();
+		}
+
+		void add(ISelectableChannel channel) {
+			final ReentrantLock lock = m_lock;
+			lock.lock();
+			try {
+				m_channels.add(channel);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
 
 	// runs on read
 	@Override
 	public void run() {
 		UdpServer server = m_udpServer;
+		int n = 0;
 		try {
-			IBuffer in = server.getBufferFactory().create();
-			SocketAddress remoteAddr = in.receive(m_datagramChannel);
-
-			IChannel channel = server.getChannel(remoteAddr);
-			if (channel == null) {
-				DatagramChannel datagramChannel = DatagramChannel.open();
-				DatagramSocket socket = datagramChannel.socket();
-				socket.setReuseAddress(true);
-				socket.bind(m_localAddr);
-				channel = new UdpChannel(server, datagramChannel, remoteAddr);
-				channel.connect(-1);
+			n = drain(server);
+
+			// dispatch the drained datagrams to their sessions, looking up the
+			// session once for consecutive datagrams from the same peer
+			IBuffer[] ins = m_ins;
+			SocketAddress[] remoteAddrs = m_remoteAddrs;
+			SocketAddress remoteAddr = null;
+			IChannel channel = null;
+			for (int i = 0; i < n; ++i) {
+				IBuffer in = ins[i];
+				ins[i] = null;
+				SocketAddress addr = remoteAddrs[i];
+				remoteAddrs[i] = null;
+				if (channel == null || channel.isClosed()
+						|| !addr.equals(remoteAddr)) {
+					remoteAddr = addr;
+					channel = getChannel(server, addr);
+				}
+
+				channel.receive(in);
 			}
 
-			channel.receive(in);
-			server.getChannelAdmin().onReadRequired(this);
+			m_reading.set(false);
+			IChannelAdmin ca = server.getChannelAdmin();
+			if (!ca.keepReadInterest())
+				ca.onReadRequired(this);
 		} catch (Exception e) {
+			release(n);
 			m_logger.error(
 					StrUtil.buildString(server, " failed to receive message"),
 					e);
@@ -67,10 +139,20 @@ final class UdpServerChannel implements ISelectableChannel, Runnable {
 	}
 
 	public UdpServerChannel(UdpServer udpServer,
-			DatagramChannel datagramChannel, SocketAddress localAddr) {
+			DatagramChannel datagramChannel, SocketAddress localAddr,
+			boolean sharedSocket) {
+		m_id = m_idSeed.incrementAndGet();
 		m_udpServer = udpServer;
 		m_datagramChannel = datagramChannel;
 		m_localAddr = localAddr;
+		m_reading = new AtomicBoolean();
+		m_sharedSocket = sharedSocket;
+		m_writeThread = new WriteThread();
+	}
+
+	@Override
+	public long id() {
+		return m_id;
 	}
 
 	@Override
@@ -85,12 +167,17 @@ final class UdpServerChannel implements ISelectableChannel, Runnable {
 
 	@Override
 	public Runnable onRead() {
-		return this;
+		return m_reading.compareAndSet(false, true) ? this : null;
 	}
 
 	@Override
 	public Runnable onWrite() {
-		throw new UnsupportedOperationException("Not supported yet.");
+		return m_writeThread;
+	}
+
+	@Override
+	public boolean inlineIo() {
+		return m_udpServer.inlineIo();
 	}
 
 	@Override
@@ -117,4 +204,90 @@ final class UdpServerChannel implements ISelectableChannel, Runnable {
 			// Ignore
 		}
 	}
+
+	/**
+	 * Receive up to the configured number of datagrams, or until no more is
+	 * pending, into {@code m_ins}.
+	 *
+	 * @return the number of the datagrams received
+	 */
+	private int drain(UdpServer server) throws Exception {
+		int max = server.receiveBatchSize();
+		IBuffer[] ins = m_ins;
+		if (ins == null || ins.length < max) {
+			ins = new IBuffer[max];
+			m_ins = ins;
+			m_remoteAddrs = new SocketAddress[max];
+		}
+
+		SocketAddress[] remoteAddrs = m_remoteAddrs;
+		IBufferFactory bf = server.getBufferFactory();
+		DatagramChannel datagramChannel = m_datagramChannel;
+		int n = 0;
+		while (n < max) {
+			IBuffer in = bf.create();
+			SocketAddress remoteAddr;
+			try {
+				remoteAddr = in.receive(datagramChannel);
+			} catch (Exception e) {
+				in.close();
+				release(n);
+				throw e;
+			}
+
+			if (remoteAddr == null) {
+				in.close();
+				break;
+			}
+
+			ins[n] = in;
+			remoteAddrs[n] = remoteAddr;
+			++n;
+		}
+
+		return n;
+	}
+
+	private IChannel getChannel(UdpServer server, SocketAddress remoteAddr)
+			throws Exception {
+		IChannel channel = server.getChannel(remoteAddr);
+		if (channel != null)
+			return channel;
+
+		if (m_sharedSocket)
+			channel = new UdpPeerChannel(server, this, m_datagramChannel,
+					remoteAddr);
+		else {
+			DatagramChannel datagramChannel = DatagramChannel.open();
+			DatagramSocket socket = datagramChannel.socket();
+			socket.setReuseAddress(true);
+			socket.bind(m_localAddr);
+			channel = new UdpChannel(server, datagramChannel, remoteAddr);
+		}
+		channel.connect(-1);
+		return channel;
+	}
+
+	// close the drained datagrams not yet dispatched
+	private void release(int n) {
+		IBuffer[] ins = m_ins;
+		SocketAddress[] remoteAddrs = m_remoteAddrs;
+		for (int i = 0; i < n; ++i) {
+			IBuffer in = ins[i];
+			if (in != null) {
+				ins[i] = null;
+				in.close();
+			}
+			remoteAddrs[i] = null;
+		}
+	}
+
+	/**
+	 * Called by the given peer if the shared socket cannot take more data for
+	 * now. The peer is resumed once the socket turns writable.
+	 */
+	void onWriteRequired(ISelectableChannel channel) {
+		m_writeThread.add(channel);
+		m_udpServer.getChannelAdmin().onWriteRequired(this);
+	}
 }
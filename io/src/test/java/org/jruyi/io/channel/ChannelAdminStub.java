@@ -0,0 +1,104 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.io.channel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jruyi.common.IArgList;
+import org.jruyi.timeoutadmin.ITimeoutNotifier;
+import org.jruyi.workshop.IRunnable;
+import org.jruyi.workshop.IWorker;
+
+/**
+ * A channel admin without selector threads for driving channels in tests.
+ * Jobs run on the calling thread, and the channels asking for I/O events are
+ * recorded for the test to run their reads and writes.
+ */
+public final class ChannelAdminStub implements IChannelAdmin, IWorker {
+
+	private final List<ISelectableChannel> m_registered = new ArrayList<ISelectableChannel>();
+	private final List<ISelectableChannel> m_writeRequired = new ArrayList<ISelectableChannel>();
+
+	public synchronized List<ISelectableChannel> registered() {
+		return new ArrayList<ISelectableChannel>(m_registered);
+	}
+
+	public synchronized List<ISelectableChannel> writeRequired() {
+		return new ArrayList<ISelectableChannel>(m_writeRequired);
+	}
+
+	@Override
+	public synchronized void onRegisterRequired(ISelectableChannel channel) {
+		m_registered.add(channel);
+	}
+
+	@Override
+	public void onConnectRequired(ISelectableChannel channel) {
+		channel.onConnect();
+	}
+
+	@Override
+	public void onReadRequired(ISelectableChannel channel) {
+	}
+
+	@Override
+	public synchronized void onWriteRequired(ISelectableChannel channel) {
+		m_writeRequired.add(channel);
+	}
+
+	@Override
+	public boolean keepReadInterest() {
+		return true;
+	}
+
+	// no timeouts
+	@Override
+	public ITimeoutNotifier createTimeoutNotifier(ISelectableChannel channel) {
+		return null;
+	}
+
+	@Override
+	public IWorker getWorker() {
+		return this;
+	}
+
+	@Override
+	public void dispatch(ISelectableChannel channel, Runnable job) {
+		job.run();
+	}
+
+	@Override
+	public void run(Runnable job) {
+		job.run();
+	}
+
+	@Override
+	public void run(IRunnable job, IArgList argList) {
+		job.run(argList);
+	}
+
+	@Override
+	public boolean tryRun(Runnable job) {
+		job.run();
+		return true;
+	}
+
+	@Override
+	public int queueLoad() {
+		return 0;
+	}
+}
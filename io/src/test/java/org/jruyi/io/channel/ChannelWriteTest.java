@@ -0,0 +1,427 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.io.channel;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jruyi.common.IBuffer;
+import org.jruyi.common.IBufferFactory;
+import org.jruyi.common.IBufferReader;
+import org.jruyi.common.buffer.BufferFactory;
+import org.jruyi.io.IFilter;
+import org.jruyi.io.IFilterOutput;
+import org.jruyi.io.ISession;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class ChannelWriteTest {
+
+	private BufferFactory m_factory;
+
+	/**
+	 * A channel writing to a pipe.
+	 */
+	static final class PipeChannel extends Channel {
+
+		private final Pipe m_pipe;
+
+		PipeChannel(IChannelService channelService, Pipe pipe) {
+			super(channelService);
+			m_pipe = pipe;
+		}
+
+		@Override
+		public Object localAddress() {
+			return null;
+		}
+
+		@Override
+		public Object remoteAddress() {
+			return null;
+		}
+
+		@Override
+		protected SelectableChannel selectableChannel() {
+			return m_pipe.sink();
+		}
+
+		@Override
+		protected void onAccepted() throws Exception {
+		}
+
+		@Override
+		protected void onClose() throws Exception {
+			m_pipe.sink().close();
+		}
+
+		@Override
+		protected boolean connect() throws Exception {
+			return true;
+		}
+
+		@Override
+		protected void onConnected() throws Exception {
+		}
+
+		@Override
+		protected ScatteringByteChannel scatteringByteChannel() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		protected GatheringByteChannel gatheringByteChannel() {
+			return m_pipe.sink();
+		}
+	}
+
+	static final class ChannelService implements IChannelService {
+
+		private final IChannelAdmin m_ca;
+		private final IBufferFactory m_bf;
+		private final IFilter[] m_filters;
+		final List<Object> m_sent = new ArrayList<Object>();
+		Throwable m_exception;
+
+		ChannelService(IChannelAdmin ca, IBufferFactory bf, IFilter... filters) {
+			m_ca = ca;
+			m_bf = bf;
+			m_filters = filters;
+		}
+
+		@Override
+		public Object getConfiguration() {
+			return null;
+		}
+
+		@Override
+		public IChannelAdmin getChannelAdmin() {
+			return m_ca;
+		}
+
+		@Override
+		public IBufferFactory getBufferFactory() {
+			return m_bf;
+		}
+
+		@Override
+		public int readThreshold() {
+			return 0;
+		}
+
+		@Override
+		public int minReadUnitSize() {
+			return 0;
+		}
+
+		@Override
+		public int maxReadUnitSize() {
+			return 0;
+		}
+
+		@Override
+		public boolean inlineIo() {
+			return false;
+		}
+
+		@Override
+		public int writeHighWatermark() {
+			return 0;
+		}
+
+		@Override
+		public int writeLowWatermark() {
+			return 0;
+		}
+
+		@Override
+		public boolean dropOnWriteSuspended() {
+			return false;
+		}
+
+		@Override
+		public IFilter[] getFilterChain() {
+			return m_filters;
+		}
+
+		@Override
+		public void onChannelOpened(IChannel channel) {
+		}
+
+		@Override
+		public void onChannelClosed(IChannel channel) {
+		}
+
+		@Override
+		public void onMessageReceived(IChannel channel, Object msg) {
+		}
+
+		@Override
+		public void onMessageSent(IChannel channel, Object msg) {
+			m_sent.add(msg);
+		}
+
+		@Override
+		public void onChannelWriteSuspended(IChannel channel) {
+		}
+
+		@Override
+		public void onChannelWriteResumed(IChannel channel) {
+		}
+
+		@Override
+		public void onChannelException(IChannel channel, Throwable t) {
+			m_exception = t;
+			channel.close();
+		}
+
+		@Override
+		public void onChannelIdleTimedOut(IChannel channel) {
+		}
+
+		@Override
+		public void onChannelConnectTimedOut(IChannel channel) {
+		}
+
+		@Override
+		public void onChannelReadTimedOut(IChannel channel) {
+		}
+	}
+
+	/**
+	 * Prepends a two byte length to each departure it gets, and counts them.
+	 */
+	static final class Framer implements ICoalescingFilter {
+
+		private final int m_coalesceLimit;
+		int m_departures;
+
+		Framer(int coalesceLimit) {
+			m_coalesceLimit = coalesceLimit;
+		}
+
+		@Override
+		public int coalesceLimit() {
+			return m_coalesceLimit;
+		}
+
+		@Override
+		public int tellBoundary(ISession session, IBufferReader in) {
+			return in.length() < 2 ? E_UNDERFLOW : in.getUShortB(0) + 2;
+		}
+
+		@Override
+		public boolean onMsgArrive(ISession session, Object msg,
+				IFilterOutput output) {
+			output.put(msg);
+			return true;
+		}
+
+		@Override
+		public boolean onMsgDepart(ISession session, Object msg,
+				IFilterOutput output) {
+			IBuffer data = (IBuffer) msg;
+			data.headWriteShortB((short) data.remaining());
+			++m_departures;
+			output.put(data);
+			return true;
+		}
+	}
+
+	@BeforeClass
+	public void setUp() throws Exception {
+		System.out.println("Testing Channel writing...");
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put("unitCapacity", 8);
+		m_factory = new BufferFactory();
+		Method activate = BufferFactory.class.getDeclaredMethod("activate",
+				Map.class);
+		activate.setAccessible(true);
+		activate.invoke(m_factory, props);
+	}
+
+	@Test
+	public void test_coalesceBatch() throws Exception {
+		ChannelAdminStub ca = new ChannelAdminStub();
+		Framer framer = new Framer(16 * 1024);
+		ChannelService cs = new ChannelService(ca, m_factory, framer);
+		Pipe pipe = Pipe.open();
+		PipeChannel channel = open(cs, pipe);
+		try {
+			// the first message stays pending, so the others are batched
+			int filled = fill(pipe);
+			IBuffer[] msgs = createMsgs(10, 5);
+			channel.write(msgs[0], false);
+			Assert.assertEquals(ca.writeRequired().size(), 1);
+			for (int i = 1; i < msgs.length; ++i)
+				channel.write(msgs[i], false);
+			Assert.assertTrue(cs.m_sent.isEmpty());
+
+			Assert.assertEquals(drain(pipe).length, filled);
+			channel.onWrite().run();
+
+			// one departure for the pending message, one for the batch
+			assertSent(cs, msgs);
+			Assert.assertEquals(framer.m_departures, 2);
+			assertFrames(drain(pipe), msgs.length, 5, 1, 9);
+		} finally {
+			channel.close();
+			pipe.source().close();
+		}
+	}
+
+	@Test
+	public void test_coalesceLimit() throws Exception {
+		ChannelAdminStub ca = new ChannelAdminStub();
+		// every two messages of 5 bytes reach the limit
+		Framer framer = new Framer(10);
+		ChannelService cs = new ChannelService(ca, m_factory, framer);
+		Pipe pipe = Pipe.open();
+		PipeChannel channel = open(cs, pipe);
+		try {
+			fill(pipe);
+			IBuffer[] msgs = createMsgs(8, 5);
+			for (IBuffer msg : msgs)
+				channel.write(msg, false);
+
+			drain(pipe);
+			channel.onWrite().run();
+
+			assertSent(cs, msgs);
+			Assert.assertEquals(framer.m_departures, 5);
+			assertFrames(drain(pipe), msgs.length, 5, 1, 2, 2, 2, 1);
+		} finally {
+			channel.close();
+			pipe.source().close();
+		}
+	}
+
+	@Test
+	public void test_partialWrite() throws Exception {
+		ChannelAdminStub ca = new ChannelAdminStub();
+		Framer framer = new Framer(8000);
+		ChannelService cs = new ChannelService(ca, m_factory, framer);
+		Pipe pipe = Pipe.open();
+		PipeChannel channel = open(cs, pipe);
+		try {
+			// more than the pipe takes at once, so the shared departures are
+			// written out over several write events
+			fill(pipe);
+			IBuffer[] msgs = createMsgs(31, 4000);
+			for (IBuffer msg : msgs)
+				channel.write(msg, false);
+
+			drain(pipe);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			int writes = 0;
+			while (cs.m_sent.size() < msgs.length) {
+				Assert.assertTrue(++writes < 1000);
+				channel.onWrite().run();
+				Assert.assertNull(cs.m_exception);
+				out.write(drain(pipe));
+			}
+
+			Assert.assertTrue(writes > 1);
+			assertSent(cs, msgs);
+			Assert.assertEquals(framer.m_departures, 16);
+			assertFrames(out.toByteArray(), msgs.length, 4000, 1, 2, 2, 2,
+					2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2);
+		} finally {
+			channel.close();
+			pipe.source().close();
+		}
+	}
+
+	private PipeChannel open(IChannelService cs, Pipe pipe) throws Exception {
+		PipeChannel channel = new PipeChannel(cs, pipe);
+		// as accepted
+		channel.run();
+		pipe.source().configureBlocking(false);
+		return channel;
+	}
+
+	private IBuffer[] createMsgs(int count, int length) {
+		IBuffer[] msgs = new IBuffer[count];
+		for (int i = 0; i < count; ++i) {
+			IBuffer msg = m_factory.create();
+			msg.writeFill((byte) i, length);
+			msgs[i] = msg;
+		}
+		return msgs;
+	}
+
+	private static void assertSent(ChannelService cs, IBuffer[] msgs) {
+		Assert.assertNull(cs.m_exception);
+		Assert.assertEquals(cs.m_sent.size(), msgs.length);
+		for (int i = 0; i < msgs.length; ++i)
+			Assert.assertSame(cs.m_sent.get(i), msgs[i]);
+	}
+
+	/**
+	 * Check the given {@code bytes} are frames of the given numbers of
+	 * messages, in order.
+	 */
+	private static void assertFrames(byte[] bytes, int count, int length,
+			int... frames) {
+		Assert.assertEquals(bytes.length, frames.length * 2 + count * length);
+		int i = 0;
+		int k = 0;
+		for (int frame : frames) {
+			int n = (bytes[i] & 0xFF) << 8 | (bytes[i + 1] & 0xFF);
+			Assert.assertEquals(n, frame * length);
+			i += 2;
+			for (int end = i + n; i < end; ++k) {
+				for (int j = 0; j < length; ++j)
+					Assert.assertEquals(bytes[i++], (byte) k);
+			}
+		}
+		Assert.assertEquals(k, count);
+	}
+
+	/**
+	 * Fill the pipe up till it takes no more.
+	 */
+	private static int fill(Pipe pipe) throws Exception {
+		ByteBuffer bb = ByteBuffer.allocate(4096);
+		int filled = 0;
+		int n;
+		while ((n = pipe.sink().write(bb)) > 0) {
+			filled += n;
+			bb.clear();
+		}
+		return filled;
+	}
+
+	private static byte[] drain(Pipe pipe) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteBuffer bb = ByteBuffer.allocate(4096);
+		while (pipe.source().read(bb) > 0) {
+			out.write(bb.array(), 0, bb.position());
+			bb.clear();
+		}
+		return out.toByteArray();
+	}
+}
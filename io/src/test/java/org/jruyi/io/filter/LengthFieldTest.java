@@ -0,0 +1,236 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.io.filter;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jruyi.common.IBuffer;
+import org.jruyi.common.buffer.BufferFactory;
+import org.jruyi.io.IFilter;
+import org.jruyi.io.IFilterOutput;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class LengthFieldTest {
+
+	private static final int[] FIELD_SIZES = { 1, 2, 4, 8 };
+	private static final String[] BYTE_ORDERS = { "BIG_ENDIAN",
+			"LITTLE_ENDIAN" };
+	private BufferFactory m_factory;
+
+	static final class Output implements IFilterOutput {
+
+		final List<Object> m_outs = new ArrayList<Object>();
+
+		@Override
+		public void put(Object out) {
+			m_outs.add(out);
+		}
+	}
+
+	@DataProvider(name = "fields")
+	public Object[][] createFields() {
+		Object[][] data = new Object[FIELD_SIZES.length * BYTE_ORDERS.length][];
+		int n = 0;
+		for (int size : FIELD_SIZES) {
+			for (String byteOrder : BYTE_ORDERS)
+				data[n++] = new Object[] { size, byteOrder };
+		}
+		return data;
+	}
+
+	@BeforeClass
+	public void setUp() throws Exception {
+		System.out.println("Testing LengthField...");
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put("unitCapacity", 8);
+		m_factory = new BufferFactory();
+		Method activate = BufferFactory.class.getDeclaredMethod("activate",
+				Map.class);
+		activate.setAccessible(true);
+		activate.invoke(m_factory, props);
+	}
+
+	@Test(dataProvider = "fields")
+	public void test_partialFrame(int size, String byteOrder) {
+		LengthField filter = createFilter(size, byteOrder, 3, 0, false, 0);
+		byte[] payload = createBytes(21);
+		IBuffer frame = m_factory.create();
+		frame.writeFill((byte) 0, 3 + size);
+		frame.writeBytes(payload);
+		Assert.assertTrue(filter.onMsgDepart(null, frame, new Output()));
+		byte[] bytes = frame.readBytes();
+		Assert.assertEquals(bytes.length, 3 + size + 21);
+
+		// the boundary is unknown until the whole header is there
+		IBuffer in = m_factory.create();
+		for (int i = 0; i < bytes.length; ++i) {
+			int boundary = filter.tellBoundary(null, in);
+			if (i < 3 + size)
+				Assert.assertEquals(boundary, IFilter.E_UNDERFLOW);
+			else
+				Assert.assertEquals(boundary, bytes.length);
+			in.writeByte(bytes[i]);
+		}
+		Assert.assertEquals(filter.tellBoundary(null, in), bytes.length);
+	}
+
+	@Test(dataProvider = "fields")
+	public void test_stripHeader(int size, String byteOrder) {
+		// the length field counts the whole frame
+		int headerLength = 2 + size;
+		LengthField filter = createFilter(size, byteOrder, 2, -headerLength,
+				true, 0);
+		byte[] payload = createBytes(37);
+		IBuffer data = m_factory.create();
+		data.writeBytes(payload);
+
+		Output output = new Output();
+		Assert.assertTrue(filter.onMsgDepart(null, data, output));
+		Assert.assertEquals(output.m_outs.size(), 1);
+		IBuffer frame = (IBuffer) output.m_outs.get(0);
+		Assert.assertEquals(frame.size(), headerLength + payload.length);
+		Assert.assertEquals(frame.getUByte(0), 0);
+		Assert.assertEquals(frame.getUByte(1), 0);
+		Assert.assertEquals(getLength(frame, 2, size, byteOrder),
+				(long) frame.size());
+		Assert.assertEquals(filter.tellBoundary(null, frame), frame.size());
+
+		output = new Output();
+		Assert.assertTrue(filter.onMsgArrive(null, frame, output));
+		IBuffer msg = (IBuffer) output.m_outs.get(0);
+		Assert.assertEquals(msg.readBytes(), payload);
+	}
+
+	@Test(dataProvider = "fields")
+	public void test_keepHeader(int size, String byteOrder) {
+		// two bytes trailing the length field are not counted
+		LengthField filter = createFilter(size, byteOrder, 1, 2, false, 0);
+		byte[] payload = createBytes(19);
+		IBuffer data = m_factory.create();
+		data.writeByte((byte) 0x7F);
+		data.writeFill((byte) 0, size);
+		data.writeBytes(payload);
+
+		Output output = new Output();
+		Assert.assertTrue(filter.onMsgDepart(null, data, output));
+		IBuffer frame = (IBuffer) output.m_outs.get(0);
+		Assert.assertEquals(frame.size(), 1 + size + payload.length);
+		Assert.assertEquals(frame.getUByte(0), 0x7F);
+		Assert.assertEquals(getLength(frame, 1, size, byteOrder),
+				(long) payload.length - 2);
+		Assert.assertEquals(filter.tellBoundary(null, frame), frame.size());
+
+		output = new Output();
+		Assert.assertTrue(filter.onMsgArrive(null, frame, output));
+		IBuffer msg = (IBuffer) output.m_outs.get(0);
+		Assert.assertEquals(msg.size(), 1 + size + payload.length);
+		msg.skip(1 + size);
+		Assert.assertEquals(msg.readBytes(), payload);
+	}
+
+	@Test(dataProvider = "fields")
+	public void test_oversize(int size, String byteOrder) {
+		// exceeding maxFrameLength
+		LengthField filter = createFilter(size, byteOrder, 0, 0, true, 32);
+		assertDepartFails(filter, 32 - size + 1);
+		IBuffer data = m_factory.create();
+		data.writeBytes(createBytes(32 - size));
+		Assert.assertTrue(filter.onMsgDepart(null, data, new Output()));
+		Assert.assertEquals(data.size(), 32);
+
+		IBuffer in = m_factory.create();
+		if (byteOrder.equals("BIG_ENDIAN")) {
+			in.writeFill((byte) 0, size - 1);
+			in.writeByte((byte) 33);
+		} else {
+			in.writeByte((byte) 33);
+			in.writeFill((byte) 0, size - 1);
+		}
+		Assert.assertEquals(filter.tellBoundary(null, in), IFilter.E_ERROR);
+
+		// exceeding the range of the length field
+		if (size < 4) {
+			filter = createFilter(size, byteOrder, 0, 0, true, 0);
+			assertDepartFails(filter, 1 << (size << 3));
+			filter = createFilter(size, byteOrder, 0, 0, false, 0);
+			assertDepartFails(filter, (1 << (size << 3)) + size);
+		}
+
+		// a negative length
+		filter = createFilter(size, byteOrder, 0, 3, true, 0);
+		assertDepartFails(filter, 2);
+
+		// shorter than the header
+		filter = createFilter(size, byteOrder, 2, 0, false, 0);
+		assertDepartFails(filter, size + 1);
+	}
+
+	private void assertDepartFails(LengthField filter, int length) {
+		IBuffer data = m_factory.create();
+		data.writeBytes(createBytes(length));
+		Output output = new Output();
+		try {
+			filter.onMsgDepart(null, data, output);
+			Assert.fail("departure of " + length + " bytes is not rejected");
+		} catch (RuntimeException e) {
+		}
+		Assert.assertTrue(output.m_outs.isEmpty());
+	}
+
+	private static LengthField createFilter(int size, String byteOrder,
+			int offset, int adjustment, boolean stripHeader, int maxFrameLength) {
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put("lengthFieldSize", size);
+		props.put("byteOrder", byteOrder);
+		props.put("lengthFieldOffset", offset);
+		props.put("lengthAdjustment", adjustment);
+		props.put("stripHeader", stripHeader);
+		props.put("maxFrameLength", maxFrameLength);
+		LengthField filter = new LengthField();
+		filter.activate(props);
+		return filter;
+	}
+
+	private static long getLength(IBuffer frame, int index, int size,
+			String byteOrder) {
+		boolean bigEndian = byteOrder.equals("BIG_ENDIAN");
+		switch (size) {
+		case 1:
+			return frame.getUByte(index);
+		case 2:
+			return bigEndian ? frame.getUShortB(index) : frame
+					.getUShortL(index);
+		case 4:
+			return bigEndian ? frame.getIntB(index) : frame.getIntL(index);
+		default:
+			return bigEndian ? frame.getLongB(index) : frame.getLongL(index);
+		}
+	}
+
+	private static byte[] createBytes(int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; ++i)
+			bytes[i] = (byte) (i + 1);
+		return bytes;
+	}
+}
@@ -0,0 +1,505 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.io.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.jruyi.common.IBuffer;
+import org.jruyi.common.buffer.BufferFactory;
+import org.jruyi.io.ISslContextInfo;
+import org.jruyi.io.channel.IChannel;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class SslTest {
+
+	private static final String KEY_STORE = "test.jks";
+	private static final String PASSWORD = "jruyitest";
+	private static final long TIMEOUT = 10000L;
+	private BufferFactory m_factory;
+	private SslContextInfo m_sslci;
+
+	static final class SslContextInfo implements ISslContextInfo {
+
+		private final KeyManager[] m_keyManagers;
+		private final TrustManager[] m_certManagers;
+
+		SslContextInfo() throws Exception {
+			KeyStore ks = KeyStore.getInstance("JKS");
+			InputStream in = SslTest.class.getResourceAsStream(KEY_STORE);
+			try {
+				ks.load(in, PASSWORD.toCharArray());
+			} finally {
+				in.close();
+			}
+
+			KeyManagerFactory kmf = KeyManagerFactory
+					.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+			kmf.init(ks, PASSWORD.toCharArray());
+			m_keyManagers = kmf.getKeyManagers();
+
+			TrustManagerFactory tmf = TrustManagerFactory
+					.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+			tmf.init(ks);
+			m_certManagers = tmf.getTrustManagers();
+		}
+
+		@Override
+		public KeyManager[] getKeyManagers() {
+			return m_keyManagers;
+		}
+
+		@Override
+		public TrustManager[] getCertManagers() {
+			return m_certManagers;
+		}
+
+		@Override
+		public SecureRandom getSecureRandom() {
+			return null;
+		}
+	}
+
+	/**
+	 * One end of a loopback connection. Records sent by the other end are
+	 * framed and filtered on the reader thread of this end, the way the read
+	 * path of a channel does.
+	 */
+	static final class End implements InvocationHandler {
+
+		private final String m_name;
+		private final Ssl m_ssl;
+		private final IChannel m_channel;
+		private final ExecutorService m_reader;
+		private final IBuffer m_in;
+		private final ByteArrayOutputStream m_received = new ByteArrayOutputStream();
+		private final AtomicInteger m_resumedAfterClose = new AtomicInteger();
+		private volatile Object m_state;
+		private volatile boolean m_closed;
+		private End m_peer;
+
+		End(String name, Ssl ssl, IBuffer in) {
+			m_name = name;
+			m_ssl = ssl;
+			m_in = in;
+			m_channel = (IChannel) Proxy.newProxyInstance(
+					IChannel.class.getClassLoader(),
+					new Class<?>[] { IChannel.class }, this);
+			m_reader = Executors.newSingleThreadExecutor();
+		}
+
+		static void connect(End client, End server) {
+			client.m_peer = server;
+			server.m_peer = client;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			if (name.equals("filterState")) {
+				if (args.length > 1)
+					m_state = args[1];
+				return m_state;
+			}
+			if (name.equals("isClosed"))
+				return m_closed;
+			if (name.equals("close")) {
+				close();
+				return null;
+			}
+			if (name.equals("resumeArrive")) {
+				IBuffer appBuf = (IBuffer) args[1];
+				if (m_closed) {
+					m_resumedAfterClose.incrementAndGet();
+					appBuf.close();
+				} else
+					arrive(appBuf);
+				return null;
+			}
+			if (name.equals("resumeDepart")) {
+				IBuffer netBuf = (IBuffer) args[1];
+				if (m_closed) {
+					m_resumedAfterClose.incrementAndGet();
+					netBuf.close();
+				} else
+					transmit(netBuf);
+				return null;
+			}
+			if (name.equals("id"))
+				return 0L;
+			if (name.equals("hashCode"))
+				return System.identityHashCode(proxy);
+			if (name.equals("equals"))
+				return proxy == args[0];
+			if (name.equals("toString"))
+				return m_name;
+			// remoteAddress, localAddress and the rest
+			return null;
+		}
+
+		void write(IBuffer data) {
+			LengthFieldTest.Output output = new LengthFieldTest.Output();
+			if (!m_ssl.onMsgDepart(m_channel, data, output)) {
+				close();
+				return;
+			}
+
+			for (Object out : output.m_outs)
+				transmit((IBuffer) out);
+		}
+
+		void close() {
+			m_closed = true;
+		}
+
+		boolean isClosed() {
+			return m_closed;
+		}
+
+		Ssl.Var var() {
+			return (Ssl.Var) m_state;
+		}
+
+		int resumedAfterClose() {
+			return m_resumedAfterClose.get();
+		}
+
+		byte[] received() {
+			synchronized (m_received) {
+				return m_received.toByteArray();
+			}
+		}
+
+		void shutdown() {
+			m_reader.shutdownNow();
+		}
+
+		private void transmit(IBuffer netBuf) {
+			final byte[] bytes = netBuf.readBytes();
+			netBuf.close();
+			final End peer = m_peer;
+			peer.m_reader.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					peer.receive(bytes);
+				}
+			});
+		}
+
+		private void receive(byte[] bytes) {
+			if (m_closed)
+				return;
+
+			IBuffer in = m_in;
+			in.writeBytes(bytes);
+			while (!in.isEmpty()) {
+				int n = m_ssl.tellBoundary(m_channel, in);
+				if (n < 0 || in.size() < n)
+					break;
+
+				LengthFieldTest.Output output = new LengthFieldTest.Output();
+				if (!m_ssl.onMsgArrive(m_channel, in.split(n), output)) {
+					close();
+					return;
+				}
+
+				for (Object out : output.m_outs)
+					arrive((IBuffer) out);
+			}
+		}
+
+		private void arrive(IBuffer appBuf) {
+			byte[] bytes = appBuf.readBytes();
+			appBuf.close();
+			synchronized (m_received) {
+				m_received.write(bytes, 0, bytes.length);
+			}
+		}
+	}
+
+	/**
+	 * Holds the only thread of a handshake executor till released.
+	 */
+	static final class Gate implements Runnable {
+
+		private final CountDownLatch m_started = new CountDownLatch(1);
+		private final CountDownLatch m_released = new CountDownLatch(1);
+
+		static Gate hold(ThreadPoolExecutor executor) throws Exception {
+			Gate gate = new Gate();
+			executor.execute(gate);
+			Assert.assertTrue(gate.m_started.await(TIMEOUT,
+					TimeUnit.MILLISECONDS));
+			return gate;
+		}
+
+		@Override
+		public void run() {
+			m_started.countDown();
+			try {
+				m_released.await();
+			} catch (InterruptedException e) {
+			}
+		}
+
+		void release() {
+			m_released.countDown();
+		}
+	}
+
+	interface Condition {
+
+		boolean isMet();
+	}
+
+	@BeforeClass
+	public void setUp() throws Exception {
+		System.out.println("Testing Ssl...");
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put("unitCapacity", 256);
+		m_factory = new BufferFactory();
+		Method activate = BufferFactory.class.getDeclaredMethod("activate",
+				Map.class);
+		activate.setAccessible(true);
+		activate.invoke(m_factory, props);
+
+		m_sslci = new SslContextInfo();
+	}
+
+	/**
+	 * Data departing while the delegated tasks are outstanding goes out in
+	 * order after the inception once the tasks are run.
+	 */
+	@Test
+	public void test_deferredOrder() throws Exception {
+		Ssl clientSsl = createSsl(1, 8);
+		Ssl serverSsl = createSsl(1, 8);
+		End client = new End("client", clientSsl, m_factory.create());
+		End server = new End("server", serverSsl, m_factory.create());
+		End.connect(client, server);
+		final ThreadPoolExecutor executor = executor(clientSsl);
+		Gate gate = Gate.hold(executor);
+		try {
+			client.write(createData("m0"));
+			// the client engine is stuck on its delegated tasks
+			await(new Condition() {
+
+				@Override
+				public boolean isMet() {
+					return executor.getQueue().size() == 1;
+				}
+			});
+
+			StringBuilder expected = new StringBuilder("m0");
+			for (int i = 1; i < 10; ++i) {
+				client.write(createData("m" + i));
+				expected.append('m').append(i);
+			}
+			Assert.assertEquals(server.received().length, 0);
+
+			gate.release();
+			awaitReceived(server, expected.toString());
+
+			// the handshake is over, no more deferring
+			client.write(createData("n0"));
+			expected.append("n0");
+			awaitReceived(server, expected.toString());
+			server.write(createData("s0"));
+			awaitReceived(client, "s0");
+
+			Assert.assertFalse(client.isClosed());
+			Assert.assertFalse(server.isClosed());
+			Assert.assertEquals(clientSsl.fullHandshakes(), 1L);
+			Assert.assertEquals(serverSsl.fullHandshakes(), 1L);
+		} finally {
+			gate.release();
+			shutdown(clientSsl, serverSsl, client, server);
+		}
+	}
+
+	/**
+	 * A handshake that does not fit in the handshake queue fails the session,
+	 * while the queued one completes.
+	 */
+	@Test
+	public void test_rejected() throws Exception {
+		Ssl clientSsl = createSsl(0, 0);
+		Ssl serverSsl = createSsl(1, 1);
+		End clientA = new End("clientA", clientSsl, m_factory.create());
+		End serverA = new End("serverA", serverSsl, m_factory.create());
+		End.connect(clientA, serverA);
+		End clientB = new End("clientB", clientSsl, m_factory.create());
+		final End serverB = new End("serverB", serverSsl, m_factory.create());
+		End.connect(clientB, serverB);
+		final ThreadPoolExecutor executor = executor(serverSsl);
+		Gate gate = Gate.hold(executor);
+		try {
+			clientA.write(createData("a"));
+			await(new Condition() {
+
+				@Override
+				public boolean isMet() {
+					return executor.getQueue().size() == 1;
+				}
+			});
+
+			clientB.write(createData("b"));
+			await(new Condition() {
+
+				@Override
+				public boolean isMet() {
+					return serverB.isClosed();
+				}
+			});
+			Assert.assertNull(serverB.var().pollArrival());
+
+			gate.release();
+			awaitReceived(serverA, "a");
+			Assert.assertFalse(serverA.isClosed());
+			Assert.assertEquals(serverB.received().length, 0);
+			Assert.assertEquals(serverSsl.fullHandshakes(), 1L);
+		} finally {
+			gate.release();
+			shutdown(clientSsl, serverSsl, clientA, serverA);
+			clientB.shutdown();
+			serverB.shutdown();
+		}
+	}
+
+	/**
+	 * Nothing is resumed on a session closed while its delegated tasks are
+	 * outstanding, and the data deferred meanwhile is dropped.
+	 */
+	@Test
+	public void test_closedWhileOffloaded() throws Exception {
+		Ssl clientSsl = createSsl(0, 0);
+		Ssl serverSsl = createSsl(1, 8);
+		End client = new End("client", clientSsl, m_factory.create());
+		End server = new End("server", serverSsl, m_factory.create());
+		End.connect(client, server);
+		final ThreadPoolExecutor executor = executor(serverSsl);
+		Gate gate = Gate.hold(executor);
+		try {
+			client.write(createData("c0"));
+			await(new Condition() {
+
+				@Override
+				public boolean isMet() {
+					return executor.getQueue().size() == 1;
+				}
+			});
+
+			server.write(createData("s0"));
+			server.close();
+
+			gate.release();
+			await(new Condition() {
+
+				@Override
+				public boolean isMet() {
+					return executor.getCompletedTaskCount() == 2;
+				}
+			});
+
+			Assert.assertEquals(server.resumedAfterClose(), 0);
+			Assert.assertNull(server.var().pollArrival());
+			Assert.assertNull(server.var().pollDeparture());
+			Assert.assertEquals(server.received().length, 0);
+			Assert.assertEquals(client.received().length, 0);
+			Assert.assertEquals(serverSsl.fullHandshakes(), 0L);
+		} finally {
+			gate.release();
+			shutdown(clientSsl, serverSsl, client, server);
+		}
+	}
+
+	private Ssl createSsl(int handshakeThreads, int handshakeQueueSize)
+			throws Exception {
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put("protocol", "TLS");
+		props.put("needClientAuth", Boolean.FALSE);
+		props.put("wantClientAuth", Boolean.FALSE);
+		props.put("handshakeThreads", handshakeThreads);
+		props.put("handshakeQueueSize", handshakeQueueSize);
+		Ssl ssl = new Ssl();
+		ssl.setSslContextInfo(m_sslci);
+		ssl.activate(null, props);
+		return ssl;
+	}
+
+	private IBuffer createData(String text) {
+		IBuffer data = m_factory.create();
+		data.writeBytes(text.getBytes());
+		return data;
+	}
+
+	private static ThreadPoolExecutor executor(Ssl ssl) throws Exception {
+		Field field = Ssl.class.getDeclaredField("m_handshakeExecutor");
+		field.setAccessible(true);
+		return (ThreadPoolExecutor) field.get(ssl);
+	}
+
+	private static void awaitReceived(final End end, final String expected)
+			throws Exception {
+		await(new Condition() {
+
+			@Override
+			public boolean isMet() {
+				return end.received().length >= expected.length();
+			}
+		});
+		Assert.assertEquals(new String(end.received()), expected);
+	}
+
+	private static void await(Condition condition) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (!condition.isMet()) {
+			if (System.currentTimeMillis() > deadline)
+				Assert.fail("Timed out");
+			Thread.sleep(10L);
+		}
+	}
+
+	private static void shutdown(Ssl clientSsl, Ssl serverSsl, End client,
+			End server) {
+		clientSsl.deactivate();
+		serverSsl.deactivate();
+		client.shutdown();
+		server.shutdown();
+	}
+}
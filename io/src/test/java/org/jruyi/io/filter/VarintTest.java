@@ -0,0 +1,183 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.io.filter;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jruyi.common.IBuffer;
+import org.jruyi.common.buffer.BufferFactory;
+import org.jruyi.io.IFilter;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class VarintTest {
+
+	private BufferFactory m_factory;
+
+	@DataProvider(name = "lengths")
+	public Object[][] createLengths() {
+		// one to three groups, on and around the group boundaries
+		int[] lengths = { 0, 1, 127, 128, 300, 16383, 16384, 20000 };
+		Object[][] data = new Object[lengths.length][];
+		for (int i = 0; i < lengths.length; ++i)
+			data[i] = new Object[] { lengths[i] };
+		return data;
+	}
+
+	@BeforeClass
+	public void setUp() throws Exception {
+		System.out.println("Testing Varint...");
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put("unitCapacity", 8);
+		m_factory = new BufferFactory();
+		Method activate = BufferFactory.class.getDeclaredMethod("activate",
+				Map.class);
+		activate.setAccessible(true);
+		activate.invoke(m_factory, props);
+	}
+
+	@Test(dataProvider = "lengths")
+	public void test_partialFrame(int length) {
+		Varint filter = createFilter(true, 0);
+		IBuffer data = m_factory.create();
+		data.writeBytes(createBytes(length));
+		LengthFieldTest.Output output = new LengthFieldTest.Output();
+		Assert.assertTrue(filter.onMsgDepart(null, data, output));
+		byte[] bytes = ((IBuffer) output.m_outs.get(0)).readBytes();
+		int headerLength = bytes.length - length;
+		Assert.assertEquals(headerLength, varintSize(length));
+
+		// the boundary is unknown until the whole varint is there
+		IBuffer in = m_factory.create();
+		for (int i = 0; i < bytes.length; ++i) {
+			int boundary = filter.tellBoundary(null, in);
+			if (i < headerLength)
+				Assert.assertEquals(boundary, IFilter.E_UNDERFLOW);
+			else
+				Assert.assertEquals(boundary, bytes.length);
+			in.writeByte(bytes[i]);
+		}
+		Assert.assertEquals(filter.tellBoundary(null, in), bytes.length);
+	}
+
+	@Test(dataProvider = "lengths")
+	public void test_stripHeader(int length) {
+		Varint filter = createFilter(true, 0);
+		byte[] payload = createBytes(length);
+		IBuffer data = m_factory.create();
+		data.writeBytes(payload);
+
+		LengthFieldTest.Output output = new LengthFieldTest.Output();
+		Assert.assertTrue(filter.onMsgDepart(null, data, output));
+		IBuffer frame = (IBuffer) output.m_outs.get(0);
+		Assert.assertEquals(frame.size(), varintSize(length) + length);
+		Assert.assertEquals(filter.tellBoundary(null, frame), frame.size());
+
+		output = new LengthFieldTest.Output();
+		Assert.assertTrue(filter.onMsgArrive(null, frame, output));
+		IBuffer msg = (IBuffer) output.m_outs.get(0);
+		Assert.assertEquals(msg.readBytes(), payload);
+	}
+
+	@Test(dataProvider = "lengths")
+	public void test_keepHeader(int length) {
+		Varint filter = createFilter(false, 0);
+		IBuffer frame = m_factory.create();
+		writeVarint(frame, length);
+		frame.writeBytes(createBytes(length));
+		int size = frame.size();
+
+		LengthFieldTest.Output output = new LengthFieldTest.Output();
+		Assert.assertTrue(filter.onMsgDepart(null, frame, output));
+		Assert.assertEquals(((IBuffer) output.m_outs.get(0)).size(), size);
+		Assert.assertEquals(filter.tellBoundary(null, frame), size);
+
+		output = new LengthFieldTest.Output();
+		Assert.assertTrue(filter.onMsgArrive(null, frame, output));
+		Assert.assertEquals(((IBuffer) output.m_outs.get(0)).size(), size);
+	}
+
+	@Test
+	public void test_oversize() {
+		// a frame of 130 bytes takes a varint of 2 bytes
+		Varint filter = createFilter(true, 130);
+		assertDepartFails(filter, 129);
+		IBuffer data = m_factory.create();
+		data.writeBytes(createBytes(128));
+		filter.onMsgDepart(null, data, new LengthFieldTest.Output());
+		Assert.assertEquals(data.size(), 130);
+
+		filter = createFilter(false, 130);
+		assertDepartFails(filter, 131);
+
+		IBuffer in = m_factory.create();
+		writeVarint(in, 129);
+		Assert.assertEquals(filter.tellBoundary(null, in), IFilter.E_ERROR);
+
+		// more than 5 groups
+		in = m_factory.create();
+		in.writeFill((byte) 0x80, 5);
+		in.writeByte((byte) 0);
+		Assert.assertEquals(filter.tellBoundary(null, in), IFilter.E_ERROR);
+	}
+
+	private void assertDepartFails(Varint filter, int length) {
+		IBuffer data = m_factory.create();
+		data.writeBytes(createBytes(length));
+		LengthFieldTest.Output output = new LengthFieldTest.Output();
+		try {
+			filter.onMsgDepart(null, data, output);
+			Assert.fail("departure of " + length + " bytes is not rejected");
+		} catch (RuntimeException e) {
+		}
+		Assert.assertTrue(output.m_outs.isEmpty());
+	}
+
+	private static Varint createFilter(boolean stripHeader, int maxFrameLength) {
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put("stripHeader", stripHeader);
+		props.put("maxFrameLength", maxFrameLength);
+		Varint filter = new Varint();
+		filter.activate(props);
+		return filter;
+	}
+
+	private static void writeVarint(IBuffer out, int length) {
+		while ((length >>> 7) != 0) {
+			out.writeByte((byte) (length | 0x80));
+			length >>>= 7;
+		}
+		out.writeByte((byte) length);
+	}
+
+	private static int varintSize(int length) {
+		int n = 1;
+		while ((length >>>= 7) != 0)
+			++n;
+		return n;
+	}
+
+	private static byte[] createBytes(int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; ++i)
+			bytes[i] = (byte) (i + 1);
+		return bytes;
+	}
+}
@@ -0,0 +1,318 @@
+/**
+ * Copyright 2012 JRuyi.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jruyi.io.udpserver;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jruyi.common.IBuffer;
+import org.jruyi.common.buffer.BufferFactory;
+import org.jruyi.io.IFilter;
+import org.jruyi.io.channel.ChannelAdminStub;
+import org.jruyi.io.channel.IChannel;
+import org.jruyi.io.channel.ISelectableChannel;
+import org.jruyi.io.filter.IFilterChain;
+import org.jruyi.io.filter.IFilterManager;
+import org.jruyi.me.IMessage;
+import org.jruyi.me.IProducer;
+import org.jruyi.me.MeConstants;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class UdpServerTest {
+
+	private static final String LOCALHOST = "127.0.0.1";
+	private BufferFactory m_factory;
+
+	/**
+	 * Keeps the messages the server sends, with the remote address each one
+	 * is from.
+	 */
+	static final class Producer implements IProducer, InvocationHandler {
+
+		final List<SocketAddress> m_from = new ArrayList<SocketAddress>();
+		final List<byte[]> m_received = new ArrayList<byte[]>();
+		private final Map<Object, Object> m_deposits = new IdentityHashMap<Object, Object>();
+		private Object m_attachment;
+
+		@Override
+		public IMessage createMessage() {
+			return message();
+		}
+
+		@Override
+		public void send(IMessage message) {
+			IBuffer data = (IBuffer) message.detach();
+			m_received.add(data.readBytes());
+			data.close();
+			for (Object v : m_deposits.values())
+				m_from.add((SocketAddress) v);
+			m_deposits.clear();
+		}
+
+		// a single message in use at a time
+		IMessage message() {
+			return (IMessage) Proxy.newProxyInstance(
+					IMessage.class.getClassLoader(),
+					new Class<?>[] { IMessage.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			if (name.equals("deposit"))
+				return m_deposits.put(args[0], args[1]);
+			if (name.equals("withdraw"))
+				return m_deposits.remove(args[0]);
+			if (name.equals("attach")) {
+				Object attachment = m_attachment;
+				m_attachment = args[0];
+				return attachment;
+			}
+			if (name.equals("detach")) {
+				Object attachment = m_attachment;
+				m_attachment = null;
+				return attachment;
+			}
+			if (name.equals("close"))
+				return null;
+			throw new UnsupportedOperationException(name);
+		}
+	}
+
+	static final class FilterManager implements IFilterManager {
+
+		@Override
+		public IFilterChain getFilters(String[] filterIds) {
+			return new IFilterChain() {
+
+				@Override
+				public IFilter[] filters() {
+					return new IFilter[0];
+				}
+			};
+		}
+
+		@Override
+		public void ungetFilters(IFilterChain filterChain) {
+		}
+	}
+
+	@BeforeClass
+	public void setUp() throws Exception {
+		System.out.println("Testing UdpServer...");
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put("unitCapacity", 64);
+		m_factory = new BufferFactory();
+		Method activate = BufferFactory.class.getDeclaredMethod("activate",
+				Map.class);
+		activate.setAccessible(true);
+		activate.invoke(m_factory, props);
+	}
+
+	@Test
+	public void test_batchDrain() throws Exception {
+		ChannelAdminStub ca = new ChannelAdminStub();
+		Producer producer = new Producer();
+		Map<String, Object> props = createProps(4);
+		UdpServer server = createServer(ca, producer, props);
+		DatagramChannel a = openClient();
+		DatagramChannel b = openClient();
+		try {
+			SocketAddress serverAddr = serverAddress(props);
+			send(a, serverAddr, "a0", "a1", "a2");
+			send(b, serverAddr, "b0", "b1");
+			send(a, serverAddr, "a3");
+			ISelectableChannel serverChannel = serverChannel(ca);
+
+			// up to the batch size per read event
+			read(serverChannel, producer, 4);
+			Assert.assertEquals(producer.m_received.size(), 4);
+			read(serverChannel, producer, 6);
+			Assert.assertEquals(producer.m_received.size(), 6);
+			// nothing pending
+			serverChannel.onRead().run();
+			Assert.assertEquals(producer.m_received.size(), 6);
+
+			SocketAddress addrA = a.socket().getLocalSocketAddress();
+			SocketAddress addrB = b.socket().getLocalSocketAddress();
+			String[] expected = { "a0", "a1", "a2", "b0", "b1", "a3" };
+			for (int i = 0; i < expected.length; ++i) {
+				Assert.assertEquals(new String(producer.m_received.get(i)),
+						expected[i]);
+				Assert.assertEquals(producer.m_from.get(i),
+						expected[i].charAt(0) == 'a' ? addrA : addrB);
+			}
+
+			// a new batch size takes effect without restarting
+			props.put("receiveBatchSize", 1);
+			server.update(props);
+			send(b, serverAddr, "b2", "b3");
+			read(serverChannel, producer, 7);
+			Assert.assertEquals(producer.m_received.size(), 7);
+			read(serverChannel, producer, 8);
+			Assert.assertEquals(new String(producer.m_received.get(7)), "b3");
+		} finally {
+			a.close();
+			b.close();
+			server.deactivate();
+		}
+	}
+
+	@Test
+	public void test_sharedSocket() throws Exception {
+		ChannelAdminStub ca = new ChannelAdminStub();
+		Producer producer = new Producer();
+		Map<String, Object> props = createProps(32);
+		UdpServer server = createServer(ca, producer, props);
+		DatagramChannel a = openClient();
+		DatagramChannel b = openClient();
+		try {
+			SocketAddress serverAddr = serverAddress(props);
+			send(a, serverAddr, "a0");
+			send(b, serverAddr, "b0");
+			ISelectableChannel serverChannel = serverChannel(ca);
+			read(serverChannel, producer, 2);
+
+			// one session per peer, on the bound socket
+			SocketAddress addrA = a.socket().getLocalSocketAddress();
+			SocketAddress addrB = b.socket().getLocalSocketAddress();
+			IChannel peerA = server.getChannel(addrA);
+			IChannel peerB = server.getChannel(addrB);
+			Assert.assertTrue(peerA instanceof UdpPeerChannel);
+			Assert.assertTrue(peerB instanceof UdpPeerChannel);
+			Assert.assertNotSame(peerA, peerB);
+			Assert.assertEquals(peerA.localAddress(), serverAddr);
+			Assert.assertEquals(peerB.localAddress(), serverAddr);
+
+			// the session is kept for the peer's next datagram
+			send(a, serverAddr, "a1");
+			read(serverChannel, producer, 3);
+			Assert.assertSame(server.getChannel(addrA), peerA);
+
+			// replies come from the bound socket, one datagram per message
+			reply(server, producer, addrA, "r0");
+			reply(server, producer, addrA, "r1");
+			reply(server, producer, addrB, "r2");
+			assertReceived(a, serverAddr, "r0");
+			assertReceived(a, serverAddr, "r1");
+			assertReceived(b, serverAddr, "r2");
+		} finally {
+			a.close();
+			b.close();
+			server.deactivate();
+		}
+	}
+
+	private UdpServer createServer(ChannelAdminStub ca, Producer producer,
+			Map<String, Object> props) throws Exception {
+		UdpServer server = new UdpServer();
+		server.setChannelAdmin(ca);
+		server.setBufferFactory(m_factory);
+		server.setFilterManager(new FilterManager());
+		server.producer(producer);
+		server.activate(null, props);
+		return server;
+	}
+
+	private static Map<String, Object> createProps(int receiveBatchSize)
+			throws Exception {
+		// a free port
+		DatagramSocket socket = new DatagramSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put(MeConstants.EP_ID, "udpServerTest");
+		props.put("bindAddr", LOCALHOST);
+		props.put("port", port);
+		props.put("sessionIdleTimeout", -1);
+		props.put("initCapacityOfChannelMap", 16);
+		props.put("sharedSocket", true);
+		props.put("receiveBatchSize", receiveBatchSize);
+		return props;
+	}
+
+	private static SocketAddress serverAddress(Map<String, Object> props) {
+		return new InetSocketAddress(LOCALHOST, (Integer) props.get("port"));
+	}
+
+	private static ISelectableChannel serverChannel(ChannelAdminStub ca) {
+		List<ISelectableChannel> registered = ca.registered();
+		Assert.assertEquals(registered.size(), 1);
+		return registered.get(0);
+	}
+
+	private static DatagramChannel openClient() throws Exception {
+		DatagramChannel channel = DatagramChannel.open();
+		channel.socket().bind(new InetSocketAddress(LOCALHOST, 0));
+		channel.socket().setSoTimeout(5000);
+		return channel;
+	}
+
+	private static void send(DatagramChannel channel, SocketAddress target,
+			String... datagrams) throws Exception {
+		for (String datagram : datagrams)
+			channel.send(ByteBuffer.wrap(datagram.getBytes()), target);
+	}
+
+	/**
+	 * Run the read events of the server channel till the given number of
+	 * datagrams are received in total, as they may take a while to arrive.
+	 */
+	private static void read(ISelectableChannel serverChannel,
+			Producer producer, int total) throws Exception {
+		for (int i = 0; i < 500 && producer.m_received.size() < total; ++i) {
+			if (i > 0)
+				Thread.sleep(10L);
+			serverChannel.onRead().run();
+		}
+	}
+
+	private void reply(UdpServer server, Producer producer,
+			SocketAddress to, String data) {
+		IMessage message = producer.message();
+		message.deposit(server, to);
+		IBuffer buffer = m_factory.create();
+		buffer.writeBytes(data.getBytes());
+		message.attach(buffer);
+		server.onMessage(message);
+	}
+
+	private static void assertReceived(DatagramChannel channel,
+			SocketAddress from, String expected) throws Exception {
+		byte[] bytes = new byte[64];
+		DatagramPacket packet = new DatagramPacket(bytes, bytes.length);
+		channel.socket().receive(packet);
+		Assert.assertEquals(packet.getSocketAddress(), from);
+		Assert.assertEquals(
+				Arrays.copyOf(bytes, packet.getLength()), expected.getBytes());
+	}
+}
@@ -15,6 +15,7 @@
  */
 package org.jruyi.workshop.impl;
 
+import java.util.Collection;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
@@ -23,9 +24,42 @@ import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 final class BlockingThreadPoolExecutor extends ThreadPoolExecutor {
 
+	private static final ThreadLocal<TrySubmit> m_trySubmit;
+	private final int m_queueCapacity;
+	// number of the threads running jobs
+	private final AtomicInteger m_activeCount;
+
+	static {
+		m_trySubmit = new ThreadLocal<TrySubmit>() {
+
+			@Override
+			protected TrySubmit initialValue() {
+				return new TrySubmit();
+			}
+		};
+	}
+
+	/**
+	 * The state of a non-blocking submission on the current thread.
+	 */
+	static final class TrySubmit {
+
+		boolean m_trying;
+		boolean m_rejected;
+	}
+
+	interface IJobQueue {
+
+		/**
+		 * Queue the given job if it can be done without blocking.
+		 */
+		public boolean tryPut(Runnable r);
+	}
+
 	static final class PooledThread extends Thread {
 
 		PooledThread(Runnable r) {
@@ -41,7 +75,8 @@ final class BlockingThreadPoolExecutor extends ThreadPoolExecutor {
 		}
 	}
 
-	static final class NoOfferSynchronousQueue extends SynchronousQueue<Runnable> {
+	static final class NoOfferSynchronousQueue extends
+			SynchronousQueue<Runnable> implements IJobQueue {
 
 		private static final long serialVersionUID = -5865387484672577740L;
 
@@ -49,23 +84,102 @@ final class BlockingThreadPoolExecutor extends ThreadPoolExecutor {
 		public boolean offer(Runnable r) {
 			return false;
 		}
+
+		@Override
+		public boolean tryPut(Runnable r) {
+			return super.offer(r);
+		}
 	}
 
-	static final class NoOfferArrayBlockingQueue extends ArrayBlockingQueue<Runnable> {
+	/**
+	 * Keeps its own count of the queued jobs, which can be read without
+	 * taking the queue lock.
+	 */
+	static final class NoOfferArrayBlockingQueue extends
+			ArrayBlockingQueue<Runnable> implements IJobQueue {
 
 		private static final long serialVersionUID = -1198203241217503456L;
+		private final AtomicInteger m_count;
 
 		NoOfferArrayBlockingQueue(int capacity) {
 			super(capacity);
+			m_count = new AtomicInteger();
 		}
 
 		@Override
 		public boolean offer(Runnable r) {
 			return false;
 		}
+
+		@Override
+		public boolean tryPut(Runnable r) {
+			if (!super.offer(r))
+				return false;
+
+			m_count.incrementAndGet();
+			return true;
+		}
+
+		@Override
+		public void put(Runnable r) throws InterruptedException {
+			super.put(r);
+			m_count.incrementAndGet();
+		}
+
+		@Override
+		public Runnable take() throws InterruptedException {
+			Runnable r = super.take();
+			m_count.decrementAndGet();
+			return r;
+		}
+
+		@Override
+		public Runnable poll(long timeout, TimeUnit unit)
+				throws InterruptedException {
+			return taken(super.poll(timeout, unit));
+		}
+
+		@Override
+		public Runnable poll() {
+			return taken(super.poll());
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			if (!super.remove(o))
+				return false;
+
+			m_count.decrementAndGet();
+			return true;
+		}
+
+		@Override
+		public int drainTo(Collection<? super Runnable> c) {
+			int n = super.drainTo(c);
+			m_count.addAndGet(-n);
+			return n;
+		}
+
+		@Override
+		public int drainTo(Collection<? super Runnable> c, int maxElements) {
+			int n = super.drainTo(c, maxElements);
+			m_count.addAndGet(-n);
+			return n;
+		}
+
+		int count() {
+			return m_count.get();
+		}
+
+		private Runnable taken(Runnable r) {
+			if (r != null)
+				m_count.decrementAndGet();
+			return r;
+		}
 	}
 
-	static final class NoOfferLinkedBlockingQueue extends LinkedBlockingQueue<Runnable> {
+	static final class NoOfferLinkedBlockingQueue extends
+			LinkedBlockingQueue<Runnable> implements IJobQueue {
 
 		private static final long serialVersionUID = 1437201513532500949L;
 
@@ -73,6 +187,11 @@ final class BlockingThreadPoolExecutor extends ThreadPoolExecutor {
 		public boolean offer(Runnable e) {
 			return false;
 		}
+
+		@Override
+		public boolean tryPut(Runnable r) {
+			return super.offer(r);
+		}
 	}
 
 	static final class BlockPolicy implements RejectedExecutionHandler {
@@ -82,6 +201,14 @@ final class BlockingThreadPoolExecutor extends ThreadPoolExecutor {
 			if (executor.isShutdown())
 				throw new RejectedExecutionException("Workshop has been shutdown");
 
+			// Queue it only if no blocking, for tryExecute.
+			TrySubmit trySubmit = m_trySubmit.get();
+			if (trySubmit.m_trying) {
+				if (!((IJobQueue) executor.getQueue()).tryPut(r))
+					trySubmit.m_rejected = true;
+				return;
+			}
+
 			// If the current thread is PooledThread, then use the CallerRunsPolicy.
 			// Otherwise deadlock might be introduced if the PooledThread blocks here.
 			if (Thread.currentThread() instanceof PooledThread)
@@ -106,5 +233,56 @@ final class BlockingThreadPoolExecutor extends ThreadPoolExecutor {
 				: new NoOfferSynchronousQueue()),
 				new PooledThreadFactory(),
 				new BlockPolicy());
+		m_queueCapacity = queueCapacity;
+		m_activeCount = new AtomicInteger();
+	}
+
+	/**
+	 * Execute the given job unless it would block the calling thread.
+	 * 
+	 * @return false if the executor is saturated, otherwise true
+	 */
+	boolean tryExecute(Runnable r) {
+		TrySubmit trySubmit = m_trySubmit.get();
+		trySubmit.m_trying = true;
+		try {
+			execute(r);
+		} finally {
+			trySubmit.m_trying = false;
+		}
+
+		if (!trySubmit.m_rejected)
+			return true;
+
+		trySubmit.m_rejected = false;
+		return false;
+	}
+
+	/**
+	 * Return the percentage of the job queue capacity in use, without taking
+	 * any lock.
+	 */
+	int queueLoad() {
+		int queueCapacity = m_queueCapacity;
+		if (queueCapacity < 0)
+			return 0;
+
+		// jobs are handed off to the threads directly
+		if (queueCapacity == 0)
+			return Math.min(m_activeCount.get() * 100 / getMaximumPoolSize(),
+					100);
+
+		int count = ((NoOfferArrayBlockingQueue) getQueue()).count();
+		return Math.min(count * 100 / queueCapacity, 100);
+	}
+
+	@Override
+	protected void beforeExecute(Thread t, Runnable r) {
+		m_activeCount.incrementAndGet();
+	}
+
+	@Override
+	protected void afterExecute(Runnable r, Throwable t) {
+		m_activeCount.decrementAndGet();
 	}
 }
@@ -16,7 +16,6 @@
 package org.jruyi.workshop.impl;
 
 import java.util.Map;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.jruyi.common.IArgList;
@@ -35,7 +34,7 @@ public final class Worker implements IWorker {
 	private static final String P_TERM_WAITTIME = "terminationWaitTime";
 	private static final Logger m_logger = LoggerFactory
 			.getLogger(Worker.class);
-	private ThreadPoolExecutor m_executor;
+	private BlockingThreadPoolExecutor m_executor;
 	private int m_queueCapacity;
 	private int m_terminationWaitTime = 300;
 
@@ -49,6 +48,16 @@ public final class Worker implements IWorker {
 		m_executor.execute(Task.get(job, argList));
 	}
 
+	@Override
+	public boolean tryRun(Runnable job) {
+		return m_executor.tryExecute(job);
+	}
+
+	@Override
+	public int queueLoad() {
+		return m_executor.queueLoad();
+	}
+
 	protected void modified(Map<String, ?> properties) throws Exception {
 		int corePoolSize = (Integer) properties.get(P_CORE_POOLSIZE);
 		int maxPoolSize = (Integer) properties.get(P_MAX_POOLSIZE);
@@ -68,7 +77,7 @@ public final class Worker implements IWorker {
 			throw new Exception("Property[" + P_KEEPALIVE_TIME
 					+ "] has to be non-negative");
 
-		ThreadPoolExecutor executor = m_executor;
+		BlockingThreadPoolExecutor executor = m_executor;
 		int oldQueueCapacity = m_queueCapacity;
 		if (queueCapacity != oldQueueCapacity
 				&& (queueCapacity >= 0 || oldQueueCapacity >= 0)) {